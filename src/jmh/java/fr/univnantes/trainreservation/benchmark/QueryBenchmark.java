@@ -0,0 +1,85 @@
+package fr.univnantes.trainreservation.benchmark;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.impl.TicketReservationSystemImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the read-only queries of the system on a synthetic timetable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"10", "100"})
+    public int trains;
+
+    @Param({"10", "100"})
+    public int tripsPerTrain;
+
+    @Param({"0", "50"})
+    public int ticketsPerTrip;
+
+    private TimetableGenerator generator;
+    private TicketReservationSystemImpl system;
+    private Ticket ticket;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.generator = new TimetableGenerator(10, this.trains, this.tripsPerTrain, this.ticketsPerTrip);
+        this.system = this.generator.generate();
+        this.ticket = this.generator.getTrips().get(0).bookTicket("Benchmark");
+    }
+
+    @Benchmark
+    public List<Trip> findAvailableTrips() {
+        City origin = randomCity();
+        return this.system.findAvailableTrips(origin, TimetableGenerator.FIRST_DAY);
+    }
+
+    @Benchmark
+    public List<Trip> findAvailableTripsBetweenCities() {
+        return this.system.findAvailableTrips(randomCity(), randomCity(), TimetableGenerator.FIRST_DAY);
+    }
+
+    @Benchmark
+    public List<Trip> findPossibleExchanges() {
+        return this.system.findPossibleExchanges(this.ticket);
+    }
+
+    @Benchmark
+    public List<Trip> findTenPossibleExchanges() {
+        return this.system.findPossibleExchanges(this.ticket, 10);
+    }
+
+    @Benchmark
+    public List<Trip> findOrderedTripsOfTrain() {
+        int train = ThreadLocalRandom.current().nextInt(this.trains);
+        return this.system.findOrderedTripsOfTrain(this.generator.getTrains().get(train));
+    }
+
+    @Benchmark
+    public List<Ticket> getAllBookedTickets() {
+        return this.system.getAllBookedTickets();
+    }
+
+    @Benchmark
+    public int countBookedTickets() {
+        return this.system.viewBookedTickets().size();
+    }
+
+    private City randomCity() {
+        List<City> cities = this.generator.getCities();
+        return cities.get(ThreadLocalRandom.current().nextInt(cities.size()));
+    }
+}
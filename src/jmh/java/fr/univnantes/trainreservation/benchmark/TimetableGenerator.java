@@ -0,0 +1,107 @@
+package fr.univnantes.trainreservation.benchmark;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripException;
+import fr.univnantes.trainreservation.impl.CityImpl;
+import fr.univnantes.trainreservation.impl.TicketReservationSystemImpl;
+import fr.univnantes.trainreservation.impl.TrainImpl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a synthetic timetable for benchmarks.
+ * Each train shuttles between two neighbouring cities, with one trip every two hours starting at 5:00 on the first day,
+ * and each trip is booked with the same amount of tickets.
+ */
+public class TimetableGenerator {
+
+    public static final ZoneId TIME_ZONE = ZoneId.of("Europe/Paris");
+    public static final LocalDate FIRST_DAY = LocalDate.of(2022, 5, 12);
+
+    private static final Duration TRIP_DURATION = Duration.ofMinutes(80);
+    private static final Duration TRIP_INTERVAL = Duration.ofHours(2);
+
+    private final int cityCount;
+    private final int trainCount;
+    private final int tripsPerTrain;
+    private final int ticketsPerTrip;
+
+    private final List<City> cities;
+    private final List<Train> trains;
+    private final List<Trip> trips;
+
+    /**
+     * Creates a generator.
+     * @param cityCount The amount of cities.
+     * @param trainCount The amount of trains.
+     * @param tripsPerTrain The amount of trips of each train.
+     * @param ticketsPerTrip The amount of tickets booked on each trip.
+     */
+    public TimetableGenerator(int cityCount, int trainCount, int tripsPerTrain, int ticketsPerTrip) {
+        this.cityCount = cityCount;
+        this.trainCount = trainCount;
+        this.tripsPerTrain = tripsPerTrain;
+        this.ticketsPerTrip = ticketsPerTrip;
+        this.cities = new ArrayList<>();
+        this.trains = new ArrayList<>();
+        this.trips = new ArrayList<>();
+    }
+
+    /**
+     * Creates a system and fills it with the timetable.
+     * @return The filled system.
+     */
+    public TicketReservationSystemImpl generate() {
+        TicketReservationSystemImpl system = new TicketReservationSystemImpl(TIME_ZONE);
+        Instant start = FIRST_DAY.atTime(5, 0).atZone(TIME_ZONE).toInstant();
+        for (int c = 0; c < this.cityCount; c++) {
+            City city = new CityImpl("City " + c);
+            this.cities.add(city);
+            system.addCity(city);
+        }
+        try {
+            for (int t = 0; t < this.trainCount; t++) {
+                Train train = new TrainImpl("Train " + t, 2 * this.ticketsPerTrip + 1);
+                this.trains.add(train);
+                system.addTrain(train);
+                City here = this.cities.get(t % this.cityCount);
+                City there = this.cities.get((t + 1) % this.cityCount);
+                Instant departure = start.plus(Duration.ofMinutes(t % 60));
+                for (int i = 0; i < this.tripsPerTrain; i++) {
+                    Trip trip = system.createTrip(here, there, train, departure, departure.plus(TRIP_DURATION));
+                    for (int p = 0; p < this.ticketsPerTrip; p++) {
+                        trip.bookTicket("Passenger " + p);
+                    }
+                    this.trips.add(trip);
+                    City previous = here;
+                    here = there;
+                    there = previous;
+                    departure = departure.plus(TRIP_INTERVAL);
+                }
+            }
+        } catch (TripException | ReservationException e) {
+            throw new IllegalStateException(e);
+        }
+        return system;
+    }
+
+    public List<City> getCities() {
+        return this.cities;
+    }
+
+    public List<Train> getTrains() {
+        return this.trains;
+    }
+
+    public List<Trip> getTrips() {
+        return this.trips;
+    }
+}
@@ -0,0 +1,87 @@
+package fr.univnantes.trainreservation.benchmark;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripException;
+import fr.univnantes.trainreservation.impl.CityImpl;
+import fr.univnantes.trainreservation.impl.TicketReservationSystemImpl;
+import fr.univnantes.trainreservation.impl.TrainImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the operations that change the system, on a synthetic timetable.
+ * The timetable is generated again before each iteration, since the operations make it grow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBenchmark {
+
+    @Param({"10", "100"})
+    public int trains;
+
+    @Param({"10", "100"})
+    public int tripsPerTrain;
+
+    @Param({"0", "50"})
+    public int ticketsPerTrip;
+
+    private TimetableGenerator generator;
+    private TicketReservationSystemImpl system;
+    private Train shuttle;
+    private City here;
+    private City there;
+    private Instant nextDeparture;
+    private Trip popularTrip;
+    private Trip firstTrip;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws TripException {
+        this.generator = new TimetableGenerator(10, this.trains, this.tripsPerTrain, this.ticketsPerTrip);
+        this.system = this.generator.generate();
+        this.shuttle = new TrainImpl("Shuttle", Integer.MAX_VALUE);
+        this.here = new CityImpl("Here");
+        this.there = new CityImpl("There");
+        this.nextDeparture = TimetableGenerator.FIRST_DAY.atStartOfDay(TimetableGenerator.TIME_ZONE).toInstant();
+        this.popularTrip = this.system.createTrip(this.here, this.there,
+                new TrainImpl("Popular", Integer.MAX_VALUE), this.nextDeparture, this.nextDeparture.plusSeconds(60));
+        this.firstTrip = this.generator.getTrips().get(0);
+    }
+
+    @Benchmark
+    public Trip createTrip() throws TripException {
+        Instant departure = this.nextDeparture;
+        this.nextDeparture = departure.plus(Duration.ofMinutes(30));
+        Trip trip = this.system.createTrip(this.here, this.there, this.shuttle, departure, departure.plus(Duration.ofMinutes(15)));
+        City previous = this.here;
+        this.here = this.there;
+        this.there = previous;
+        return trip;
+    }
+
+    @Benchmark
+    public Ticket bookTicket() throws ReservationException {
+        return this.popularTrip.bookTicket("Passenger");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Ticket bookTicketConcurrently() throws ReservationException {
+        return this.popularTrip.bookTicket("Passenger");
+    }
+
+    @Benchmark
+    public void propagateDelay() {
+        this.system.delayTripArrival(this.firstTrip, Duration.ofSeconds(1));
+    }
+}
@@ -0,0 +1,78 @@
+package fr.univnantes.trainreservation;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Represents a completed trip that was moved out of the system into its archive, with its tickets.
+ * An archived trip can only be read: its tickets can no longer be booked, cancelled or exchanged.
+ */
+public interface ArchivedTrip {
+
+    /**
+     * Retrieves the city from which the trip departed.
+     * @return The origin of the trip.
+     */
+    City getOrigin();
+
+    /**
+     * Retrieves the city to which the trip arrived.
+     * @return The destination of the trip.
+     */
+    City getDestination();
+
+    /**
+     * Retrieves the train used for the trip.
+     * @return The train of the trip.
+     */
+    Train getTrain();
+
+    /**
+     * Retrieves the planned departure time of the trip.
+     * @return The planned departure time.
+     */
+    Instant getPlannedDepartureTime();
+
+    /**
+     * Retrieves the planned arrival time of the trip.
+     * @return The planned arrival time.
+     */
+    Instant getPlannedArrivalTime();
+
+    /**
+     * Retrieves the departure delay the trip had.
+     * @return The departure delay.
+     */
+    Duration getDepartureDelay();
+
+    /**
+     * Retrieves the arrival delay the trip had.
+     * @return The arrival delay.
+     */
+    Duration getArrivalDelay();
+
+    /**
+     * Retrieves whether the trip was cancelled.
+     * @return true if the trip was cancelled.
+     */
+    boolean isCancelled();
+
+    /**
+     * Retrieves the passengers of the tickets that were booked (not cancelled) when the trip was archived.
+     * @return The names of the passengers, in booking order.
+     */
+    List<String> getBookedPassengers();
+
+    /**
+     * Retrieves the seats of the tickets that were booked when the trip was archived.
+     * @return The seats, in the order of getBookedPassengers.
+     */
+    List<Seat> getBookedSeats();
+
+    /**
+     * Retrieves the passengers of the cancelled tickets of the trip.
+     * @return The names of the passengers, in cancellation order.
+     */
+    List<String> getCancelledPassengers();
+}
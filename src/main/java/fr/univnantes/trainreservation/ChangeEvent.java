@@ -0,0 +1,160 @@
+package fr.univnantes.trainreservation;
+
+import java.time.Duration;
+
+/**
+ * Represents a change made to the trips or tickets of a system, as published to the subscribers of its changes.
+ * Trip events carry the delays of the trip when the change was made, since the trip itself keeps changing.
+ */
+public final class ChangeEvent {
+
+    /**
+     * The kind of change.
+     */
+    public enum Kind {
+        TRIP_CREATED,
+        TRIP_CANCELLED,
+        TRIP_DELAYED,
+        TRIP_ARCHIVED,
+        TICKET_BOOKED,
+        TICKET_CANCELLED,
+        TICKET_EXCHANGED
+    }
+
+    private final Kind kind;
+    private final Trip trip;
+    private final Ticket ticket;
+    private final Ticket exchangedTicket;
+    private final Duration departureDelay;
+    private final Duration arrivalDelay;
+
+    private ChangeEvent(Kind kind, Trip trip, Ticket ticket, Ticket exchangedTicket, Duration departureDelay, Duration arrivalDelay) {
+        this.kind = kind;
+        this.trip = trip;
+        this.ticket = ticket;
+        this.exchangedTicket = exchangedTicket;
+        this.departureDelay = departureDelay;
+        this.arrivalDelay = arrivalDelay;
+    }
+
+    private static ChangeEvent ofTrip(Kind kind, Trip trip) {
+        return new ChangeEvent(kind, trip, null, null, trip.getDepartureDelay(), trip.getArrivalDelay());
+    }
+
+    /**
+     * Creates a trip creation event.
+     * @param trip The created trip.
+     * @return The change event.
+     */
+    public static ChangeEvent tripCreated(Trip trip) {
+        return ofTrip(Kind.TRIP_CREATED, trip);
+    }
+
+    /**
+     * Creates a trip cancellation event.
+     * @param trip The cancelled trip.
+     * @return The change event.
+     */
+    public static ChangeEvent tripCancelled(Trip trip) {
+        return ofTrip(Kind.TRIP_CANCELLED, trip);
+    }
+
+    /**
+     * Creates a trip delay event, with the delays of the trip after the change.
+     * @param trip The delayed trip.
+     * @return The change event.
+     */
+    public static ChangeEvent tripDelayed(Trip trip) {
+        return ofTrip(Kind.TRIP_DELAYED, trip);
+    }
+
+    /**
+     * Creates an event of a trip moved to the archive of the system, with its tickets.
+     * @param trip The archived trip.
+     * @return The change event.
+     */
+    public static ChangeEvent tripArchived(Trip trip) {
+        return ofTrip(Kind.TRIP_ARCHIVED, trip);
+    }
+
+    /**
+     * Creates a ticket booking event.
+     * @param ticket The booked ticket.
+     * @return The change event.
+     */
+    public static ChangeEvent ticketBooked(Ticket ticket) {
+        return new ChangeEvent(Kind.TICKET_BOOKED, ticket.getTrip(), ticket, null, null, null);
+    }
+
+    /**
+     * Creates a ticket cancellation event.
+     * @param ticket The cancelled ticket.
+     * @return The change event.
+     */
+    public static ChangeEvent ticketCancelled(Ticket ticket) {
+        return new ChangeEvent(Kind.TICKET_CANCELLED, ticket.getTrip(), ticket, null, null, null);
+    }
+
+    /**
+     * Creates an event of a ticket exchanged for a ticket of another trip.
+     * @param oldTicket The exchanged ticket, now cancelled.
+     * @param newTicket The new ticket.
+     * @return The change event.
+     */
+    public static ChangeEvent ticketExchanged(Ticket oldTicket, Ticket newTicket) {
+        return new ChangeEvent(Kind.TICKET_EXCHANGED, newTicket.getTrip(), newTicket, oldTicket, null, null);
+    }
+
+    /**
+     * Retrieves the kind of change.
+     * @return The kind of change.
+     */
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * Retrieves the changed trip, or the trip of the changed ticket.
+     * @return The trip.
+     */
+    public Trip getTrip() {
+        return this.trip;
+    }
+
+    /**
+     * Retrieves the changed ticket: the new ticket of an exchange.
+     * @return The ticket, or null for trip events.
+     */
+    public Ticket getTicket() {
+        return this.ticket;
+    }
+
+    /**
+     * Retrieves the ticket given back in an exchange.
+     * @return The exchanged ticket, or null for other events.
+     */
+    public Ticket getExchangedTicket() {
+        return this.exchangedTicket;
+    }
+
+    /**
+     * Retrieves the departure delay of the trip when it changed.
+     * @return The departure delay, or null for ticket events.
+     */
+    public Duration getDepartureDelay() {
+        return this.departureDelay;
+    }
+
+    /**
+     * Retrieves the arrival delay of the trip when it changed.
+     * @return The arrival delay, or null for ticket events.
+     */
+    public Duration getArrivalDelay() {
+        return this.arrivalDelay;
+    }
+
+    @Override
+    public String toString() {
+        return this.kind + " " + (this.ticket == null ? this.trip : this.ticket);
+    }
+}
@@ -0,0 +1,72 @@
+package fr.univnantes.trainreservation;
+
+import java.time.Duration;
+
+/**
+ * Represents a delay reported for a trip, either on its departure or on its arrival.
+ * Delay events can be applied in batch with {@link TicketReservationSystem#applyDelays}.
+ */
+public final class DelayEvent {
+
+    /**
+     * The part of a trip on which a delay is reported.
+     */
+    public enum Kind {
+        DEPARTURE,
+        ARRIVAL
+    }
+
+    private final Trip trip;
+    private final Kind kind;
+    private final Duration delay;
+
+    private DelayEvent(Trip trip, Kind kind, Duration delay) {
+        this.trip = trip;
+        this.kind = kind;
+        this.delay = delay;
+    }
+
+    /**
+     * Creates a departure delay event, which also delays the arrival of the trip by the same amount.
+     * @param trip The delayed trip.
+     * @param delay The amount of delay.
+     * @return The delay event.
+     */
+    public static DelayEvent departure(Trip trip, Duration delay) {
+        return new DelayEvent(trip, Kind.DEPARTURE, delay);
+    }
+
+    /**
+     * Creates an arrival delay event.
+     * @param trip The delayed trip.
+     * @param delay The amount of delay.
+     * @return The delay event.
+     */
+    public static DelayEvent arrival(Trip trip, Duration delay) {
+        return new DelayEvent(trip, Kind.ARRIVAL, delay);
+    }
+
+    /**
+     * Retrieves the delayed trip.
+     * @return The delayed trip.
+     */
+    public Trip getTrip() {
+        return this.trip;
+    }
+
+    /**
+     * Retrieves whether the delay concerns the departure or the arrival of the trip.
+     * @return The kind of delay.
+     */
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * Retrieves the amount of delay.
+     * @return The amount of delay.
+     */
+    public Duration getDelay() {
+        return this.delay;
+    }
+}
@@ -0,0 +1,53 @@
+package fr.univnantes.trainreservation;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Represents a journey between two cities, made of one or several consecutive trips.
+ * Changing train between two trips is a transfer; staying in the same train is not.
+ */
+public interface Journey {
+
+    /**
+     * Retrieves the trips of the journey.
+     *
+     * @return The trips of the journey, in travel order.
+     */
+    List<Trip> getTrips();
+
+    /**
+     * Retrieves the origin city of the journey.
+     *
+     * @return the origin city of the journey.
+     */
+    City getOrigin();
+
+    /**
+     * Retrieves the destination city of the journey.
+     *
+     * @return the destination city of the journey.
+     */
+    City getDestination();
+
+    /**
+     * Finds the real departure time of the journey, considering delays.
+     *
+     * @return the real departure time of the first trip.
+     */
+    Instant findRealDepartureTime();
+
+    /**
+     * Finds the real arrival time of the journey, considering delays.
+     *
+     * @return the real arrival time of the last trip.
+     */
+    Instant findRealArrivalTime();
+
+    /**
+     * Finds the amount of transfers of the journey.
+     *
+     * @return the amount of train changes along the journey.
+     */
+    int findTransfers();
+}
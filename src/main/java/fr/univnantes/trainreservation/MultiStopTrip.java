@@ -0,0 +1,51 @@
+package fr.univnantes.trainreservation;
+
+import java.util.List;
+
+/**
+ * Represents a train calling at several stops, made of one trip (a leg) between each pair of consecutive stops.
+ * The seats of the train are shared along the route: a passenger travelling between two stops occupies a seat
+ * on each leg between them, and that seat remains free on the other legs.
+ * Legs are ordinary trips: they can be found, booked and cancelled like any other trip.
+ */
+public interface MultiStopTrip {
+
+    /**
+     * Retrieves the train used for the trip.
+     * @return the train used for the trip.
+     */
+    Train getTrain();
+
+    /**
+     * Retrieves the stops of the trip, from its origin to its destination.
+     * @return The stops, in order.
+     */
+    List<City> getStops();
+
+    /**
+     * Retrieves the legs of the trip, one between each pair of consecutive stops.
+     * @return The legs, in order.
+     */
+    List<Trip> getLegs();
+
+    /**
+     * Finds how many more passengers can travel between two stops.
+     * @param from The stop where passengers board.
+     * @param to A later stop where passengers leave.
+     * @return The amount of seats that are free on every leg between the two stops.
+     * @throws ReservationException If the trip does not call at the two stops in this order.
+     */
+    int findAvailableSeats(City from, City to) throws ReservationException;
+
+    /**
+     * Books a ticket on each leg between two stops, all for the same seat when possible.
+     * Either all the tickets are booked, or none is. Each ticket can then be cancelled on its own leg.
+     * @param passengerName The name of the passenger.
+     * @param from The stop where the passenger boards.
+     * @param to A later stop where the passenger leaves.
+     * @return The tickets, one for each leg between the two stops, in order.
+     * @throws ReservationException If the trip does not call at the two stops in this order,
+     * if one of the legs is full or was cancelled.
+     */
+    List<Ticket> bookTicket(String passengerName, City from, City to) throws ReservationException;
+}
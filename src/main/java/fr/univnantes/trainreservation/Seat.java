@@ -0,0 +1,68 @@
+package fr.univnantes.trainreservation;
+
+import java.util.Objects;
+
+/**
+ * Represents a seat of a train, identified by its car and its number in the car.
+ * Seats of a train are also numbered from 0 across all its cars, which gives their index in the seat map.
+ */
+public final class Seat {
+
+    private final int index;
+    private final int car;
+    private final int number;
+    private final SeatClass seatClass;
+
+    Seat(int index, int car, int number, SeatClass seatClass) {
+        this.index = index;
+        this.car = car;
+        this.number = number;
+        this.seatClass = seatClass;
+    }
+
+    /**
+     * Retrieves the index of the seat among all the seats of the train.
+     * @return The index of the seat, from 0.
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Retrieves the number of the car of the seat.
+     * @return The number of the car, from 1.
+     */
+    public int getCar() {
+        return this.car;
+    }
+
+    /**
+     * Retrieves the number of the seat in its car. Adjacent seats have consecutive numbers.
+     * @return The number of the seat, from 1.
+     */
+    public int getNumber() {
+        return this.number;
+    }
+
+    /**
+     * Retrieves the class of the seat.
+     * @return The class of the seat.
+     */
+    public SeatClass getSeatClass() {
+        return this.seatClass;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Seat)) {
+            return false;
+        }
+        Seat seat = (Seat) other;
+        return this.index == seat.index && this.car == seat.car && this.number == seat.number && this.seatClass == seat.seatClass;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.index, this.car, this.number, this.seatClass);
+    }
+}
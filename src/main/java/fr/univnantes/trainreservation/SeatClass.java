@@ -0,0 +1,9 @@
+package fr.univnantes.trainreservation;
+
+/**
+ * Represents the class of the seats of a car.
+ */
+public enum SeatClass {
+    FIRST,
+    SECOND
+}
@@ -0,0 +1,53 @@
+package fr.univnantes.trainreservation;
+
+import java.time.Instant;
+
+/**
+ * Represents a seat of a trip held for a passenger for a limited time (eg. while the passenger pays).
+ * A held seat counts against the capacity of the train like a booked seat, but is not a ticket:
+ * the hold must be confirmed into a ticket before it expires, otherwise its seat is freed.
+ */
+public interface SeatHold {
+
+    /**
+     * Retrieves the trip whose seat is held.
+     * @return The trip of the hold.
+     */
+    Trip getTrip();
+
+    /**
+     * Retrieves the name of the passenger the seat is held for.
+     * @return The name of the passenger.
+     */
+    String getPassengerName();
+
+    /**
+     * Retrieves the held seat.
+     * @return The seat of the hold.
+     */
+    Seat getSeat();
+
+    /**
+     * Retrieves the time at which the hold expires, unless it is confirmed or released before.
+     * @return The expiry time of the hold.
+     */
+    Instant getExpiry();
+
+    /**
+     * Checks whether the seat is still held, ie. the hold was neither confirmed, released nor expired.
+     * @return true if the seat is still held.
+     */
+    boolean isActive();
+
+    /**
+     * Books a ticket on the held seat. The seat is then no longer held, but booked.
+     * @return The booked ticket.
+     * @throws ReservationException If the hold is no longer active, or the trip was cancelled or archived.
+     */
+    Ticket confirm() throws ReservationException;
+
+    /**
+     * Frees the held seat before the hold expires. Does nothing if the hold is no longer active.
+     */
+    void release();
+}
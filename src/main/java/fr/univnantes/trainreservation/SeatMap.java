@@ -0,0 +1,114 @@
+package fr.univnantes.trainreservation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents the layout of the seats of a train: its cars, each with a class and an amount of seats.
+ */
+public final class SeatMap {
+
+    /**
+     * Represents a car of a train, whose seats all have the same class.
+     */
+    public static final class Car {
+
+        private final SeatClass seatClass;
+        private final int seats;
+
+        /**
+         * Creates a car.
+         * @param seatClass The class of the seats of the car.
+         * @param seats The amount of seats of the car.
+         */
+        public Car(SeatClass seatClass, int seats) {
+            this.seatClass = seatClass;
+            this.seats = seats;
+        }
+
+        /**
+         * Retrieves the class of the seats of the car.
+         * @return The class of the seats.
+         */
+        public SeatClass getSeatClass() {
+            return this.seatClass;
+        }
+
+        /**
+         * Retrieves the amount of seats of the car.
+         * @return The amount of seats.
+         */
+        public int getSeats() {
+            return this.seats;
+        }
+    }
+
+    private final List<Car> cars;
+    private final int[] carStarts;
+
+    /**
+     * Creates a seat map.
+     * @param cars The cars of the train, in order.
+     * @throws ArithmeticException If the cars have more than Integer.MAX_VALUE seats in all.
+     */
+    public SeatMap(List<Car> cars) {
+        this.cars = List.copyOf(cars);
+        this.carStarts = new int[this.cars.size() + 1];
+        for (int car = 0; car < this.cars.size(); car++) {
+            this.carStarts[car + 1] = Math.addExact(this.carStarts[car], this.cars.get(car).getSeats());
+        }
+    }
+
+    /**
+     * Creates the seat map of a train made of a single car of second class seats.
+     * @param seats The amount of seats of the train.
+     * @return The seat map.
+     */
+    public static SeatMap ofSingleCar(int seats) {
+        return new SeatMap(List.of(new Car(SeatClass.SECOND, seats)));
+    }
+
+    /**
+     * Retrieves the cars of the train.
+     * @return The cars, in order.
+     */
+    public List<Car> getCars() {
+        return this.cars;
+    }
+
+    /**
+     * Retrieves the amount of seats of the train.
+     * @return The amount of seats of all the cars.
+     */
+    public int getSeatCount() {
+        return this.carStarts[this.cars.size()];
+    }
+
+    /**
+     * Finds the index of the first seat of a car.
+     * @param car The position of the car in the list of cars, from 0.
+     * @return The index of the first seat of the car.
+     */
+    public int findFirstSeatOfCar(int car) {
+        return this.carStarts[car];
+    }
+
+    /**
+     * Retrieves a seat.
+     * @param index The index of the seat, from 0.
+     * @return The seat.
+     * @throws IndexOutOfBoundsException If the train has no seat with this index.
+     */
+    public Seat getSeat(int index) {
+        if (index < 0 || index >= getSeatCount()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int position = Arrays.binarySearch(this.carStarts, index);
+        // Cars without seats share their start with the next car: the seat belongs to the last of them
+        int car = position >= 0 ? position : -position - 2;
+        while (car + 1 < this.cars.size() && this.carStarts[car + 1] == index) {
+            car++;
+        }
+        return new Seat(index, car + 1, index - this.carStarts[car] + 1, this.cars.get(car).getSeatClass());
+    }
+}
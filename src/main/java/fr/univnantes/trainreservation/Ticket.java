@@ -24,6 +24,12 @@ public interface Ticket {
      */
     Trip getTrip();
 
+    /**
+     * Retrieves the seat assigned to this ticket, which is freed when the ticket is cancelled.
+     * @return The seat of the ticket, or null if the ticket was not booked on a trip.
+     */
+    Seat getSeat();
+
     /**
      * Cancels this ticket. Cannot be undone.
      */
@@ -31,11 +37,11 @@ public interface Ticket {
 
     /**
      * Exchanges the ticket for a new ticket for a different trip.
-     * Once exchanged, a ticket becomes cancelled.
+     * Once exchanged, a ticket becomes cancelled, and the new ticket is booked on the new trip, in the same seat class.
      * It is only possible to exchange a ticket if the new trip has the same origin and the same destination,
      * and if the new trip has not been cancelled, and if the new trip planned departure is after the ticket planned departure.
      * @param trip The trip for the new ticket.
-     * @throws ReservationException If the trip does not satisfy the constraints.
+     * @throws ReservationException If the trip does not satisfy the constraints, or if it is full.
      * @return The new ticket
      */
     Ticket exchangeTicket(Trip trip) throws ReservationException;
@@ -3,8 +3,11 @@ package fr.univnantes.trainreservation;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Represents a ticket reservation system. It can be used both to manage
@@ -20,21 +23,58 @@ public interface TicketReservationSystem {
      */
     List<Ticket> getAllBookedTickets();
 
+    /**
+     * Streams all booked tickets (not cancelled), in the order in which they were booked.
+     * The tickets are read lazily from the system, so consuming only the first tickets does not copy the others.
+     * @return The booked tickets.
+     */
+    Stream<Ticket> streamBookedTickets();
+
     /**
      * Retrieves the list of all cancelled tickets.
      * @return The list of all cancelled tickets.
      */
     List<Ticket> getAllCancelledTickets();
 
+    /**
+     * Retrieves a read-only view of all booked tickets (not cancelled), kept up to date by the system.
+     * Counting the tickets of the view takes constant time, and iterating over it does not copy the tickets.
+     * @return The live view of all booked tickets (not cancelled).
+     */
+    Collection<Ticket> viewBookedTickets();
+
+    /**
+     * Retrieves a read-only view of all cancelled tickets, kept up to date by the system.
+     * Counting the tickets of the view takes constant time, and iterating over it does not copy the tickets.
+     * @return The live view of all cancelled tickets.
+     */
+    Collection<Ticket> viewCancelledTickets();
+
     /**
      * Finds all the trips eligible for an exchange against a ticket.
      * A trip is eligible for an exchange if the trip has the same origin and the same destination as the ticket,
      * and if the trip has not been cancelled, and if the trip planned departure is after the ticket planned departure.
      * @param ticket The ticket for which to find exchange possibilities.
-     * @return The list of all trips eligible for the exchange.
+     * @return The list of all trips eligible for the exchange, ordered by planned departure.
      */
     List<Trip> findPossibleExchanges(Ticket ticket);
 
+    /**
+     * Finds the next trips eligible for an exchange against a ticket (see findPossibleExchanges).
+     * @param ticket The ticket for which to find exchange possibilities.
+     * @param limit The maximum amount of trips to find.
+     * @return The first trips eligible for the exchange, ordered by planned departure.
+     */
+    List<Trip> findPossibleExchanges(Ticket ticket, int limit);
+
+    /**
+     * Streams the trips eligible for an exchange against a ticket (see findPossibleExchanges).
+     * The trips are found lazily: consuming only the first trips of the stream does not go through the others.
+     * @param ticket The ticket for which to find exchange possibilities.
+     * @return The trips eligible for the exchange, ordered by planned departure.
+     */
+    Stream<Trip> streamPossibleExchanges(Ticket ticket);
+
     /**
      * Finds all the available trips (not cancelled) originating from a City.
      * @param origin The city from which trips should originate.
@@ -51,6 +91,43 @@ public interface TicketReservationSystem {
      */
     List<Trip> findAvailableTrips(City origin, City destination, LocalDate date);
 
+    /**
+     * Finds the first available trips (not cancelled) originating from a City at a specific date (see streamAvailableTrips).
+     * @param origin The city from which trips should originate.
+     * @param date The date of the trip.
+     * @param limit The maximum amount of trips to find.
+     * @return The first non-cancelled trips matching the criteria, ordered by planned departure.
+     */
+    List<Trip> findAvailableTrips(City origin, LocalDate date, int limit);
+
+    /**
+     * Streams the available trips (not cancelled) originating from a City at a specific date.
+     * The order is stable: trips are ordered by planned departure, then by creation.
+     * The trips are found lazily: consuming only the first trips of the stream does not go through the others.
+     * @param origin The city from which trips should originate.
+     * @param date The date of the trip.
+     * @return The non-cancelled trips matching the criteria.
+     */
+    Stream<Trip> streamAvailableTrips(City origin, LocalDate date);
+
+    /**
+     * Streams the available trips (not cancelled) between two cities at a specific date (see streamAvailableTrips).
+     * @param origin The city from which trips should originate.
+     * @param destination The city to which trips should arrive.
+     * @param date The date of the trip.
+     * @return The non-cancelled trips matching the criteria, ordered by planned departure, then by creation.
+     */
+    Stream<Trip> streamAvailableTrips(City origin, City destination, LocalDate date);
+
+    /**
+     * Streams the available trips (not cancelled) originating from a City over a range of dates (see streamAvailableTrips).
+     * @param origin The city from which trips should originate.
+     * @param firstDate The first date of the trips.
+     * @param lastDate The last date of the trips (included).
+     * @return The non-cancelled trips matching the criteria, ordered by planned departure, then by creation.
+     */
+    Stream<Trip> streamAvailableTrips(City origin, LocalDate firstDate, LocalDate lastDate);
+
     /**
      * Retrieves the list of all cities registered in the system.
      * @return The list of all cities registered in the system.
@@ -69,6 +146,13 @@ public interface TicketReservationSystem {
      */
     List<Trip> getAllTrips();
 
+    /**
+     * Streams all non-cancelled trips registered in the system, in the order in which they were created.
+     * The trips are read lazily, so consuming only the first trips does not copy the others.
+     * @return The non-cancelled trips.
+     */
+    Stream<Trip> streamAllTrips();
+
     /**
      * Retrieves the list of all cancelled trips registered in the system.
      * @return The list of all cancelled trips registered in the system.
@@ -100,12 +184,47 @@ public interface TicketReservationSystem {
      */
     Trip createTrip(City origin, City destination, Train train, Instant departure, Instant arrival) throws TripException;
 
+    /**
+     * Creates and registers a new trip calling at several stops, as one trip per leg between consecutive stops.
+     * The first leg must satisfy the same constraints as a trip created with createTrip.
+     * Each next leg must depart from the destination of the previous leg, at or after its arrival,
+     * but may stay at the stop for less than 10 minutes. Either all the legs are created, or none is.
+     * @param train The train used for the trip.
+     * @param stops The stops of the trip, at least two.
+     * @param departures The departure times of the legs, from all the stops but the last.
+     * @param arrivals The arrival times of the legs, at all the stops but the first.
+     * @return The created registered trip.
+     * @throws TripException If one of the above constraints was not satisfied.
+     */
+    MultiStopTrip createMultiStopTrip(Train train, List<City> stops, List<Instant> departures, List<Instant> arrivals) throws TripException;
+
+    /**
+     * Retrieves the list of all trips calling at several stops registered in the system, even if some legs were cancelled.
+     * @return The list of all multi-stop trips.
+     */
+    List<MultiStopTrip> getAllMultiStopTrips();
+
+    /**
+     * Books tickets for groups of passengers on several trips (eg. the legs of a journey, or an outbound and a return trip).
+     * The seats of all the groups are reserved before any ticket is booked, so either all the tickets are booked, or none is.
+     * @param bookings The names of the passengers to book on each trip.
+     * @return The tickets that have been booked, trip after trip in the iteration order of the bookings.
+     * @throws ReservationException If one of the trips does not have enough free seats for its group, or was cancelled.
+     */
+    List<Ticket> bookTickets(Map<Trip, ? extends Collection<String>> bookings) throws ReservationException;
+
     /**
      * Cancels a trip.
      * @param trip The trip to cancel.
      */
     void cancelTrip(Trip trip);
 
+    /**
+     * Cancels several trips at once, eg. all the trips of a day during a strike.
+     * @param trips The trips to cancel.
+     */
+    void cancelTrips(Collection<Trip> trips);
+
 
     /**
      * Adds a departure delay to a trip.
@@ -121,6 +240,16 @@ public interface TicketReservationSystem {
      */
     void delayTripArrival(Trip trip, Duration delay);
 
+    /**
+     * Applies a batch of delay events, in one ordered sweep along the trips of each train.
+     * As with delayTripDeparture and delayTripArrival, each delay is propagated to the next trips of the train.
+     * If absorbSlack is true, a delay is only propagated to the next trip as far as needed to keep 10 minutes between
+     * an arrival and the next departure of the train, so the extra time planned between two trips absorbs the delay.
+     * @param events The delay events to apply, in any order.
+     * @param absorbSlack Whether the time between two trips of a train should absorb the delays.
+     */
+    void applyDelays(Collection<DelayEvent> events, boolean absorbSlack);
+
     /**
      * Finds the trip that follows an existing trip of a train.
      * @param train The train.
@@ -146,6 +275,53 @@ public interface TicketReservationSystem {
      */
     List<Trip> findOrderedTripsOfTrain(Train train);
 
+    /**
+     * Streams the trips of a given train in order, lazily from the first one.
+     * @param train The train.
+     * @return The ordered trips of the train.
+     */
+    Stream<Trip> streamOrderedTripsOfTrain(Train train);
+
+    /**
+     * Finds the journey from a city to another that arrives the earliest, possibly with connections.
+     * Journeys use the real departure and arrival times of the trips (considering delays), and only non-cancelled trips.
+     * Changing train in a city requires at least the minimum connection time, staying in the same train does not.
+     * @param origin The city where the journey starts.
+     * @param destination The city where the journey ends.
+     * @param departure The instant from which the journey can start.
+     * @param minimumConnection The minimum duration between the arrival of a train and the departure of another one.
+     * @return The journey arriving the earliest, or nothing if the destination cannot be reached.
+     */
+    Optional<Journey> findEarliestArrivalJourney(City origin, City destination, Instant departure, Duration minimumConnection);
+
+    /**
+     * Finds the journey from a city to another that has the fewest transfers, and among them the one that arrives the earliest.
+     * The same rules as findEarliestArrivalJourney apply, and only trips departing within one day of the departure are used.
+     * @param origin The city where the journey starts.
+     * @param destination The city where the journey ends.
+     * @param departure The instant from which the journey can start.
+     * @param minimumConnection The minimum duration between the arrival of a train and the departure of another one.
+     * @return The journey with the fewest transfers, or nothing if the destination cannot be reached.
+     */
+    Optional<Journey> findFewestTransfersJourney(City origin, City destination, Instant departure, Duration minimumConnection);
+
+    /**
+     * Moves the trips that are over before an instant, with their tickets, out of the system into its archive.
+     * A trip is over when its real arrival time is before the instant. Archived trips and their tickets are no longer
+     * found by the other methods of the system, and can no longer be booked: bookings, seat holds and exchanges
+     * onto them throw a ReservationException. The last trip of each train is kept,
+     * so that the next trips of the train can still be created after it, and the legs of a multi-stop trip are only
+     * archived together, once all of them are over.
+     * @param before The instant before which trips are over.
+     * @return The amount of archived trips.
+     */
+    int archiveTrips(Instant before);
+
+    /**
+     * Retrieves the archive of the trips moved out of the system by archiveTrips.
+     * @return The archive, which grows when trips are archived.
+     */
+    TripArchive getArchive();
 
 }
 
@@ -17,4 +17,13 @@ public interface Train {
      */
     int getMaxPassengers();
 
+    /**
+     * Retrieves the layout of the seats of the train.
+     * By default, a single car of second class seats, built on each call: implementations should keep their seat map.
+     * @return The seat map of the train, with as many seats as the maximum amount of passengers.
+     */
+    default SeatMap getSeatMap() {
+        return SeatMap.ofSingleCar(getMaxPassengers());
+    }
+
 }
@@ -2,6 +2,7 @@ package fr.univnantes.trainreservation;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -60,7 +61,7 @@ public interface Trip {
 
     /**
      * Cancels the trip.
-     * This also automatically cancels all tickets for this trip.
+     * This also automatically cancels all tickets for this trip, which become cancelled tickets of the trip.
      */
     void cancel();
 
@@ -129,13 +130,62 @@ public interface Trip {
 
     /**
      * Creates a new Ticket for the trip, and records the ticket in the trip.
-     * It is only possible to book a ticket if the trip had not already reached the maximum amount of passengers.
+     * It is only possible to book a ticket if the trip had not already reached the maximum amount of passengers,
+     * and if the trip has not been cancelled. The ticket is assigned a free seat of any class.
      * @param passengerName The name of the passenger.
      * @return The ticket that has been booked.
-     * @throws ReservationException If the trip has already reached the maximum amount of passengers.
+     * @throws ReservationException If the trip has already reached the maximum amount of passengers, or was cancelled.
      */
     Ticket bookTicket(String passengerName) throws ReservationException;
 
+    /**
+     * Creates a new Ticket for the trip, assigned a free seat of a class.
+     * @param passengerName The name of the passenger.
+     * @param seatClass The class of the seat.
+     * @return The ticket that has been booked.
+     * @throws ReservationException If the train has no free seat of this class, or the trip was cancelled.
+     */
+    Ticket bookTicket(String passengerName, SeatClass seatClass) throws ReservationException;
+
+    /**
+     * Creates new Tickets for a group of passengers, assigned adjacent seats of a class in the same car.
+     * Either all the tickets are booked, or none is.
+     * @param passengerNames The names of the passengers, in the order of their seats.
+     * @param seatClass The class of the seats.
+     * @return The tickets that have been booked, in the order of the passengers.
+     * @throws ReservationException If no car of this class has enough adjacent free seats, or the trip was cancelled.
+     */
+    List<Ticket> bookAdjacentTickets(List<String> passengerNames, SeatClass seatClass) throws ReservationException;
+
+    /**
+     * Creates new Tickets for a group of passengers, each assigned a free seat of any class.
+     * The seats of the whole group are reserved at once, so either all the tickets are booked, or none is.
+     * @param passengerNames The names of the passengers.
+     * @return The tickets that have been booked, in the iteration order of the passengers.
+     * @throws ReservationException If the trip does not have enough free seats for the group, or was cancelled.
+     */
+    List<Ticket> bookTickets(Collection<String> passengerNames) throws ReservationException;
+
+    /**
+     * Holds a free seat of any class for a passenger, until the hold is confirmed into a ticket, released, or expires.
+     * The held seat counts against the maximum amount of passengers while the hold is active.
+     * @param passengerName The name of the passenger.
+     * @param duration The time after which the hold expires.
+     * @return The hold of the seat.
+     * @throws ReservationException If the trip has no free seat, or was cancelled.
+     */
+    SeatHold holdSeat(String passengerName, Duration duration) throws ReservationException;
+
+    /**
+     * Holds a free seat of a class for a passenger (see holdSeat).
+     * @param passengerName The name of the passenger.
+     * @param seatClass The class of the seat.
+     * @param duration The time after which the hold expires.
+     * @return The hold of the seat.
+     * @throws ReservationException If the train has no free seat of this class, or the trip was cancelled.
+     */
+    SeatHold holdSeat(String passengerName, SeatClass seatClass, Duration duration) throws ReservationException;
+
     /**
      * Adds a duration to the departure delay.
      * @param delay The duration delay.
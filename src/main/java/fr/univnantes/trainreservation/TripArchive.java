@@ -0,0 +1,40 @@
+package fr.univnantes.trainreservation;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Read-only store of the completed trips moved out of a system (see {@link TicketReservationSystem#archiveTrips}).
+ */
+public interface TripArchive {
+
+    /**
+     * Counts the archived trips.
+     * @return The amount of archived trips.
+     */
+    int size();
+
+    /**
+     * Streams all the archived trips, in the order in which they were archived.
+     * @return The archived trips.
+     */
+    Stream<ArchivedTrip> streamTrips();
+
+    /**
+     * Finds the archived trips that departed from a city on a date, in the time zone of the system.
+     * @param origin The city from which the trips departed.
+     * @param date The date of the trips.
+     * @return The matching trips, in the order in which they were archived.
+     */
+    List<ArchivedTrip> findTrips(City origin, LocalDate date);
+
+    /**
+     * Finds the archived trips between two cities on a date, in the time zone of the system.
+     * @param origin The city from which the trips departed.
+     * @param destination The city to which the trips arrived.
+     * @param date The date of the trips.
+     * @return The matching trips, in the order in which they were archived.
+     */
+    List<ArchivedTrip> findTrips(City origin, City destination, LocalDate date);
+}
@@ -0,0 +1,27 @@
+package fr.univnantes.trainreservation;
+
+/**
+ * Represents a constraint that a trip must satisfy to follow the previous trip of its train (see createTrip).
+ */
+public enum TripConstraint {
+    /**
+     * The trip must depart after the real arrival of the previous trip of its train.
+     */
+    DEPARTS_AFTER_PREVIOUS_ARRIVAL,
+    /**
+     * The trip must depart from the destination of the previous trip of its train.
+     */
+    DEPARTS_FROM_PREVIOUS_DESTINATION,
+    /**
+     * The trip must depart more than the minimum turnaround after the real arrival of the previous trip of its train.
+     */
+    MINIMUM_TURNAROUND,
+    /**
+     * The trip must arrive after it departs.
+     */
+    ARRIVES_AFTER_DEPARTURE,
+    /**
+     * The trip must arrive in another city than its origin.
+     */
+    DIFFERENT_DESTINATION
+}
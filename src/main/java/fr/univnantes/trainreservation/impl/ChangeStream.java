@@ -0,0 +1,239 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.ChangeEvent;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Trip;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Subscription to the changes of the trips and tickets of a system, so that a subscriber (eg. a cache or a departure
+ * board) can maintain its own state incrementally instead of polling the system.
+ *
+ * Changes are published as {@link ChangeEvent}s into a bounded ring buffer, by the threads making the changes,
+ * and are polled in batches by the subscriber. Publishing never blocks: threads claim a slot of the ring by
+ * compare-and-set, and a slot is only published to the subscriber once its event is written.
+ * Events of a train are in the order of its changes, like the notifications of the system (see {@link SystemListener}).
+ *
+ * A subscriber too slow to keep up does not slow the system down: when the ring is full, the stream overflows,
+ * and drops all the next events until the subscriber calls {@link #resume()}. The events polled before the overflow
+ * are still valid, but the subscriber must then rebuild its state from the system, after resuming so as not to miss
+ * any change (changes made meanwhile may be both in the rebuilt state and in the next events).
+ */
+public class ChangeStream implements Closeable {
+
+    private final TicketReservationSystemImpl system;
+    private final Set<ChangeEvent.Kind> kinds;
+    private final SystemListener listener;
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final int mask;
+    private final AtomicLong tail;
+    private final AtomicLong head;
+    private final LongAdder droppedEvents;
+    private volatile boolean overflowed;
+    private volatile Thread waiter;
+
+    private ChangeStream(TicketReservationSystemImpl system, int capacity, Set<ChangeEvent.Kind> kinds) {
+        this.system = system;
+        this.kinds = EnumSet.noneOf(ChangeEvent.Kind.class);
+        this.kinds.addAll(kinds);
+        this.listener = new Publisher();
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.head = new AtomicLong();
+        this.droppedEvents = new LongAdder();
+    }
+
+    /**
+     * Subscribes to all the next changes of a system.
+     * @param system The system.
+     * @param capacity The amount of events that can wait to be polled, rounded up to a power of two.
+     * @return The stream of changes, which must be closed to unsubscribe.
+     */
+    public static ChangeStream subscribe(TicketReservationSystemImpl system, int capacity) {
+        return subscribe(system, capacity, EnumSet.allOf(ChangeEvent.Kind.class));
+    }
+
+    /**
+     * Subscribes to some kinds of the next changes of a system, eg. only to trip changes for a departure board.
+     * @param system The system.
+     * @param capacity The amount of events that can wait to be polled, rounded up to a power of two.
+     * @param kinds The kinds of changes to publish.
+     * @return The stream of changes, which must be closed to unsubscribe.
+     */
+    public static ChangeStream subscribe(TicketReservationSystemImpl system, int capacity, Set<ChangeEvent.Kind> kinds) {
+        ChangeStream stream = new ChangeStream(system, capacity, kinds);
+        system.addListener(stream.listener);
+        return stream;
+    }
+
+    /**
+     * Polls the published events without waiting.
+     * @param maxEvents The maximum amount of events to poll.
+     * @return The polled events, in publication order, possibly none.
+     */
+    public synchronized List<ChangeEvent> poll(int maxEvents) {
+        List<ChangeEvent> batch = new ArrayList<>();
+        long position = this.head.get();
+        while (batch.size() < maxEvents) {
+            int slot = (int) position & this.mask;
+            ChangeEvent event = this.ring.get(slot);
+            if (event == null) {
+                break;
+            }
+            batch.add(event);
+            this.ring.set(slot, null);
+            this.head.set(++position);
+        }
+        return batch;
+    }
+
+    /**
+     * Polls the published events, waiting for at least one if there is none yet.
+     * @param maxEvents The maximum amount of events to poll.
+     * @param timeout The maximum time to wait.
+     * @return The polled events, in publication order, or none if no event was published in time.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public synchronized List<ChangeEvent> poll(int maxEvents, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        List<ChangeEvent> batch = poll(maxEvents);
+        while (batch.isEmpty()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return batch;
+            }
+            this.waiter = Thread.currentThread();
+            // Checks again after registering, so that an event published meanwhile is not missed
+            if (this.ring.get((int) this.head.get() & this.mask) == null) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            this.waiter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            batch = poll(maxEvents);
+        }
+        return batch;
+    }
+
+    /**
+     * Retrieves whether the ring overflowed, in which case events are dropped until the stream is resumed.
+     * @return true if the stream overflowed.
+     */
+    public boolean isOverflowed() {
+        return this.overflowed;
+    }
+
+    /**
+     * Retrieves the amount of events dropped because the ring was full or the stream had overflowed.
+     * @return The amount of dropped events since the subscription.
+     */
+    public long getDroppedEvents() {
+        return this.droppedEvents.sum();
+    }
+
+    /**
+     * Publishes events again after an overflow. The subscriber should rebuild its state from the system afterwards.
+     */
+    public void resume() {
+        this.overflowed = false;
+    }
+
+    /**
+     * Unsubscribes from the changes of the system. The events already published can still be polled.
+     */
+    @Override
+    public void close() {
+        this.system.removeListener(this.listener);
+    }
+
+    private boolean accepts(ChangeEvent.Kind kind) {
+        return this.kinds.contains(kind);
+    }
+
+    private void publish(ChangeEvent event) {
+        if (this.overflowed) {
+            this.droppedEvents.increment();
+            return;
+        }
+        long position;
+        do {
+            position = this.tail.get();
+            if (position - this.head.get() > this.mask) {
+                this.overflowed = true;
+                this.droppedEvents.increment();
+                return;
+            }
+        } while (!this.tail.compareAndSet(position, position + 1));
+        this.ring.set((int) position & this.mask, event);
+        Thread waiter = this.waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private class Publisher implements SystemListener {
+
+        @Override
+        public void tripCreated(Trip trip) {
+            if (accepts(ChangeEvent.Kind.TRIP_CREATED)) {
+                publish(ChangeEvent.tripCreated(trip));
+            }
+        }
+
+        @Override
+        public void tripCancelled(Trip trip) {
+            if (accepts(ChangeEvent.Kind.TRIP_CANCELLED)) {
+                publish(ChangeEvent.tripCancelled(trip));
+            }
+        }
+
+        @Override
+        public void tripsDelayed(List<Trip> trips) {
+            if (accepts(ChangeEvent.Kind.TRIP_DELAYED)) {
+                trips.forEach(trip -> publish(ChangeEvent.tripDelayed(trip)));
+            }
+        }
+
+        @Override
+        public void tripsArchived(Collection<Trip> trips) {
+            if (accepts(ChangeEvent.Kind.TRIP_ARCHIVED)) {
+                trips.forEach(trip -> publish(ChangeEvent.tripArchived(trip)));
+            }
+        }
+
+        @Override
+        public void ticketBooked(Ticket ticket) {
+            if (accepts(ChangeEvent.Kind.TICKET_BOOKED)) {
+                publish(ChangeEvent.ticketBooked(ticket));
+            }
+        }
+
+        @Override
+        public void ticketCancelled(Ticket ticket) {
+            if (accepts(ChangeEvent.Kind.TICKET_CANCELLED)) {
+                publish(ChangeEvent.ticketCancelled(ticket));
+            }
+        }
+
+        @Override
+        public void ticketExchanged(Ticket oldTicket, Ticket newTicket) {
+            if (accepts(ChangeEvent.Kind.TICKET_EXCHANGED)) {
+                publish(ChangeEvent.ticketExchanged(oldTicket, newTicket));
+            }
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Seat;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Trip;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ticket store keeping tickets in columns of primitive values rather than one object per ticket,
+ * so that many millions of tickets take about 12 bytes each.
+ * Each trip keeps the columns of its own tickets: for each ticket, the id of its passenger name in a pool of distinct
+ * names, the index of its seat, and its state: written, released (no longer booked on its trip) and cancelled
+ * (see {@link Ticket#isCancelled()}). Ticket objects are only created as lightweight views when tickets are read,
+ * and two views of the same ticket are equal. The views of all the tickets go through the columns of each trip
+ * kept by the store, so archived trips, whose columns are dropped, cost neither memory nor time.
+ *
+ * No change locks, except interning a new name in one of the stripes of the name pool. Columns are split into chunks
+ * of growing sizes, installed by compare-and-set, so they never move: a booking claims the index of its ticket
+ * with an atomic counter, writes its columns, then publishes it by setting its state. States change by compare-and-set,
+ * so only one thread releases a ticket. Reads never block, and skip the tickets that are not published yet.
+ */
+class CompactTicketStore implements TicketStore {
+
+    private static final int FIRST_CHUNK_BITS = 3;
+    private static final int CHUNKS = 32 - FIRST_CHUNK_BITS;
+    private static final int NAME_STRIPE_BITS = 6;
+
+    private static final int WRITTEN = 1;
+    private static final int RELEASED = 2;
+    private static final int CANCELLED = 4;
+
+    private final NamePool[] namePools;
+    private final Set<CompactTripTickets> trips;
+    private final LongAdder bookedCount;
+    private final LongAdder cancelledCount;
+
+    /**
+     * Creates an empty store.
+     */
+    CompactTicketStore() {
+        this.namePools = new NamePool[1 << NAME_STRIPE_BITS];
+        for (int i = 0; i < this.namePools.length; i++) {
+            this.namePools[i] = new NamePool();
+        }
+        this.trips = new ConcurrentLinkedSet<>();
+        this.bookedCount = new LongAdder();
+        this.cancelledCount = new LongAdder();
+    }
+
+    /**
+     * Columns of a range of tickets of a trip.
+     */
+    private static class Chunk {
+
+        private final int[] nameIds;
+        private final int[] seats;
+        private final AtomicIntegerArray states;
+
+        private Chunk(int size) {
+            this.nameIds = new int[size];
+            this.seats = new int[size];
+            this.states = new AtomicIntegerArray(size);
+        }
+    }
+
+    /**
+     * View of a ticket of the store.
+     */
+    private class TicketView implements Ticket {
+
+        private final CompactTripTickets tickets;
+        private final int index;
+
+        private TicketView(CompactTripTickets tickets, int index) {
+            this.tickets = tickets;
+            this.index = index;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return (this.tickets.findState(this.index) & CANCELLED) != 0;
+        }
+
+        @Override
+        public String getPassengerName() {
+            this.tickets.findState(this.index);
+            return findName(this.tickets.findChunk(this.index).nameIds[findOffset(this.index)]);
+        }
+
+        @Override
+        public Trip getTrip() {
+            return this.tickets.trip;
+        }
+
+        @Override
+        public Seat getSeat() {
+            this.tickets.findState(this.index);
+            int seat = this.tickets.findChunk(this.index).seats[findOffset(this.index)];
+            return seat < 0 ? null : getTrip().getTrain().getSeatMap().getSeat(seat);
+        }
+
+        @Override
+        public void cancel() {
+            this.tickets.findChunk(this.index).states.accumulateAndGet(findOffset(this.index), CANCELLED, (a, b) -> a | b);
+        }
+
+        @Override
+        public Ticket exchangeTicket(Trip trip) throws ReservationException {
+            return TicketImpl.exchange(this, trip);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof TicketView && ((TicketView) other).tickets == this.tickets
+                    && ((TicketView) other).index == this.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.tickets.hashCode() + this.index;
+        }
+    }
+
+    /**
+     * Tickets of one trip, in columns indexed in booking order, with the indexes of the cancelled tickets
+     * in cancellation order.
+     */
+    private class CompactTripTickets implements TripTickets {
+
+        private final TripImpl trip;
+        private final AtomicInteger count;
+        private final AtomicReferenceArray<Chunk> chunks;
+        private final AtomicInteger cancelledCount;
+        private final AtomicReferenceArray<AtomicIntegerArray> cancelledChunks;
+
+        private CompactTripTickets(TripImpl trip) {
+            this.trip = trip;
+            this.count = new AtomicInteger();
+            this.chunks = new AtomicReferenceArray<>(CHUNKS);
+            this.cancelledCount = new AtomicInteger();
+            this.cancelledChunks = new AtomicReferenceArray<>(CHUNKS);
+        }
+
+        @Override
+        public Ticket book(String passengerName, Seat seat) {
+            int index = this.count.getAndIncrement();
+            write(index, passengerName, seat, WRITTEN);
+            bookedCount.increment();
+            return new TicketView(this, index);
+        }
+
+        @Override
+        public List<Ticket> bookAll(List<String> passengerNames, List<Seat> seats) {
+            int first = this.count.getAndAdd(passengerNames.size());
+            List<Ticket> tickets = new ArrayList<>(passengerNames.size());
+            for (int i = 0; i < passengerNames.size(); i++) {
+                write(first + i, passengerNames.get(i), seats.get(i), WRITTEN);
+                tickets.add(new TicketView(this, first + i));
+            }
+            bookedCount.add(passengerNames.size());
+            return tickets;
+        }
+
+        @Override
+        public Ticket restoreCancelled(String passengerName, Seat seat) {
+            int index = this.count.getAndIncrement();
+            write(index, passengerName, seat, WRITTEN | RELEASED | CANCELLED);
+            addCancelled(index);
+            return new TicketView(this, index);
+        }
+
+        @Override
+        public boolean release(Ticket ticket) {
+            int index = findBookedIndex(ticket);
+            if (index < 0 || !markReleased(index)) {
+                return false;
+            }
+            bookedCount.decrement();
+            addCancelled(index);
+            return true;
+        }
+
+        @Override
+        public boolean discard(Ticket ticket) {
+            int index = findBookedIndex(ticket);
+            if (index < 0 || !markReleased(index)) {
+                return false;
+            }
+            bookedCount.decrement();
+            return true;
+        }
+
+        @Override
+        public List<Ticket> getBooked() {
+            int count = this.count.get();
+            List<Ticket> tickets = new ArrayList<>(count);
+            for (int index = 0; index < count; index++) {
+                if (isBooked(index)) {
+                    tickets.add(new TicketView(this, index));
+                }
+            }
+            return tickets;
+        }
+
+        @Override
+        public List<Ticket> getCancelled() {
+            int count = this.cancelledCount.get();
+            List<Ticket> tickets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int index = findCancelledIndex(i);
+                if (index >= 0) {
+                    tickets.add(new TicketView(this, index));
+                }
+            }
+            return tickets;
+        }
+
+        private void write(int index, String passengerName, Seat seat, int state) {
+            Chunk chunk = findChunk(index);
+            int offset = findOffset(index);
+            chunk.nameIds[offset] = internName(passengerName);
+            chunk.seats[offset] = seat == null ? -1 : seat.getIndex();
+            // Publishes the columns written above
+            chunk.states.set(offset, state);
+        }
+
+        private boolean markReleased(int index) {
+            AtomicIntegerArray states = findChunk(index).states;
+            int offset = findOffset(index);
+            int state = states.get(offset);
+            while ((state & RELEASED) == 0) {
+                if (states.compareAndSet(offset, state, state | RELEASED)) {
+                    return true;
+                }
+                state = states.get(offset);
+            }
+            return false;
+        }
+
+        private void addCancelled(int index) {
+            int i = this.cancelledCount.getAndIncrement();
+            AtomicIntegerArray chunk = this.cancelledChunks.get(findChunkNumber(i));
+            if (chunk == null) {
+                this.cancelledChunks.compareAndSet(findChunkNumber(i), null, new AtomicIntegerArray(findChunkSize(i)));
+                chunk = this.cancelledChunks.get(findChunkNumber(i));
+            }
+            chunk.set(findOffset(i), index + 1);
+            CompactTicketStore.this.cancelledCount.increment();
+        }
+
+        /**
+         * Finds the index of the ticket cancelled at a position, or -1 if it is not published yet.
+         */
+        private int findCancelledIndex(int i) {
+            AtomicIntegerArray chunk = this.cancelledChunks.get(findChunkNumber(i));
+            return chunk == null ? -1 : chunk.get(findOffset(i)) - 1;
+        }
+
+        private int findBookedIndex(Ticket ticket) {
+            if (!(ticket instanceof TicketView) || ((TicketView) ticket).tickets != this) {
+                return -1;
+            }
+            return ((TicketView) ticket).index;
+        }
+
+        private boolean isBooked(int index) {
+            Chunk chunk = this.chunks.get(findChunkNumber(index));
+            return chunk != null && (chunk.states.get(findOffset(index)) & (WRITTEN | RELEASED)) == WRITTEN;
+        }
+
+        /**
+         * Finds the chunk of the columns of a ticket, installing it if needed.
+         */
+        private Chunk findChunk(int index) {
+            int number = findChunkNumber(index);
+            Chunk chunk = this.chunks.get(number);
+            if (chunk == null) {
+                this.chunks.compareAndSet(number, null, new Chunk(findChunkSize(index)));
+                chunk = this.chunks.get(number);
+            }
+            return chunk;
+        }
+
+        /**
+         * Reads the state of a published ticket, so that its columns can then be read.
+         */
+        private int findState(int index) {
+            return findChunk(index).states.get(findOffset(index));
+        }
+    }
+
+    @Override
+    public TripTickets createTripTickets(TripImpl trip) {
+        CompactTripTickets tickets = new CompactTripTickets(trip);
+        this.trips.add(tickets);
+        return tickets;
+    }
+
+    @Override
+    public Collection<Ticket> viewBooked() {
+        return new AbstractCollection<Ticket>() {
+            @Override
+            public Iterator<Ticket> iterator() {
+                return new TicketIterator() {
+                    @Override
+                    int findEnd(CompactTripTickets tickets) {
+                        return tickets.count.get();
+                    }
+
+                    @Override
+                    int findIndex(CompactTripTickets tickets, int i) {
+                        return tickets.isBooked(i) ? i : -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return bookedCount.intValue();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Ticket> viewCancelled() {
+        return new AbstractCollection<Ticket>() {
+            @Override
+            public Iterator<Ticket> iterator() {
+                return new TicketIterator() {
+                    @Override
+                    int findEnd(CompactTripTickets tickets) {
+                        return tickets.cancelledCount.get();
+                    }
+
+                    @Override
+                    int findIndex(CompactTripTickets tickets, int i) {
+                        return tickets.findCancelledIndex(i);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return cancelledCount.intValue();
+            }
+        };
+    }
+
+    /**
+     * Evicts trips by removing their columns from the store, so that the views no longer go through their tickets,
+     * and that their columns are reclaimed with the trips once they are no longer referenced.
+     */
+    @Override
+    public void evict(Collection<TripTickets> trips) {
+        for (TripTickets tickets : trips) {
+            CompactTripTickets tripTickets = (CompactTripTickets) tickets;
+            this.trips.remove(tripTickets);
+            this.bookedCount.add(-tripTickets.getBooked().size());
+            this.cancelledCount.add(-tripTickets.cancelledCount.get());
+        }
+    }
+
+    /**
+     * Iterates over the tickets of all the trips, trip after trip, up to the amount of tickets each trip had
+     * when the iteration reached it.
+     */
+    private abstract class TicketIterator implements Iterator<Ticket> {
+
+        private final Iterator<CompactTripTickets> trips;
+        private CompactTripTickets current;
+        private int end;
+        private int i;
+        private Ticket upcoming;
+
+        private TicketIterator() {
+            this.trips = CompactTicketStore.this.trips.iterator();
+        }
+
+        /**
+         * Finds the amount of positions to go through in the tickets of a trip.
+         */
+        abstract int findEnd(CompactTripTickets tickets);
+
+        /**
+         * Finds the index of the ticket at a position in the tickets of a trip.
+         * @return The index, or -1 to skip the position.
+         */
+        abstract int findIndex(CompactTripTickets tickets, int i);
+
+        @Override
+        public boolean hasNext() {
+            while (this.upcoming == null) {
+                if (this.current != null && this.i < this.end) {
+                    int index = findIndex(this.current, this.i++);
+                    if (index >= 0) {
+                        this.upcoming = new TicketView(this.current, index);
+                    }
+                } else if (this.trips.hasNext()) {
+                    this.current = this.trips.next();
+                    this.end = findEnd(this.current);
+                    this.i = 0;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Ticket next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Ticket ticket = this.upcoming;
+            this.upcoming = null;
+            return ticket;
+        }
+    }
+
+    /**
+     * Interns a name in the stripe of the name pool given by its hash, so that only names of the same stripe
+     * are interned one at a time.
+     * @return The id of the name: its id in its stripe, followed by the number of the stripe.
+     */
+    private int internName(String name) {
+        int hash = name.hashCode();
+        int stripe = (hash ^ (hash >>> 16)) & ((1 << NAME_STRIPE_BITS) - 1);
+        NamePool pool = this.namePools[stripe];
+        synchronized (pool) {
+            return (pool.intern(name) << NAME_STRIPE_BITS) | stripe;
+        }
+    }
+
+    private String findName(int id) {
+        return this.namePools[id & ((1 << NAME_STRIPE_BITS) - 1)].get(id >>> NAME_STRIPE_BITS);
+    }
+
+    /**
+     * Finds the chunk of a position in columns whose chunks have sizes 8, 16, 32...
+     */
+    private static int findChunkNumber(int index) {
+        return 31 - Integer.numberOfLeadingZeros(index + (1 << FIRST_CHUNK_BITS)) - FIRST_CHUNK_BITS;
+    }
+
+    private static int findChunkSize(int index) {
+        return 1 << (findChunkNumber(index) + FIRST_CHUNK_BITS);
+    }
+
+    private static int findOffset(int index) {
+        return index + (1 << FIRST_CHUNK_BITS) - findChunkSize(index);
+    }
+}
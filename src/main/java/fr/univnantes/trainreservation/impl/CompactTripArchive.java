@@ -0,0 +1,283 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.ArchivedTrip;
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.Seat;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.TripArchive;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Archive keeping completed trips and their tickets in columns of primitive values, like {@link CompactTicketStore}.
+ * Each trip is a row number; the columns give for each row the ids of its cities and train, its times and delays
+ * to the millisecond, and the range of its tickets in the ticket columns, which hold the id of the passenger name
+ * in a pool of distinct names and the index of the seat (-1 for cancelled tickets, whose seat is not kept).
+ * Trips are also indexed by origin and service day, so that date queries only read the matching rows.
+ * Archived trips are only created as lightweight views when they are read.
+ *
+ * The archive is serialized on its monitor: it is written in batches by archival, and read by queries,
+ * neither of which is on the path of bookings.
+ */
+class CompactTripArchive implements TripArchive {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final List<City> cities;
+    private final Map<City, Integer> cityIds;
+    private final List<Train> trains;
+    private final Map<Train, Integer> trainIds;
+    private final NamePool names;
+    private final Map<Long, int[]> rowsByOriginDay;
+
+    private int size;
+    private int[] origins;
+    private int[] destinations;
+    private int[] trainRows;
+    private long[] departures;
+    private long[] arrivals;
+    private long[] departureDelays;
+    private long[] arrivalDelays;
+    private final BitSet cancelled;
+    private int[] firstTickets;
+    private int[] bookedCounts;
+
+    private int ticketCount;
+    private int[] nameIds;
+    private int[] seats;
+
+    /**
+     * Creates an empty archive.
+     */
+    CompactTripArchive() {
+        this.cities = new ArrayList<>();
+        this.cityIds = new HashMap<>();
+        this.trains = new ArrayList<>();
+        this.trainIds = new HashMap<>();
+        this.names = new NamePool();
+        this.rowsByOriginDay = new HashMap<>();
+        this.origins = new int[INITIAL_CAPACITY];
+        this.destinations = new int[INITIAL_CAPACITY];
+        this.trainRows = new int[INITIAL_CAPACITY];
+        this.departures = new long[INITIAL_CAPACITY];
+        this.arrivals = new long[INITIAL_CAPACITY];
+        this.departureDelays = new long[INITIAL_CAPACITY];
+        this.arrivalDelays = new long[INITIAL_CAPACITY];
+        this.cancelled = new BitSet();
+        this.firstTickets = new int[INITIAL_CAPACITY + 1];
+        this.bookedCounts = new int[INITIAL_CAPACITY];
+        this.nameIds = new int[INITIAL_CAPACITY];
+        this.seats = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * View of an archived trip.
+     */
+    private class ArchivedTripView implements ArchivedTrip {
+
+        private final int row;
+
+        private ArchivedTripView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public City getOrigin() {
+            synchronized (CompactTripArchive.this) {
+                return cities.get(origins[this.row]);
+            }
+        }
+
+        @Override
+        public City getDestination() {
+            synchronized (CompactTripArchive.this) {
+                return cities.get(destinations[this.row]);
+            }
+        }
+
+        @Override
+        public Train getTrain() {
+            synchronized (CompactTripArchive.this) {
+                return trains.get(trainRows[this.row]);
+            }
+        }
+
+        @Override
+        public Instant getPlannedDepartureTime() {
+            synchronized (CompactTripArchive.this) {
+                return Instant.ofEpochMilli(departures[this.row]);
+            }
+        }
+
+        @Override
+        public Instant getPlannedArrivalTime() {
+            synchronized (CompactTripArchive.this) {
+                return Instant.ofEpochMilli(arrivals[this.row]);
+            }
+        }
+
+        @Override
+        public Duration getDepartureDelay() {
+            synchronized (CompactTripArchive.this) {
+                return Duration.ofMillis(departureDelays[this.row]);
+            }
+        }
+
+        @Override
+        public Duration getArrivalDelay() {
+            synchronized (CompactTripArchive.this) {
+                return Duration.ofMillis(arrivalDelays[this.row]);
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            synchronized (CompactTripArchive.this) {
+                return cancelled.get(this.row);
+            }
+        }
+
+        @Override
+        public List<String> getBookedPassengers() {
+            synchronized (CompactTripArchive.this) {
+                return readNames(firstTickets[this.row], firstTickets[this.row] + bookedCounts[this.row]);
+            }
+        }
+
+        @Override
+        public List<Seat> getBookedSeats() {
+            synchronized (CompactTripArchive.this) {
+                Train train = trains.get(trainRows[this.row]);
+                List<Seat> result = new ArrayList<>(bookedCounts[this.row]);
+                for (int ticket = firstTickets[this.row]; ticket < firstTickets[this.row] + bookedCounts[this.row]; ticket++) {
+                    result.add(train.getSeatMap().getSeat(seats[ticket]));
+                }
+                return result;
+            }
+        }
+
+        @Override
+        public List<String> getCancelledPassengers() {
+            synchronized (CompactTripArchive.this) {
+                return readNames(firstTickets[this.row] + bookedCounts[this.row], firstTickets[this.row + 1]);
+            }
+        }
+    }
+
+    /**
+     * Adds a trip to the archive.
+     * @param serviceDay The service day of the trip in the time zone of the system (see {@link ServiceDays}).
+     * @param bookedPassengers The passengers of the booked tickets.
+     * @param bookedSeats The indexes of the seats of the booked tickets, in the order of the passengers.
+     * @param cancelledPassengers The passengers of the cancelled tickets.
+     */
+    synchronized void add(City origin, City destination, Train train, Instant departure, Instant arrival,
+                          Duration departureDelay, Duration arrivalDelay, boolean isCancelled, int serviceDay,
+                          List<String> bookedPassengers, int[] bookedSeats, List<String> cancelledPassengers) {
+        int row = this.size;
+        if (row == this.origins.length) {
+            int capacity = row * 2;
+            this.origins = Arrays.copyOf(this.origins, capacity);
+            this.destinations = Arrays.copyOf(this.destinations, capacity);
+            this.trainRows = Arrays.copyOf(this.trainRows, capacity);
+            this.departures = Arrays.copyOf(this.departures, capacity);
+            this.arrivals = Arrays.copyOf(this.arrivals, capacity);
+            this.departureDelays = Arrays.copyOf(this.departureDelays, capacity);
+            this.arrivalDelays = Arrays.copyOf(this.arrivalDelays, capacity);
+            this.firstTickets = Arrays.copyOf(this.firstTickets, capacity + 1);
+            this.bookedCounts = Arrays.copyOf(this.bookedCounts, capacity);
+        }
+        this.origins[row] = findId(origin, this.cities, this.cityIds);
+        this.destinations[row] = findId(destination, this.cities, this.cityIds);
+        this.trainRows[row] = findId(train, this.trains, this.trainIds);
+        this.departures[row] = departure.toEpochMilli();
+        this.arrivals[row] = arrival.toEpochMilli();
+        this.departureDelays[row] = departureDelay.toMillis();
+        this.arrivalDelays[row] = arrivalDelay.toMillis();
+        this.cancelled.set(row, isCancelled);
+        this.bookedCounts[row] = bookedPassengers.size();
+
+        int tickets = bookedPassengers.size() + cancelledPassengers.size();
+        if (this.ticketCount + tickets > this.nameIds.length) {
+            int capacity = Math.max(this.nameIds.length * 2, this.ticketCount + tickets);
+            this.nameIds = Arrays.copyOf(this.nameIds, capacity);
+            this.seats = Arrays.copyOf(this.seats, capacity);
+        }
+        this.firstTickets[row] = this.ticketCount;
+        for (int i = 0; i < bookedPassengers.size(); i++) {
+            this.nameIds[this.ticketCount] = this.names.intern(bookedPassengers.get(i));
+            this.seats[this.ticketCount++] = bookedSeats[i];
+        }
+        for (String passenger : cancelledPassengers) {
+            this.nameIds[this.ticketCount] = this.names.intern(passenger);
+            this.seats[this.ticketCount++] = -1;
+        }
+        this.firstTickets[row + 1] = this.ticketCount;
+
+        long key = findKey(this.origins[row], serviceDay);
+        int[] rows = this.rowsByOriginDay.getOrDefault(key, new int[] {0});
+        if (rows[0] + 1 == rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        rows[++rows[0]] = row;
+        this.rowsByOriginDay.put(key, rows);
+        this.size++;
+    }
+
+    @Override
+    public synchronized int size() {
+        return this.size;
+    }
+
+    @Override
+    public Stream<ArchivedTrip> streamTrips() {
+        return IntStream.range(0, size()).mapToObj(ArchivedTripView::new);
+    }
+
+    @Override
+    public List<ArchivedTrip> findTrips(City origin, LocalDate date) {
+        return findTrips(origin, null, date);
+    }
+
+    @Override
+    public synchronized List<ArchivedTrip> findTrips(City origin, City destination, LocalDate date) {
+        Integer originId = this.cityIds.get(origin);
+        int[] rows = originId == null ? null : this.rowsByOriginDay.get(findKey(originId, ServiceDays.findDay(date)));
+        List<ArchivedTrip> result = new ArrayList<>();
+        for (int i = 1; rows != null && i <= rows[0]; i++) {
+            if (destination == null || this.cities.get(this.destinations[rows[i]]) == destination) {
+                result.add(new ArchivedTripView(rows[i]));
+            }
+        }
+        return result;
+    }
+
+    private List<String> readNames(int first, int end) {
+        List<String> result = new ArrayList<>(end - first);
+        for (int ticket = first; ticket < end; ticket++) {
+            result.add(this.names.get(this.nameIds[ticket]));
+        }
+        return result;
+    }
+
+    private static <T> int findId(T object, List<T> objects, Map<T, Integer> ids) {
+        return ids.computeIfAbsent(object, o -> {
+            objects.add(o);
+            return objects.size() - 1;
+        });
+    }
+
+    private static long findKey(int originId, int serviceDay) {
+        return ((long) originId << 32) | (serviceDay & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,102 @@
+package fr.univnantes.trainreservation.impl;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Set that keeps its elements in insertion order, and that can be used by many threads at once.
+ * Each added element takes the next number of a sequence, and is kept both in a hash map giving its number,
+ * to find it in constant time, and in a skip list ordered by number, to iterate in insertion order.
+ * No operation locks: additions and removals take logarithmic time, and threads only contend on the entries they change.
+ * Iterators are weakly consistent: they never fail, and keep working when the element they are on is removed.
+ *
+ * @param <E> The type of the elements, which are compared by equality.
+ */
+class ConcurrentLinkedSet<E> extends AbstractSet<E> {
+
+    private final Map<E, Long> sequenceNumbers;
+    private final NavigableMap<Long, E> elements;
+    private final AtomicLong sequence;
+
+    /**
+     * Creates an empty set.
+     */
+    ConcurrentLinkedSet() {
+        this.sequenceNumbers = new ConcurrentHashMap<>();
+        this.elements = new ConcurrentSkipListMap<>();
+        this.sequence = new AtomicLong();
+    }
+
+    @Override
+    public boolean add(E element) {
+        Long number = this.sequence.incrementAndGet();
+        if (this.sequenceNumbers.putIfAbsent(element, number) != null) {
+            return false;
+        }
+        this.elements.put(number, element);
+        // A removal between the two puts could not find the element in the skip list yet, so it is removed here
+        if (!number.equals(this.sequenceNumbers.get(element))) {
+            this.elements.remove(number);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        Long number = this.sequenceNumbers.remove(element);
+        if (number == null) {
+            return false;
+        }
+        this.elements.remove(number);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        return this.sequenceNumbers.containsKey(element);
+    }
+
+    @Override
+    public int size() {
+        return this.sequenceNumbers.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.sequenceNumbers.isEmpty();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> iterator = this.elements.values().iterator();
+        return new Iterator<E>() {
+
+            private E current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                this.current = iterator.next();
+                return this.current;
+            }
+
+            @Override
+            public void remove() {
+                if (this.current == null) {
+                    throw new IllegalStateException();
+                }
+                ConcurrentLinkedSet.this.remove(this.current);
+                this.current = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.DelayEvent;
+import fr.univnantes.trainreservation.Trip;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies delays to the trips of a train, and propagates them along its timeline.
+ * All the delay events of a train are applied in one iterative sweep: each trip of the train is delayed at most once,
+ * with the sum of the delays reported on it and of the delay carried from the previous trip.
+ */
+class DelayPropagator {
+
+    private final Duration minimumTurnaround;
+
+    /**
+     * Creates a propagator.
+     *
+     * @param minimumTurnaround The minimum duration between an arrival and the next departure of a train.
+     */
+    DelayPropagator(Duration minimumTurnaround) {
+        this.minimumTurnaround = minimumTurnaround;
+    }
+
+    /**
+     * Applies delay events concerning trips of one train.
+     * Trips that are not in the timeline (eg. cancelled trips) are delayed without propagation.
+     *
+     * @param timeline The timeline of the train.
+     * @param events The delay events, in any order.
+     * @param absorbSlack If true, a delay is only propagated to the next trip as far as needed to keep the minimum
+     *                    turnaround, otherwise the whole delay is propagated.
+     * @return The trips that have been delayed, directly or by propagation, in time order for those of the timeline.
+     */
+    List<Trip> propagate(TrainTimeline timeline, Collection<DelayEvent> events, boolean absorbSlack) {
+        Map<Trip, Duration> departureDelays = new HashMap<>();
+        Map<Trip, Duration> arrivalDelays = new HashMap<>();
+        List<Trip> delayedTrips = new ArrayList<>();
+        List<Trip> result = new ArrayList<>();
+        for (DelayEvent event : events) {
+            Trip trip = event.getTrip();
+            boolean departure = event.getKind() == DelayEvent.Kind.DEPARTURE;
+            if (timeline == null || timeline.findRank(trip) < 0) {
+                if (departure) {
+                    trip.addDepartureDelay(event.getDelay());
+                }
+                trip.addArrivalDelay(event.getDelay());
+                if (!result.contains(trip)) {
+                    result.add(trip);
+                }
+                continue;
+            }
+            if (!departureDelays.containsKey(trip) && !arrivalDelays.containsKey(trip)) {
+                delayedTrips.add(trip);
+            }
+            (departure ? departureDelays : arrivalDelays).merge(trip, event.getDelay(), Duration::plus);
+        }
+        if (delayedTrips.isEmpty()) {
+            return result;
+        }
+        delayedTrips.sort(Comparator.comparingLong(timeline::findRank));
+
+        int nextDelayedTrip = 0;
+        Trip trip = null;
+        Duration carried = Duration.ZERO;
+        while (trip != null || nextDelayedTrip < delayedTrips.size()) {
+            if (trip == null) {
+                trip = delayedTrips.get(nextDelayedTrip);
+            }
+            if (nextDelayedTrip < delayedTrips.size() && delayedTrips.get(nextDelayedTrip) == trip) {
+                nextDelayedTrip++;
+            }
+
+            Duration departureDelay = carried.plus(departureDelays.getOrDefault(trip, Duration.ZERO));
+            Duration arrivalDelay = departureDelay.plus(arrivalDelays.getOrDefault(trip, Duration.ZERO));
+            if (!departureDelay.isZero()) {
+                trip.addDepartureDelay(departureDelay);
+            }
+            if (!arrivalDelay.isZero()) {
+                trip.addArrivalDelay(arrivalDelay);
+            }
+            result.add(trip);
+
+            Trip next = timeline.findNext(trip).orElse(null);
+            carried = next == null ? Duration.ZERO : findPropagatedDelay(trip, next, arrivalDelay, absorbSlack);
+            trip = carried.isZero() ? null : next;
+        }
+        return result;
+    }
+
+    private Duration findPropagatedDelay(Trip trip, Trip next, Duration arrivalDelay, boolean absorbSlack) {
+        if (!absorbSlack) {
+            return arrivalDelay;
+        }
+        Duration overlap = Duration.between(next.findRealDepartureTime(),
+                trip.findRealArrivalTime().plus(this.minimumTurnaround));
+        if (overlap.isNegative() || arrivalDelay.isNegative()) {
+            return Duration.ZERO;
+        }
+        return overlap.compareTo(arrivalDelay) < 0 ? overlap : arrivalDelay;
+    }
+}
@@ -0,0 +1,100 @@
+package fr.univnantes.trainreservation.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values (eg. latencies in nanoseconds) with a bounded relative error, like HdrHistogram.
+ * Values below 128 have one bucket each; above, the width of the buckets doubles every 64 buckets, so that each
+ * bucket covers values within 1/64 of each other whatever their magnitude, and all longs fit in 3712 buckets.
+ * Recording a value takes a few bit operations and one atomic increment, without allocation,
+ * and can be done by many threads at once. Reads are weakly consistent with concurrent recordings.
+ */
+class Histogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong max;
+
+    /**
+     * Creates an empty histogram.
+     */
+    Histogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Counts a value.
+     * @param value The value, counted as 0 if it is negative.
+     */
+    void record(long value) {
+        long recorded = Math.max(0, value);
+        this.counts.incrementAndGet(findBucket(recorded));
+        long max = this.max.get();
+        while (recorded > max && !this.max.compareAndSet(max, recorded)) {
+            max = this.max.get();
+        }
+    }
+
+    /**
+     * Counts the recorded values.
+     * @return The amount of recorded values.
+     */
+    long count() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            count += this.counts.get(bucket);
+        }
+        return count;
+    }
+
+    /**
+     * Retrieves the largest recorded value.
+     * @return The maximum, or 0 if no value was recorded.
+     */
+    long max() {
+        return this.max.get();
+    }
+
+    /**
+     * Finds a percentile of the recorded values, up to the precision of the buckets.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The highest value of the bucket of the percentile (never more than the maximum), or 0 if no value was recorded.
+     */
+    long percentile(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += this.counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(findHighestValue(bucket), max());
+            }
+        }
+        return max();
+    }
+
+    private static int findBucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    private static long findHighestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long mantissa = bucket - ((long) shift << SUB_BITS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
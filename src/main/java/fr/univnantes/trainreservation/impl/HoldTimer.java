@@ -0,0 +1,235 @@
+package fr.univnantes.trainreservation.impl;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expires timeouts (eg. seat holds) with a hierarchical timing wheel, driven by a single daemon thread.
+ * Time is divided in ticks. The first wheel has one slot per tick for the next 256 ticks, and each following wheel
+ * has slots 256 times wider. A timeout is put in the slot of its tick in the finest wheel that covers it, and moved
+ * down to a finer wheel when the finer wheel comes round to its slot. Scheduling and cancelling a timeout take
+ * constant time, and each tick only visits the timeouts of one slot, whatever the amount of scheduled timeouts.
+ *
+ * Timeouts may expire up to one tick late. The thread only wakes up every tick while timeouts are scheduled.
+ * Each system has its own timer, which it closes with itself. Trips created outside of a system share one timer.
+ */
+class HoldTimer {
+
+    /**
+     * Action run once when its time has come, unless it is cancelled before.
+     * Timeouts are linked in the slots of the wheels, so that they can be removed in constant time.
+     */
+    abstract static class Timeout {
+
+        private Timeout previous;
+        private Timeout next;
+        private long tick;
+        private int level = -1;
+        private int slot;
+
+        /**
+         * Called by the thread of the timer when the timeout expires, without holding the lock of the timer.
+         */
+        abstract void expire();
+    }
+
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 4;
+
+    /**
+     * The default duration of a tick.
+     */
+    static final Duration TICK = Duration.ofMillis(50);
+
+    /**
+     * The timer shared by the trips created outside of a system, on the system clock.
+     * It is never closed, and its thread is only started by the first hold.
+     */
+    static final HoldTimer STANDALONE = new HoldTimer(Clock.systemUTC(), TICK);
+
+    private final Clock clock;
+    private final long tickMillis;
+    private final long startMillis;
+    private final Timeout[][] slots;
+    private long currentTick;
+    private int count;
+    private Thread worker;
+    private boolean closed;
+
+    /**
+     * Creates a timer whose thread is started when the first timeout is scheduled.
+     * @param clock The clock giving the current time.
+     * @param tick The duration of a tick, ie. the precision of the timer.
+     */
+    HoldTimer(Clock clock, Duration tick) {
+        this.clock = clock;
+        this.tickMillis = Math.max(1, tick.toMillis());
+        this.startMillis = clock.millis();
+        this.slots = new Timeout[LEVELS][SLOTS];
+    }
+
+    /**
+     * Retrieves the current time of the clock of the timer.
+     * @return The current time.
+     */
+    Instant now() {
+        return this.clock.instant();
+    }
+
+    /**
+     * Schedules a timeout that is not scheduled yet.
+     * @param timeout The timeout.
+     * @param time The time at which the timeout expires.
+     * @return false if the timer is closed, in which case the timeout is not scheduled.
+     */
+    synchronized boolean schedule(Timeout timeout, Instant time) {
+        if (this.closed) {
+            return false;
+        }
+        if (this.count == 0) {
+            // Skips the ticks elapsed while no timeout was scheduled
+            this.currentTick = findTick(this.clock.millis());
+        }
+        long tick = findTick(time.toEpochMilli() + this.tickMillis - 1);
+        timeout.tick = Math.max(tick, this.currentTick + 1);
+        insert(timeout);
+        this.count++;
+        if (this.worker == null) {
+            this.worker = new Thread(this::run, "hold-timer");
+            this.worker.setDaemon(true);
+            this.worker.start();
+        } else if (this.count == 1) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Cancels a timeout, which then never expires.
+     * @param timeout The timeout.
+     * @return true if the timeout was scheduled, false if it already expired or was cancelled.
+     */
+    synchronized boolean cancel(Timeout timeout) {
+        if (timeout.level < 0) {
+            return false;
+        }
+        unlink(timeout);
+        this.count--;
+        return true;
+    }
+
+    /**
+     * Stops the thread of the timer. The scheduled timeouts never expire, and no timeout can be scheduled anymore.
+     */
+    synchronized void close() {
+        this.closed = true;
+        if (this.worker != null) {
+            this.worker.interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (this.count == 0) {
+                        wait();
+                    }
+                }
+                Thread.sleep(this.tickMillis);
+                for (Timeout timeout : advance()) {
+                    timeout.expire();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Moves the wheels up to the current time.
+     * @return The timeouts that expired, removed from the wheels.
+     */
+    private synchronized List<Timeout> advance() {
+        long now = findTick(this.clock.millis());
+        List<Timeout> expired = new ArrayList<>();
+        while (this.currentTick < now && this.count > 0) {
+            this.currentTick++;
+            // When a wheel comes round, the next slot of the coarser wheel is spread over the finer wheels
+            for (int level = 1; level < LEVELS && (this.currentTick & ((1L << (BITS * level)) - 1)) == 0; level++) {
+                Timeout timeout = detach(level, findSlot(this.currentTick, level));
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    insert(timeout);
+                    timeout = next;
+                }
+            }
+            Timeout timeout = detach(0, findSlot(this.currentTick, 0));
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.level = -1;
+                timeout.previous = null;
+                timeout.next = null;
+                expired.add(timeout);
+                this.count--;
+                timeout = next;
+            }
+        }
+        if (this.count == 0) {
+            this.currentTick = now;
+        }
+        return expired;
+    }
+
+    private void insert(Timeout timeout) {
+        long delay = Math.max(0, timeout.tick - this.currentTick);
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        timeout.level = level;
+        timeout.slot = findSlot(timeout.tick, level);
+        timeout.previous = null;
+        timeout.next = this.slots[level][timeout.slot];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        this.slots[level][timeout.slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous == null) {
+            this.slots[timeout.level][timeout.slot] = timeout.next;
+        } else {
+            timeout.previous.next = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.level = -1;
+        timeout.previous = null;
+        timeout.next = null;
+    }
+
+    /**
+     * Removes all the timeouts of a slot.
+     * @return The first timeout of the slot, still linked to the following ones, or null if the slot was empty.
+     */
+    private Timeout detach(int level, int slot) {
+        Timeout first = this.slots[level][slot];
+        this.slots[level][slot] = null;
+        return first;
+    }
+
+    private long findTick(long millis) {
+        return Math.floorDiv(millis - this.startMillis, this.tickMillis);
+    }
+
+    private static int findSlot(long tick, int level) {
+        return (int) (tick >>> (BITS * level)) & (SLOTS - 1);
+    }
+}
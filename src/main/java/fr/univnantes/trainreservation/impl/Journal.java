@@ -0,0 +1,803 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.MultiStopTrip;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.SeatMap;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of all the changes made to a system since its last snapshot.
+ * Each change is written to the journal and forced to disk before the method making it returns.
+ * Changes are buffered when they are notified, and forced to disk once the method making them released the locks of
+ * the system, so that the changes made by one method (eg. cancelling a trip and its tickets) share one disk sync.
+ * Concurrent changes are committed in groups: while one thread forces the journal to disk, the changes made by
+ * other threads are buffered, and the next thread forces them all at once, so that one disk sync serves many changes.
+ *
+ * If the journal cannot be written, it fails: the methods whose changes are not on disk throw an
+ * {@link UncheckedIOException}, and so do all the following changes, until a checkpoint saves them in a new snapshot.
+ * Nothing is written after a failed write, so a record torn by the failure stays the last one.
+ *
+ * A journal is tied to a snapshot by an epoch number, written in both files. A checkpoint saves a new snapshot
+ * with a new epoch and then empties the journal, so a journal left over by a crash during a checkpoint is ignored.
+ *
+ * The journal is made of a header (magic number, format version, epoch) followed by records.
+ * Each record is written as its length, the CRC32 of its content, and its content: a type followed by its fields.
+ * Recovery stops at the first incomplete or corrupted record, which can only be the last one.
+ * The journal is only written by threads that are not interrupted, as interrupting a write would close the file.
+ *
+ * The system may change during a checkpoint, so a change can be both in the snapshot and in the journal that
+ * continues it. Records are therefore idempotent: objects are referenced by ids given in the snapshot, and replay
+ * skips the changes already made, eg. the tickets already cancelled. Delays are journaled as the resulting delays.
+ */
+public class Journal implements Closeable {
+
+    private static final int MAGIC = 0x5452534A;
+    private static final int VERSION = 6;
+
+    private static final byte CITY = 1;
+    private static final byte TRAIN = 2;
+    private static final byte TRIP_CREATED = 3;
+    private static final byte TRIP_CANCELLED = 4;
+    private static final byte DELAYS = 5;
+    private static final byte TICKET_BOOKED = 6;
+    private static final byte TICKET_CANCELLED = 7;
+    private static final byte MULTI_STOP_TRIP_CREATED = 8;
+    private static final byte TICKET_EXCHANGED = 9;
+    private static final byte TRIPS_ARCHIVED = 10;
+
+    private interface RecordContent {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Opens the journal file for writing, emptying it.
+     */
+    public interface ChannelFactory {
+
+        /**
+         * The factory opening journal files on their file system.
+         */
+        ChannelFactory FILES = path -> FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        /**
+         * Opens an empty journal file.
+         * @param path The journal file.
+         * @return The channel writing the file.
+         * @throws IOException If the file cannot be opened.
+         */
+        FileChannel open(Path path) throws IOException;
+    }
+
+    private final TicketReservationSystemImpl system;
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final ChannelFactory channels;
+    private final SystemListener listener;
+    private final Object lock;
+    private final ByteArrayOutputStream pending;
+    private final Map<Ticket, Long> earlyBookings;
+    private final ThreadLocal<Long> unsynced;
+    private FileChannel channel;
+    private ObjectIds ids;
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    private IOException failure;
+
+    private Journal(TicketReservationSystemImpl system, Path snapshotPath, Path journalPath, ChannelFactory channels) {
+        this.system = system;
+        this.snapshotPath = snapshotPath;
+        this.journalPath = journalPath;
+        this.channels = channels;
+        this.lock = new Object();
+        this.pending = new ByteArrayOutputStream();
+        this.earlyBookings = new HashMap<>();
+        this.unsynced = new ThreadLocal<>();
+        this.listener = new JournalListener();
+    }
+
+    /**
+     * Starts journaling all the changes made to a system.
+     * This first saves a snapshot of the system and starts an empty journal.
+     * @param system The system to journal.
+     * @param snapshotPath The snapshot file.
+     * @param journalPath The journal file.
+     * @return The journal, which must be closed to stop journaling.
+     * @throws IOException If the snapshot or the journal cannot be written.
+     */
+    public static Journal open(TicketReservationSystemImpl system, Path snapshotPath, Path journalPath) throws IOException {
+        return open(system, snapshotPath, journalPath, ChannelFactory.FILES);
+    }
+
+    /**
+     * Starts journaling all the changes made to a system, in journal files opened by a factory.
+     * @param system The system to journal.
+     * @param snapshotPath The snapshot file.
+     * @param journalPath The journal file.
+     * @param channels Opens the journal file at each checkpoint.
+     * @return The journal, which must be closed to stop journaling.
+     * @throws IOException If the snapshot or the journal cannot be written.
+     */
+    public static Journal open(TicketReservationSystemImpl system, Path snapshotPath, Path journalPath,
+                               ChannelFactory channels) throws IOException {
+        Journal journal = new Journal(system, snapshotPath, journalPath, channels);
+        journal.checkpoint();
+        system.addListener(journal.listener);
+        return journal;
+    }
+
+    /**
+     * Recovers a system from its last snapshot and the journal of the changes made since then.
+     * The recovered system is not journaled: use open to continue journaling it.
+     * @param snapshotPath The snapshot file.
+     * @param journalPath The journal file, which may not exist.
+     * @return The recovered system.
+     * @throws IOException If the files cannot be read, or are inconsistent.
+     */
+    public static TicketReservationSystemImpl recover(Path snapshotPath, Path journalPath) throws IOException {
+        return recover(snapshotPath, journalPath, false);
+    }
+
+    /**
+     * Recovers a system from its last snapshot and the journal of the changes made since then.
+     * @param snapshotPath The snapshot file.
+     * @param journalPath The journal file, which may not exist.
+     * @param compactTickets Whether the recovered system should keep its tickets compact.
+     * @return The recovered system.
+     * @throws IOException If the files cannot be read, or are inconsistent.
+     */
+    public static TicketReservationSystemImpl recover(Path snapshotPath, Path journalPath, boolean compactTickets) throws IOException {
+        long epoch = SystemSnapshot.readJournalEpoch(snapshotPath);
+        TicketReservationSystemImpl system = SystemSnapshot.load(snapshotPath, compactTickets);
+        if (epoch != 0 && Files.exists(journalPath)) {
+            replay(system, journalPath, epoch);
+        }
+        return system;
+    }
+
+    /**
+     * Saves a new snapshot of the system, and empties the journal.
+     * Changes notified meanwhile wait for the checkpoint, and are journaled afterwards even if they are in the snapshot.
+     * A journal that failed is written again once the checkpoint succeeded.
+     * @throws IOException If the snapshot or the journal cannot be written.
+     */
+    public void checkpoint() throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            synchronized (this.lock) {
+                while (this.flushing) {
+                    interrupted |= waitUninterruptibly();
+                }
+                long epoch = System.nanoTime() | 1;
+                ObjectIds ids = SystemSnapshot.save(this.system, this.snapshotPath, epoch);
+                // Buffered changes are already in the snapshot
+                this.pending.reset();
+                this.durable = this.appended;
+                this.lock.notifyAll();
+
+                if (this.channel != null) {
+                    this.channel.close();
+                }
+                this.channel = null;
+                try {
+                    this.channel = this.channels.open(this.journalPath);
+                    ByteBuffer header = ByteBuffer.allocate(16).putInt(MAGIC).putInt(VERSION).putLong(epoch);
+                    header.flip();
+                    writeFully(this.channel, header);
+                    this.channel.force(true);
+                } catch (IOException e) {
+                    this.failure = e;
+                    throw e;
+                }
+                this.failure = null;
+                this.ids = ids;
+                // Some tickets released before their booking was notified are never notified (eg. rejected legs):
+                // the snapshot has them, and a later notification would only be journaled again
+                this.earlyBookings.clear();
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops journaling the system, and closes the journal file.
+     */
+    @Override
+    public void close() throws IOException {
+        this.system.removeListener(this.listener);
+        boolean interrupted = Thread.interrupted();
+        try {
+            synchronized (this.lock) {
+                while (this.flushing) {
+                    interrupted |= waitUninterruptibly();
+                }
+                if (this.channel == null) {
+                    return;
+                }
+                if (this.failure == null && this.appended > this.durable) {
+                    writeFully(this.channel, ByteBuffer.wrap(this.pending.toByteArray()));
+                    this.channel.force(false);
+                    this.pending.reset();
+                    this.durable = this.appended;
+                }
+                this.channel.close();
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private class JournalListener implements SystemListener {
+
+        @Override
+        public void cityAdded(City city) {
+            long sequence;
+            synchronized (lock) {
+                long id = ids.cities.register(city);
+                sequence = append(CITY, out -> writeCity(out, id, true, city));
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void trainAdded(Train train) {
+            long sequence;
+            synchronized (lock) {
+                long id = ids.trains.register(train);
+                sequence = append(TRAIN, out -> writeTrain(out, id, true, train));
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void tripCreated(Trip trip) {
+            long sequence;
+            synchronized (lock) {
+                sequence = appendTripCreated(trip);
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void tripsCreated(List<Trip> trips) {
+            long sequence = 0;
+            synchronized (lock) {
+                for (Trip trip : trips) {
+                    sequence = appendTripCreated(trip);
+                }
+            }
+            // The trips are committed together
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void multiStopTripCreated(MultiStopTrip trip) {
+            long sequence;
+            synchronized (lock) {
+                List<Long> legs = new ArrayList<>();
+                for (Trip leg : trip.getLegs()) {
+                    legs.add(ids.trips.find(leg));
+                }
+                if (legs.contains(-1L)) {
+                    return;
+                }
+                sequence = append(MULTI_STOP_TRIP_CREATED, out -> {
+                    out.writeInt(legs.size());
+                    for (long leg : legs) {
+                        out.writeLong(leg);
+                    }
+                });
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void tripCancelled(Trip trip) {
+            long sequence;
+            synchronized (lock) {
+                long id = ids.trips.find(trip);
+                if (id < 0) {
+                    return;
+                }
+                sequence = append(TRIP_CANCELLED, out -> out.writeLong(id));
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void tripsArchived(Collection<Trip> trips) {
+            long sequence;
+            synchronized (lock) {
+                List<Long> known = new ArrayList<>();
+                for (Trip trip : trips) {
+                    long id = ids.trips.find(trip);
+                    if (id >= 0) {
+                        known.add(id);
+                        // Archived trips and their tickets are never referenced again
+                        ids.trips.unregister(trip);
+                        trip.getBookedTickets().forEach(ids.tickets::unregister);
+                        trip.getCancelledTickets().forEach(ids.tickets::unregister);
+                    }
+                }
+                if (known.isEmpty()) {
+                    return;
+                }
+                sequence = append(TRIPS_ARCHIVED, out -> {
+                    out.writeInt(known.size());
+                    for (long id : known) {
+                        out.writeLong(id);
+                    }
+                });
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void tripsDelayed(List<Trip> trips) {
+            long sequence;
+            synchronized (lock) {
+                List<Trip> known = new ArrayList<>();
+                for (Trip trip : trips) {
+                    if (ids.trips.find(trip) >= 0) {
+                        known.add(trip);
+                    }
+                }
+                if (known.isEmpty()) {
+                    return;
+                }
+                // The resulting delays, which can be replayed on a snapshot that already has some of them
+                sequence = append(DELAYS, out -> {
+                    out.writeInt(known.size());
+                    for (Trip trip : known) {
+                        out.writeLong(ids.trips.find(trip));
+                        SystemSnapshot.writeDuration(out, trip.getDepartureDelay());
+                        SystemSnapshot.writeDuration(out, trip.getArrivalDelay());
+                    }
+                });
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void ticketBooked(Ticket ticket) {
+            long sequence;
+            synchronized (lock) {
+                Long early = earlyBookings.remove(ticket);
+                if (early != null) {
+                    // Already journaled when the ticket was cancelled
+                    sequence = early;
+                } else {
+                    long trip = ids.trips.find(ticket.getTrip());
+                    if (trip < 0) {
+                        return;
+                    }
+                    sequence = appendTicketBooked(ticket, trip);
+                }
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void ticketCancelled(Ticket ticket) {
+            long sequence;
+            synchronized (lock) {
+                if (ids.tickets.find(ticket) < 0) {
+                    long trip = ids.trips.find(ticket.getTrip());
+                    if (trip < 0) {
+                        return;
+                    }
+                    // The ticket was cancelled before the thread booking it was notified: its booking is journaled first
+                    earlyBookings.put(ticket, appendTicketBooked(ticket, trip));
+                }
+                long id = ids.tickets.find(ticket);
+                // A cancelled ticket is never referenced again
+                ids.tickets.unregister(ticket);
+                sequence = append(TICKET_CANCELLED, out -> out.writeLong(id));
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void ticketExchanged(Ticket oldTicket, Ticket newTicket) {
+            long sequence = -1;
+            synchronized (lock) {
+                long oldId = ids.tickets.find(oldTicket);
+                long trip = ids.trips.find(newTicket.getTrip());
+                if (oldId >= 0 && trip >= 0 && !earlyBookings.containsKey(newTicket)) {
+                    ids.tickets.unregister(oldTicket);
+                    long id = ids.tickets.register(newTicket);
+                    sequence = append(TICKET_EXCHANGED, out -> {
+                        out.writeLong(oldId);
+                        out.writeLong(id);
+                        out.writeLong(trip);
+                        SystemSnapshot.writeString(out, newTicket.getPassengerName());
+                        out.writeInt(newTicket.getSeat().getIndex());
+                    });
+                }
+            }
+            if (sequence < 0) {
+                ticketCancelled(oldTicket);
+                ticketBooked(newTicket);
+                return;
+            }
+            awaitLater(sequence);
+        }
+
+        @Override
+        public void changesCompleted() {
+            Long sequence = unsynced.get();
+            if (sequence != null) {
+                unsynced.remove();
+                awaitDurable(sequence);
+            }
+        }
+    }
+
+    /**
+     * Buffers the record of a created trip, and of its cities and train if needed. Must be called while holding the lock.
+     * @return The sequence number of the record.
+     */
+    private long appendTripCreated(Trip trip) {
+        long origin = define(trip.getOrigin());
+        long destination = define(trip.getDestination());
+        long train = define(trip.getTrain());
+        long id = this.ids.trips.register(trip);
+        return append(TRIP_CREATED, out -> {
+            out.writeLong(id);
+            out.writeLong(origin);
+            out.writeLong(destination);
+            out.writeLong(train);
+            SystemSnapshot.writeInstant(out, trip.getPlannedDepartureTime());
+            SystemSnapshot.writeInstant(out, trip.getPlannedArrivalTime());
+        });
+    }
+
+    /**
+     * Buffers the record of a booked ticket, and gives it an id. Must be called while holding the lock.
+     * @return The sequence number of the record.
+     */
+    private long appendTicketBooked(Ticket ticket, long trip) {
+        long id = this.ids.tickets.register(ticket);
+        return append(TICKET_BOOKED, out -> {
+            out.writeLong(id);
+            out.writeLong(trip);
+            SystemSnapshot.writeString(out, ticket.getPassengerName());
+            out.writeInt(ticket.getSeat().getIndex());
+        });
+    }
+
+    /**
+     * Gives an id to a city that has none yet, and writes its definition. Must be called while holding the lock.
+     */
+    private long define(City city) {
+        long id = this.ids.cities.find(city);
+        if (id < 0) {
+            long newId = this.ids.cities.register(city);
+            append(CITY, out -> writeCity(out, newId, false, city));
+            return newId;
+        }
+        return id;
+    }
+
+    /**
+     * Gives an id to a train that has none yet, and writes its definition. Must be called while holding the lock.
+     */
+    private long define(Train train) {
+        long id = this.ids.trains.find(train);
+        if (id < 0) {
+            long newId = this.ids.trains.register(train);
+            append(TRAIN, out -> writeTrain(out, newId, false, train));
+            return newId;
+        }
+        return id;
+    }
+
+    private static void writeCity(DataOutputStream out, long id, boolean registered, City city) throws IOException {
+        out.writeLong(id);
+        out.writeBoolean(registered);
+        SystemSnapshot.writeString(out, city.getName());
+    }
+
+    private static void writeTrain(DataOutputStream out, long id, boolean registered, Train train) throws IOException {
+        out.writeLong(id);
+        out.writeBoolean(registered);
+        SystemSnapshot.writeString(out, train.getName());
+        SystemSnapshot.writeSeatMap(out, train.getSeatMap());
+    }
+
+    /**
+     * Buffers a record. Must be called while holding the lock.
+     * @return The sequence number of the record, to wait for it to be durable.
+     */
+    private long append(byte type, RecordContent content) {
+        if (this.failure != null) {
+            // Never written: waiting for the record throws
+            return ++this.appended;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            content.write(out);
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            DataOutputStream frame = new DataOutputStream(this.pending);
+            frame.writeInt(record.length);
+            frame.writeInt((int) crc.getValue());
+            frame.write(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ++this.appended;
+    }
+
+    /**
+     * Remembers a record to wait for once the current thread completed its changes.
+     * Must be called while holding the lock.
+     */
+    private void awaitLater(long sequence) {
+        Long previous = this.unsynced.get();
+        if (previous == null || previous < sequence) {
+            this.unsynced.set(sequence);
+        }
+    }
+
+    /**
+     * Waits until a record is on disk. If no other thread is forcing the journal, this thread writes and forces
+     * all the buffered records at once, for itself and for the threads waiting for them.
+     * @throws UncheckedIOException If the journal failed before the record was on disk.
+     */
+    private void awaitDurable(long sequence) {
+        // An interrupted thread would close the channel while writing: its interrupt is only restored afterwards
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                byte[] batch;
+                long batchEnd;
+                synchronized (this.lock) {
+                    while (this.durable < sequence && this.flushing) {
+                        interrupted |= waitUninterruptibly();
+                    }
+                    if (this.durable >= sequence) {
+                        return;
+                    }
+                    if (this.failure != null) {
+                        throw new UncheckedIOException(this.failure);
+                    }
+                    this.flushing = true;
+                    batch = this.pending.toByteArray();
+                    this.pending.reset();
+                    batchEnd = this.appended;
+                }
+                IOException failure = null;
+                try {
+                    writeFully(this.channel, ByteBuffer.wrap(batch));
+                    this.channel.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                synchronized (this.lock) {
+                    if (failure == null) {
+                        this.durable = batchEnd;
+                    } else if (this.failure == null) {
+                        // The batch may be partly written: nothing is written after it
+                        this.failure = failure;
+                    }
+                    this.flushing = false;
+                    this.lock.notifyAll();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for the lock to be notified, without being interrupted.
+     * @return true if the thread was interrupted meanwhile, and must be interrupted again once done.
+     */
+    private boolean waitUninterruptibly() {
+        try {
+            this.lock.wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Applies the records of a journal to a system loaded from the snapshot the journal continues.
+     */
+    private static void replay(TicketReservationSystemImpl system, Path journalPath, long epoch) throws IOException {
+        ByteBuffer in = SystemSnapshot.map(journalPath);
+        if (in.remaining() < 16 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a supported journal: " + journalPath);
+        }
+        if (in.getLong() != epoch) {
+            // Left over by a checkpoint interrupted after saving the snapshot: all its changes are in the snapshot
+            return;
+        }
+        ObjectIds ids = ObjectIds.of(system);
+        while (in.remaining() >= 8) {
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || in.remaining() < length) {
+                break;
+            }
+            ByteBuffer record = in.slice();
+            record.limit(length);
+            in.position(in.position() + length);
+            CRC32 crc = new CRC32();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                apply(system, ids, record);
+            } catch (TripException | ReservationException e) {
+                throw new IOException("Inconsistent journal: " + journalPath, e);
+            }
+        }
+    }
+
+    private static void apply(TicketReservationSystemImpl system, ObjectIds ids, ByteBuffer record)
+            throws TripException, ReservationException {
+        byte type = record.get();
+        switch (type) {
+            case CITY: {
+                long id = record.getLong();
+                boolean registered = record.get() != 0;
+                String name = SystemSnapshot.readString(record);
+                City city = ids.cities.find(id);
+                if (city == null) {
+                    city = new CityImpl(name);
+                    ids.cities.register(city, id);
+                }
+                if (registered && !system.getCities().contains(city)) {
+                    system.addCity(city);
+                }
+                break;
+            }
+            case TRAIN: {
+                long id = record.getLong();
+                boolean registered = record.get() != 0;
+                String name = SystemSnapshot.readString(record);
+                SeatMap seatMap = SystemSnapshot.readSeatMap(record);
+                Train train = ids.trains.find(id);
+                if (train == null) {
+                    train = new TrainImpl(name, seatMap);
+                    ids.trains.register(train, id);
+                }
+                if (registered && !system.getAllTrains().contains(train)) {
+                    system.addTrain(train);
+                }
+                break;
+            }
+            case TRIP_CREATED: {
+                long id = record.getLong();
+                if (ids.trips.find(id) != null) {
+                    break;
+                }
+                City origin = ids.cities.find(record.getLong());
+                City destination = ids.cities.find(record.getLong());
+                Train train = ids.trains.find(record.getLong());
+                // Journaled trips were valid when created, and legs of multi-stop trips would not pass createTrip
+                Trip trip = system.restoreTrip(origin, destination, train,
+                        SystemSnapshot.readInstant(record), SystemSnapshot.readInstant(record));
+                ids.trips.register(trip, id);
+                break;
+            }
+            case MULTI_STOP_TRIP_CREATED: {
+                int count = record.getInt();
+                List<TripImpl> legs = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    legs.add((TripImpl) ids.trips.find(record.getLong()));
+                }
+                if (!legs.contains(null) && !legs.get(0).isLeg()) {
+                    system.restoreMultiStopTrip(legs);
+                }
+                break;
+            }
+            case TRIP_CANCELLED: {
+                Trip trip = ids.trips.find(record.getLong());
+                if (trip != null && !trip.isCancelled()) {
+                    system.cancelTrip(trip);
+                }
+                break;
+            }
+            case TRIPS_ARCHIVED: {
+                int count = record.getInt();
+                List<Trip> trips = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    Trip trip = ids.trips.find(record.getLong());
+                    if (trip != null) {
+                        trips.add(trip);
+                    }
+                }
+                system.archive(trips);
+                break;
+            }
+            case DELAYS: {
+                int count = record.getInt();
+                for (int i = 0; i < count; i++) {
+                    Trip trip = ids.trips.find(record.getLong());
+                    Duration departureDelay = SystemSnapshot.readDuration(record);
+                    Duration arrivalDelay = SystemSnapshot.readDuration(record);
+                    system.restoreDelays(trip, departureDelay, arrivalDelay);
+                }
+                break;
+            }
+            case TICKET_BOOKED:
+                restoreTicket(ids, record);
+                break;
+            case TICKET_CANCELLED:
+                cancelTicket(ids.tickets.find(record.getLong()));
+                break;
+            case TICKET_EXCHANGED:
+                cancelTicket(ids.tickets.find(record.getLong()));
+                restoreTicket(ids, record);
+                break;
+            default:
+                throw new ReservationException();
+        }
+    }
+
+    /**
+     * Restores a booked ticket read from a record, unless it is already in the system.
+     */
+    private static void restoreTicket(ObjectIds ids, ByteBuffer record) {
+        long id = record.getLong();
+        TripImpl trip = (TripImpl) ids.trips.find(record.getLong());
+        String passengerName = SystemSnapshot.readString(record);
+        int seat = record.getInt();
+        if (ids.tickets.find(id) == null) {
+            ids.tickets.register(trip.restoreTicket(passengerName, false, seat), id);
+        }
+    }
+
+    /**
+     * Cancels a ticket, unless it is unknown or already cancelled.
+     */
+    private static void cancelTicket(Ticket ticket) throws ReservationException {
+        if (ticket != null && !ticket.isCancelled()) {
+            ticket.getTrip().cancelTicket(ticket);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.Journey;
+import fr.univnantes.trainreservation.Trip;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class JourneyImpl implements Journey {
+
+    private final List<Trip> trips;
+
+    public JourneyImpl(List<Trip> trips) {
+        this.trips = Collections.unmodifiableList(new ArrayList<>(trips));
+    }
+
+    @Override
+    public List<Trip> getTrips() {
+        return this.trips;
+    }
+
+    @Override
+    public City getOrigin() {
+        return this.trips.get(0).getOrigin();
+    }
+
+    @Override
+    public City getDestination() {
+        return this.trips.get(this.trips.size() - 1).getDestination();
+    }
+
+    @Override
+    public Instant findRealDepartureTime() {
+        return this.trips.get(0).findRealDepartureTime();
+    }
+
+    @Override
+    public Instant findRealArrivalTime() {
+        return this.trips.get(this.trips.size() - 1).findRealArrivalTime();
+    }
+
+    @Override
+    public int findTransfers() {
+        int transfers = 0;
+        for (int i = 1; i < this.trips.size(); i++) {
+            if (this.trips.get(i).getTrain() != this.trips.get(i - 1).getTrain()) {
+                transfers++;
+            }
+        }
+        return transfers;
+    }
+}
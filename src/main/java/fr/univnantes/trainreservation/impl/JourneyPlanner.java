@@ -0,0 +1,363 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.Journey;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plans journeys with the Connection Scan Algorithm.
+ * Each trip is a connection, and the trains are the vehicles: once a train is boarded, all its next trips are reachable
+ * without transfer, as long as it continues from where its previous trip ended. Connections are scanned once,
+ * in the order of their real departure, from a timetable in which only the trips of the changed trains are updated,
+ * lazily before the next query.
+ */
+class JourneyPlanner {
+
+    /**
+     * How long after the requested departure the fewest-transfers search looks for trips.
+     */
+    private static final Duration FEWEST_TRANSFERS_HORIZON = Duration.ofDays(1);
+
+    /**
+     * The maximum amount of trains in a journey with the fewest transfers.
+     */
+    private static final int MAXIMUM_TRAINS = 8;
+
+    private static final long UNREACHED = Long.MAX_VALUE;
+
+    /**
+     * Trips sorted by real departure, as arrays of primitive values.
+     */
+    private static class Timetable {
+        private final long version;
+        private final Map<City, Integer> cityIndexes;
+        private final Map<Train, Integer> trainIndexes;
+        private final int trainCount;
+        private final Trip[] trips;
+        private final long[] departures;
+        private final long[] arrivals;
+        private final int[] origins;
+        private final int[] destinations;
+        private final int[] trains;
+        private final int[] previousOfTrain;
+
+        /**
+         * Creates a timetable from a previous one, replacing the trips of the changed trains.
+         * Only the changed trips are sorted, then merged with the kept ones in linear time.
+         *
+         * @param version The version of the trips.
+         * @param previous The previous timetable, or null to start from an empty one.
+         * @param changedTrains The current trips of the trains that changed since the previous timetable, in time order.
+         */
+        private Timetable(long version, Timetable previous, Map<Train, List<Trip>> changedTrains) {
+            this.version = version;
+            this.cityIndexes = previous == null ? new HashMap<>() : new HashMap<>(previous.cityIndexes);
+            this.trainIndexes = previous == null ? new HashMap<>() : new HashMap<>(previous.trainIndexes);
+            for (Train train : changedTrains.keySet()) {
+                this.trainIndexes.computeIfAbsent(train, t -> this.trainIndexes.size());
+            }
+            this.trainCount = this.trainIndexes.size();
+            boolean[] changed = new boolean[this.trainCount];
+            for (Train train : changedTrains.keySet()) {
+                changed[this.trainIndexes.get(train)] = true;
+            }
+
+            // Real times are read once, as trips may be delayed meanwhile
+            List<Trip> changedTrips = new ArrayList<>();
+            changedTrains.values().forEach(changedTrips::addAll);
+            int changedCount = changedTrips.size();
+            long[] changedDepartures = new long[changedCount];
+            for (int i = 0; i < changedCount; i++) {
+                changedDepartures[i] = changedTrips.get(i).findRealDepartureTime().toEpochMilli();
+            }
+            Integer[] order = new Integer[changedCount];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingLong(i -> changedDepartures[i]));
+
+            int previousCount = previous == null ? 0 : previous.trips.length;
+            int kept = 0;
+            for (int i = 0; i < previousCount; i++) {
+                if (!changed[previous.trains[i]]) {
+                    kept++;
+                }
+            }
+            int size = kept + changedCount;
+            this.trips = new Trip[size];
+            this.departures = new long[size];
+            this.arrivals = new long[size];
+            this.origins = new int[size];
+            this.destinations = new int[size];
+            this.trains = new int[size];
+            this.previousOfTrain = new int[size];
+
+            int old = 0;
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                while (old < previousCount && changed[previous.trains[old]]) {
+                    old++;
+                }
+                if (next == changedCount || (old < previousCount && previous.departures[old] <= changedDepartures[order[next]])) {
+                    this.trips[i] = previous.trips[old];
+                    this.departures[i] = previous.departures[old];
+                    this.arrivals[i] = previous.arrivals[old];
+                    this.origins[i] = previous.origins[old];
+                    this.destinations[i] = previous.destinations[old];
+                    this.trains[i] = previous.trains[old];
+                    old++;
+                } else {
+                    Trip trip = changedTrips.get(order[next]);
+                    this.trips[i] = trip;
+                    this.departures[i] = changedDepartures[order[next]];
+                    this.arrivals[i] = trip.findRealArrivalTime().toEpochMilli();
+                    this.origins[i] = this.cityIndexes.computeIfAbsent(trip.getOrigin(), c -> this.cityIndexes.size());
+                    this.destinations[i] = this.cityIndexes.computeIfAbsent(trip.getDestination(), c -> this.cityIndexes.size());
+                    this.trains[i] = this.trainIndexes.get(trip.getTrain());
+                    next++;
+                }
+            }
+
+            // A train can only be ridden from a trip to the next one if it continues from where the previous one ended,
+            // which is not the case when a trip in between was cancelled
+            int[] lastOfTrain = new int[this.trainCount];
+            Arrays.fill(lastOfTrain, -1);
+            for (int i = 0; i < size; i++) {
+                int last = lastOfTrain[this.trains[i]];
+                this.previousOfTrain[i] = last >= 0 && this.destinations[last] == this.origins[i] ? last : -1;
+                lastOfTrain[this.trains[i]] = i;
+            }
+        }
+
+        private int findFirstDepartingFrom(long time) {
+            int index = Arrays.binarySearch(this.departures, time);
+            if (index < 0) {
+                return -index - 1;
+            }
+            while (index > 0 && this.departures[index - 1] == time) {
+                index--;
+            }
+            return index;
+        }
+    }
+
+    private final Map<Train, TrainTimeline> timelines;
+    private final Set<Train> changedTrains;
+    private final AtomicLong version;
+    private volatile Timetable timetable;
+
+    /**
+     * Creates a planner.
+     *
+     * @param timelines The timelines of the trains, holding all the trips that can be used in journeys.
+     */
+    JourneyPlanner(Map<Train, TrainTimeline> timelines) {
+        this.timelines = timelines;
+        this.changedTrains = ConcurrentHashMap.newKeySet();
+        this.version = new AtomicLong();
+    }
+
+    /**
+     * Signals that trips of a train changed (created, cancelled, delayed or archived), so that the trips of this train
+     * are updated in the timetable before the next query.
+     *
+     * @param train The train.
+     */
+    void invalidate(Train train) {
+        this.changedTrains.add(train);
+        this.version.incrementAndGet();
+    }
+
+    /**
+     * Finds the journey that arrives the earliest.
+     *
+     * @param origin The city where the journey starts.
+     * @param destination The city where the journey ends.
+     * @param departure The instant from which the journey can start.
+     * @param minimumConnection The minimum duration between the arrival of a train and the departure of another one.
+     * @return The journey, or nothing if the destination cannot be reached.
+     */
+    Optional<Journey> findEarliestArrival(City origin, City destination, Instant departure, Duration minimumConnection) {
+        Timetable timetable = findTimetable();
+        Integer originIndex = timetable.cityIndexes.get(origin);
+        Integer destinationIndex = timetable.cityIndexes.get(destination);
+        if (originIndex == null || destinationIndex == null || origin == destination) {
+            return Optional.empty();
+        }
+        long start = departure.toEpochMilli();
+        long connection = minimumConnection.toMillis();
+        long[] earliest = new long[timetable.cityIndexes.size()];
+        Arrays.fill(earliest, UNREACHED);
+        earliest[originIndex] = start - connection;
+        int[] boarding = new int[timetable.trainCount];
+        Arrays.fill(boarding, -1);
+        int[] enteredBy = new int[earliest.length];
+        int[] exitedBy = new int[earliest.length];
+
+        for (int c = timetable.findFirstDepartingFrom(start); c < timetable.trips.length; c++) {
+            if (timetable.departures[c] >= earliest[destinationIndex]) {
+                break;
+            }
+            int train = timetable.trains[c];
+            int from = timetable.origins[c];
+            if (timetable.previousOfTrain[c] < 0) {
+                boarding[train] = -1;
+            }
+            if (boarding[train] < 0 && earliest[from] != UNREACHED && earliest[from] + connection <= timetable.departures[c]) {
+                boarding[train] = c;
+            }
+            int to = timetable.destinations[c];
+            if (boarding[train] >= 0 && timetable.arrivals[c] < earliest[to]) {
+                earliest[to] = timetable.arrivals[c];
+                enteredBy[to] = boarding[train];
+                exitedBy[to] = c;
+            }
+        }
+        if (earliest[destinationIndex] == UNREACHED) {
+            return Optional.empty();
+        }
+
+        List<Trip> trips = new ArrayList<>();
+        int city = destinationIndex;
+        while (city != originIndex) {
+            addLegInReverse(timetable, enteredBy[city], exitedBy[city], trips);
+            city = timetable.origins[enteredBy[city]];
+        }
+        Collections.reverse(trips);
+        return Optional.of(new JourneyImpl(trips));
+    }
+
+    /**
+     * Finds the journey that uses the fewest trains, and among them the one that arrives the earliest.
+     * Only trips departing within one day of the requested departure are considered.
+     *
+     * @param origin The city where the journey starts.
+     * @param destination The city where the journey ends.
+     * @param departure The instant from which the journey can start.
+     * @param minimumConnection The minimum duration between the arrival of a train and the departure of another one.
+     * @return The journey, or nothing if the destination cannot be reached.
+     */
+    Optional<Journey> findFewestTransfers(City origin, City destination, Instant departure, Duration minimumConnection) {
+        Timetable timetable = findTimetable();
+        Integer originIndex = timetable.cityIndexes.get(origin);
+        Integer destinationIndex = timetable.cityIndexes.get(destination);
+        if (originIndex == null || destinationIndex == null || origin == destination) {
+            return Optional.empty();
+        }
+        long start = departure.toEpochMilli();
+        long end = departure.plus(FEWEST_TRANSFERS_HORIZON).toEpochMilli();
+        long connection = minimumConnection.toMillis();
+        int cityCount = timetable.cityIndexes.size();
+
+        // Round k holds the earliest arrivals using at most k trains
+        long[][] earliest = new long[MAXIMUM_TRAINS + 1][cityCount];
+        int[][] boarding = new int[MAXIMUM_TRAINS + 1][timetable.trainCount];
+        int[][] enteredBy = new int[MAXIMUM_TRAINS + 1][cityCount];
+        int[][] exitedBy = new int[MAXIMUM_TRAINS + 1][cityCount];
+        for (int k = 0; k <= MAXIMUM_TRAINS; k++) {
+            Arrays.fill(earliest[k], UNREACHED);
+            earliest[k][originIndex] = start - connection;
+            Arrays.fill(boarding[k], -1);
+        }
+        int rounds = MAXIMUM_TRAINS;
+
+        for (int c = timetable.findFirstDepartingFrom(start); c < timetable.trips.length; c++) {
+            if (timetable.departures[c] > end
+                    || (rounds == 1 && timetable.departures[c] >= earliest[1][destinationIndex])) {
+                break;
+            }
+            int train = timetable.trains[c];
+            int from = timetable.origins[c];
+            int to = timetable.destinations[c];
+            for (int k = 1; k <= rounds; k++) {
+                long ready = earliest[k - 1][from];
+                if (timetable.previousOfTrain[c] < 0) {
+                    boarding[k][train] = -1;
+                }
+                if (boarding[k][train] < 0 && ready != UNREACHED && ready + connection <= timetable.departures[c]) {
+                    boarding[k][train] = c;
+                }
+                if (boarding[k][train] < 0 || timetable.arrivals[c] >= earliest[k][to]) {
+                    continue;
+                }
+                for (int j = k; j <= MAXIMUM_TRAINS && timetable.arrivals[c] < earliest[j][to]; j++) {
+                    earliest[j][to] = timetable.arrivals[c];
+                    enteredBy[j][to] = boarding[k][train];
+                    exitedBy[j][to] = c;
+                }
+                if (to == destinationIndex) {
+                    // Journeys using more trains are no longer interesting
+                    rounds = Math.min(rounds, k);
+                }
+            }
+        }
+
+        int trains = 1;
+        while (trains <= MAXIMUM_TRAINS && earliest[trains][destinationIndex] == UNREACHED) {
+            trains++;
+        }
+        if (trains > MAXIMUM_TRAINS) {
+            return Optional.empty();
+        }
+
+        List<Trip> trips = new ArrayList<>();
+        int city = destinationIndex;
+        for (int k = trains; city != originIndex; k--) {
+            addLegInReverse(timetable, enteredBy[k][city], exitedBy[k][city], trips);
+            city = timetable.origins[enteredBy[k][city]];
+        }
+        Collections.reverse(trips);
+        return Optional.of(new JourneyImpl(trips));
+    }
+
+    private static void addLegInReverse(Timetable timetable, int entered, int exited, List<Trip> trips) {
+        for (int c = exited; c != entered; c = timetable.previousOfTrain[c]) {
+            trips.add(timetable.trips[c]);
+        }
+        trips.add(timetable.trips[entered]);
+    }
+
+    private Timetable findTimetable() {
+        Timetable current = this.timetable;
+        if (current != null && current.version == this.version.get()) {
+            return current;
+        }
+        synchronized (this) {
+            long currentVersion = this.version.get();
+            current = this.timetable;
+            if (current == null || current.version != currentVersion) {
+                // Trains are taken out before reading their timeline, so that a later change is never missed
+                Map<Train, List<Trip>> changed = new HashMap<>();
+                for (Iterator<Train> it = this.changedTrains.iterator(); it.hasNext(); ) {
+                    Train train = it.next();
+                    it.remove();
+                    changed.put(train, null);
+                }
+                if (current == null) {
+                    this.timelines.keySet().forEach(train -> changed.put(train, null));
+                }
+                for (Map.Entry<Train, List<Trip>> entry : changed.entrySet()) {
+                    TrainTimeline timeline = this.timelines.get(entry.getKey());
+                    entry.setValue(timeline == null ? List.of() : timeline.toList());
+                }
+                current = new Timetable(currentVersion, current, changed);
+                this.timetable = current;
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.MultiStopTrip;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Multi-stop trip whose legs share the occupancy of the route in a segment tree.
+ * Booking between two stops first reserves a place on the whole range of legs at once, in O(log stops),
+ * then books a ticket on each leg, on a seat that is free on all of them if there is one.
+ */
+public class MultiStopTripImpl implements MultiStopTrip {
+
+    private final Train train;
+    private final List<City> stops;
+    private final List<TripImpl> legs;
+    private final SegmentOccupancy occupancy;
+
+    /**
+     * Creates a multi-stop trip from its legs, which must not be booked concurrently while it is created.
+     * @param train The train of the legs.
+     * @param legs The legs, in order.
+     */
+    MultiStopTripImpl(Train train, List<TripImpl> legs) {
+        this.train = train;
+        this.legs = List.copyOf(legs);
+        List<City> stops = new ArrayList<>();
+        stops.add(legs.get(0).getOrigin());
+        int[] initial = new int[legs.size()];
+        for (int i = 0; i < legs.size(); i++) {
+            stops.add(legs.get(i).getDestination());
+            initial[i] = legs.get(i).getBookedTickets().size();
+        }
+        this.stops = Collections.unmodifiableList(stops);
+        this.occupancy = new SegmentOccupancy(initial);
+        for (int i = 0; i < legs.size(); i++) {
+            legs.get(i).joinRoute(this.occupancy, i);
+        }
+    }
+
+    @Override
+    public Train getTrain() {
+        return this.train;
+    }
+
+    @Override
+    public List<City> getStops() {
+        return this.stops;
+    }
+
+    @Override
+    public List<Trip> getLegs() {
+        return Collections.unmodifiableList(this.legs);
+    }
+
+    @Override
+    public int findAvailableSeats(City from, City to) throws ReservationException {
+        int first = findStop(from, 0);
+        int last = findStop(to, first + 1);
+        return Math.max(0, this.train.getMaxPassengers() - this.occupancy.findMaximumOccupancy(first, last));
+    }
+
+    @Override
+    public List<Ticket> bookTicket(String passengerName, City from, City to) throws ReservationException {
+        int first = findStop(from, 0);
+        int last = findStop(to, first + 1);
+        if (!this.occupancy.tryReserve(first, last, 1, this.train.getMaxPassengers())) {
+            throw new ReservationException();
+        }
+        int seat = findCommonSeat(first, last);
+        List<Ticket> tickets = new ArrayList<>(last - first);
+        for (int leg = first; leg < last; leg++) {
+            try {
+                tickets.add(this.legs.get(leg).bookReservedTicket(passengerName, seat));
+            } catch (ReservationException e) {
+                // The failed leg gave its reservation back, the booked legs give theirs back with their tickets
+                for (int i = 0; i < tickets.size(); i++) {
+                    this.legs.get(first + i).discardTicket(tickets.get(i));
+                }
+                if (leg + 1 < last) {
+                    this.occupancy.add(leg + 1, last, -1);
+                }
+                throw e;
+            }
+        }
+        for (int i = 0; i < tickets.size(); i++) {
+            this.legs.get(first + i).confirmReservedTicket(tickets.get(i));
+        }
+        return Collections.unmodifiableList(tickets);
+    }
+
+    /**
+     * Finds a seat that is free on a range of legs, by intersecting their seat bitmaps.
+     * @return The index of the seat, or -1 if no seat is free on all the legs.
+     */
+    private int findCommonSeat(int first, int last) {
+        SeatAllocator firstAllocator = this.legs.get(first).getSeatAllocator();
+        for (int word = 0; word < firstAllocator.countWords(); word++) {
+            long common = -1L;
+            for (int leg = first; leg < last && common != 0; leg++) {
+                common &= this.legs.get(leg).getSeatAllocator().findFreeSeats(word);
+            }
+            if (common != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(common);
+            }
+        }
+        return -1;
+    }
+
+    private int findStop(City city, int from) throws ReservationException {
+        for (int stop = from; stop < this.stops.size(); stop++) {
+            if (this.stops.get(stop) == city) {
+                return stop;
+            }
+        }
+        throw new ReservationException();
+    }
+}
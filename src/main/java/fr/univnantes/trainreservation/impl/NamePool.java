@@ -0,0 +1,104 @@
+package fr.univnantes.trainreservation.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pool of distinct strings, numbered from 0 in the order in which they were first interned.
+ * Strings are kept as UTF-8 bytes in a single array and found back through an open-addressing hash table,
+ * so the pool holds no String object, and each distinct string takes little more memory than its bytes.
+ *
+ * Calls to intern must be serialized by the caller. Strings can be read by many threads at once,
+ * as long as their ids were safely published after being interned.
+ */
+class NamePool {
+
+    private volatile byte[] bytes;
+    private volatile int[] offsets;
+    private int length;
+    private int count;
+    private int[] table;
+
+    /**
+     * Creates an empty pool.
+     */
+    NamePool() {
+        this.bytes = new byte[1 << 12];
+        this.offsets = new int[1 << 8];
+        this.table = new int[1 << 9];
+    }
+
+    /**
+     * Finds the id of a string, adding the string to the pool if needed.
+     * @param value The string.
+     * @return The id of the string.
+     */
+    int intern(String value) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        int mask = this.table.length - 1;
+        int index = hash(encoded, 0, encoded.length) & mask;
+        while (this.table[index] != 0) {
+            int id = this.table[index] - 1;
+            if (matches(id, encoded)) {
+                return id;
+            }
+            index = (index + 1) & mask;
+        }
+
+        int id = this.count;
+        if (this.length + encoded.length > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.length + encoded.length));
+        }
+        if (id + 2 > this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        }
+        System.arraycopy(encoded, 0, this.bytes, this.length, encoded.length);
+        this.length += encoded.length;
+        this.offsets[id + 1] = this.length;
+        this.count++;
+        this.table[index] = id + 1;
+        if (this.count * 2 > this.table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Retrieves a string of the pool.
+     * @param id The id of the string.
+     * @return The string.
+     */
+    String get(int id) {
+        int[] offsets = this.offsets;
+        byte[] bytes = this.bytes;
+        return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    private boolean matches(int id, byte[] encoded) {
+        int start = this.offsets[id];
+        int end = this.offsets[id + 1];
+        return Arrays.equals(this.bytes, start, end, encoded, 0, encoded.length);
+    }
+
+    private void rehash() {
+        int[] table = new int[this.table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < this.count; id++) {
+            int index = hash(this.bytes, this.offsets[id], this.offsets[id + 1]) & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = id + 1;
+        }
+        this.table = table;
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spreads the high bits, since the table only uses the low ones
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,135 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.ArchivedTrip;
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers the cities, trains, trips and tickets of a system, so that they can be referenced in files.
+ * The objects of a system are always numbered in the same order as they are written in a snapshot,
+ * so that a system loaded from a snapshot gets the same ids as the system that was saved.
+ */
+class ObjectIds {
+
+    /**
+     * Ids of objects of one kind, starting from 0.
+     *
+     * @param <T> The kind of objects.
+     */
+    static class Ids<T> {
+        private final Map<T, Long> ids = new ConcurrentHashMap<>();
+        private final Map<Long, T> objects = new ConcurrentHashMap<>();
+        private final AtomicLong nextId = new AtomicLong();
+
+        /**
+         * Finds the id of an object.
+         * @return The id, or -1 if the object has no id.
+         */
+        long find(T object) {
+            Long id = this.ids.get(object);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * Finds the object having an id.
+         * @return The object, or null if no object has this id.
+         */
+        T find(long id) {
+            return this.objects.get(id);
+        }
+
+        /**
+         * Gives the next id to an object, unless it already has one.
+         * @return The id of the object.
+         */
+        long register(T object) {
+            return this.ids.computeIfAbsent(object, o -> {
+                long id = this.nextId.getAndIncrement();
+                this.objects.put(id, o);
+                return id;
+            });
+        }
+
+        /**
+         * Gives a specific id to an object, eg. when reading it from a file.
+         */
+        void register(T object, long id) {
+            this.ids.put(object, id);
+            this.objects.put(id, object);
+            this.nextId.accumulateAndGet(id + 1, Math::max);
+        }
+
+        /**
+         * Forgets an object, which keeps its id unused.
+         */
+        void unregister(T object) {
+            Long id = this.ids.remove(object);
+            if (id != null) {
+                this.objects.remove(id);
+            }
+        }
+
+        /**
+         * Lists the objects in the order of their ids.
+         */
+        List<T> list() {
+            List<T> result = new ArrayList<>();
+            for (long id = 0; id < this.nextId.get(); id++) {
+                T object = this.objects.get(id);
+                if (object != null) {
+                    result.add(object);
+                }
+            }
+            return result;
+        }
+    }
+
+    final Ids<City> cities = new Ids<>();
+    final Ids<Train> trains = new Ids<>();
+    final Ids<Trip> trips = new Ids<>();
+    final Ids<Ticket> tickets = new Ids<>();
+
+    /**
+     * Numbers all the objects of a system: registered cities and trains come first,
+     * then non-cancelled trips followed by cancelled trips, and the cities, trains and tickets of each trip,
+     * and finally the cities and trains of archived trips, which are not numbered themselves.
+     * @param system The system.
+     * @return The ids of the objects of the system.
+     */
+    static ObjectIds of(TicketReservationSystemImpl system) {
+        return of(new SystemSnapshot.Contents(system));
+    }
+
+    /**
+     * Numbers the objects of a system read for a snapshot, in the same order as {@link #of(TicketReservationSystemImpl)}.
+     * @param contents The objects of the system.
+     * @return The ids of the objects.
+     */
+    static ObjectIds of(SystemSnapshot.Contents contents) {
+        ObjectIds ids = new ObjectIds();
+        contents.cities.forEach(ids.cities::register);
+        contents.trains.forEach(ids.trains::register);
+        for (Trip trip : contents.getTrips()) {
+            ids.cities.register(trip.getOrigin());
+            ids.cities.register(trip.getDestination());
+            ids.trains.register(trip.getTrain());
+            ids.trips.register(trip);
+            contents.bookedTickets.get(trip).forEach(ids.tickets::register);
+            contents.cancelledTickets.get(trip).forEach(ids.tickets::register);
+        }
+        for (ArchivedTrip trip : contents.archivedTrips) {
+            ids.cities.register(trip.getOrigin());
+            ids.cities.register(trip.getDestination());
+            ids.trains.register(trip.getTrain());
+        }
+        return ids;
+    }
+}
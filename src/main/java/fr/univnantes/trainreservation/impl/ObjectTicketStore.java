@@ -0,0 +1,114 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.Seat;
+import fr.univnantes.trainreservation.Ticket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ticket store keeping one {@link TicketImpl} object per ticket, in lock-free concurrent sets (see {@link ConcurrentLinkedSet}),
+ * so that bookings and cancellations never queue on a system-wide or per-trip monitor.
+ * A ticket is always added to the system-wide sets before the sets of its trip, and removed from the sets of its trip
+ * first, so that the thread that removes it from its trip is the only one that moves it in the system-wide sets.
+ */
+class ObjectTicketStore implements TicketStore {
+
+    private final Set<Ticket> bookedTickets;
+    private final Set<Ticket> cancelledTickets;
+
+    /**
+     * Creates an empty store.
+     */
+    ObjectTicketStore() {
+        this.bookedTickets = new ConcurrentLinkedSet<>();
+        this.cancelledTickets = new ConcurrentLinkedSet<>();
+    }
+
+    @Override
+    public TripTickets createTripTickets(TripImpl trip) {
+        return new ObjectTripTickets(trip);
+    }
+
+    /**
+     * Tickets of one trip, in sets ordered by booking and by cancellation.
+     */
+    private class ObjectTripTickets implements TripTickets {
+
+        private final TripImpl trip;
+        private final Set<Ticket> booked = new ConcurrentLinkedSet<>();
+        private final Set<Ticket> cancelled = new ConcurrentLinkedSet<>();
+
+        private ObjectTripTickets(TripImpl trip) {
+            this.trip = trip;
+        }
+
+        @Override
+        public Ticket book(String passengerName, Seat seat) {
+            Ticket ticket = new TicketImpl(passengerName, this.trip, seat);
+            bookedTickets.add(ticket);
+            this.booked.add(ticket);
+            return ticket;
+        }
+
+        @Override
+        public Ticket restoreCancelled(String passengerName, Seat seat) {
+            Ticket ticket = new TicketImpl(passengerName, this.trip, seat);
+            ticket.cancel();
+            cancelledTickets.add(ticket);
+            this.cancelled.add(ticket);
+            return ticket;
+        }
+
+        @Override
+        public boolean release(Ticket ticket) {
+            if (!this.booked.remove(ticket)) {
+                return false;
+            }
+            this.cancelled.add(ticket);
+            bookedTickets.remove(ticket);
+            cancelledTickets.add(ticket);
+            return true;
+        }
+
+        @Override
+        public boolean discard(Ticket ticket) {
+            if (!this.booked.remove(ticket)) {
+                return false;
+            }
+            bookedTickets.remove(ticket);
+            return true;
+        }
+
+        @Override
+        public List<Ticket> getBooked() {
+            return new ArrayList<>(this.booked);
+        }
+
+        @Override
+        public List<Ticket> getCancelled() {
+            return new ArrayList<>(this.cancelled);
+        }
+    }
+
+    @Override
+    public Collection<Ticket> viewBooked() {
+        return Collections.unmodifiableCollection(this.bookedTickets);
+    }
+
+    @Override
+    public Collection<Ticket> viewCancelled() {
+        return Collections.unmodifiableCollection(this.cancelledTickets);
+    }
+
+    @Override
+    public void evict(Collection<TripTickets> trips) {
+        for (TripTickets tickets : trips) {
+            ((ObjectTripTickets) tickets).booked.forEach(this.bookedTickets::remove);
+            ((ObjectTripTickets) tickets).cancelled.forEach(this.cancelledTickets::remove);
+        }
+    }
+}
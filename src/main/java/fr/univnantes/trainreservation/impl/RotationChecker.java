@@ -0,0 +1,295 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.DelayEvent;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripConstraint;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the trips of every train of a system still satisfy the constraints of createTrip, which are only
+ * checked when trips are created and can be broken later, eg. by delays. Each trip is checked against the previous
+ * trip of its train with their real times, and the first trip of each train against its own constraints.
+ * A turnaround of exactly the minimum is allowed, since absorbing delays with slack leaves such turnarounds.
+ * Trains are checked in parallel on the common fork-join pool, each from a lock-free read of its timeline.
+ *
+ * A checker can also run in the background: it then listens to the changes made to the system, and periodically
+ * re-checks only the trains touched since its last run, keeping the violations of the other trains.
+ */
+public class RotationChecker implements Closeable {
+
+    private static final int TRAINS_PER_TASK = 16;
+
+    /**
+     * A trip that breaks a constraint of createTrip.
+     */
+    public static class Violation {
+
+        private final Trip previousTrip;
+        private final Trip trip;
+        private final TripConstraint constraint;
+
+        private Violation(Trip previousTrip, Trip trip, TripConstraint constraint) {
+            this.previousTrip = previousTrip;
+            this.trip = trip;
+            this.constraint = constraint;
+        }
+
+        /**
+         * Retrieves the trip of the same train that precedes the trip breaking the constraint.
+         * @return The previous trip, or null if the trip is the first one of its train.
+         */
+        public Trip getPreviousTrip() {
+            return this.previousTrip;
+        }
+
+        /**
+         * Retrieves the trip breaking the constraint.
+         * @return The trip.
+         */
+        public Trip getTrip() {
+            return this.trip;
+        }
+
+        /**
+         * Retrieves the broken constraint.
+         * @return The constraint.
+         */
+        public TripConstraint getConstraint() {
+            return this.constraint;
+        }
+
+        @Override
+        public String toString() {
+            return this.trip.getTrain().getName() + " " + this.trip.getOrigin().getName() + "-"
+                    + this.trip.getDestination().getName() + " " + this.trip.getPlannedDepartureTime() + ": " + this.constraint;
+        }
+    }
+
+    /**
+     * Outcome of a check of the trains of a system.
+     */
+    public static class Report {
+
+        private final int checkedTrains;
+        private final List<Violation> violations;
+
+        private Report(int checkedTrains, List<Violation> violations) {
+            this.checkedTrains = checkedTrains;
+            this.violations = Collections.unmodifiableList(violations);
+        }
+
+        /**
+         * Counts the trains that were checked.
+         * @return The amount of checked trains.
+         */
+        public int getCheckedTrains() {
+            return this.checkedTrains;
+        }
+
+        /**
+         * Retrieves the trips breaking a constraint.
+         * @return The violations, grouped by train and in time order for each train.
+         */
+        public List<Violation> getViolations() {
+            return this.violations;
+        }
+
+        /**
+         * Retrieves whether all the trains satisfy the constraints.
+         * @return true if there is no violation.
+         */
+        public boolean isConsistent() {
+            return this.violations.isEmpty();
+        }
+    }
+
+    /**
+     * Checks a range of trains, splitting it in halves run in parallel while it is large.
+     */
+    private static class CheckTask extends RecursiveTask<Map<Train, List<Violation>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TicketReservationSystemImpl system;
+        private final Train[] trains;
+        private final int first;
+        private final int end;
+
+        private CheckTask(TicketReservationSystemImpl system, Train[] trains, int first, int end) {
+            this.system = system;
+            this.trains = trains;
+            this.first = first;
+            this.end = end;
+        }
+
+        @Override
+        protected Map<Train, List<Violation>> compute() {
+            if (this.end - this.first <= TRAINS_PER_TASK) {
+                Map<Train, List<Violation>> violations = new ConcurrentHashMap<>();
+                for (int i = this.first; i < this.end; i++) {
+                    violations.put(this.trains[i], checkTrain(this.system, this.trains[i]));
+                }
+                return violations;
+            }
+            int middle = (this.first + this.end) >>> 1;
+            CheckTask left = new CheckTask(this.system, this.trains, this.first, middle);
+            left.fork();
+            Map<Train, List<Violation>> violations = new CheckTask(this.system, this.trains, middle, this.end).compute();
+            violations.putAll(left.join());
+            return violations;
+        }
+    }
+
+    private final TicketReservationSystemImpl system;
+    private final Set<Train> touchedTrains;
+    private final Map<Train, List<Violation>> violationsByTrain;
+    private final SystemListener listener;
+    private final ScheduledExecutorService executor;
+
+    private RotationChecker(TicketReservationSystemImpl system) {
+        this.system = system;
+        this.touchedTrains = ConcurrentHashMap.newKeySet();
+        this.violationsByTrain = new ConcurrentHashMap<>();
+        this.listener = new TouchListener();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rotation-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks all the trains of a system once.
+     * @param system The system to check.
+     * @return The report of the check.
+     */
+    public static Report checkAll(TicketReservationSystemImpl system) {
+        Train[] trains = system.findTrainsWithTrips().toArray(new Train[0]);
+        Map<Train, List<Violation>> violations = ForkJoinPool.commonPool().invoke(new CheckTask(system, trains, 0, trains.length));
+        return createReport(trains, violations);
+    }
+
+    /**
+     * Starts checking a system in the background: all its trains are checked at once, then the trains touched
+     * by changes are re-checked periodically.
+     * @param system The system to check.
+     * @param interval The time between two checks.
+     * @return The running checker, which must be closed to stop checking.
+     */
+    public static RotationChecker start(TicketReservationSystemImpl system, Duration interval) {
+        RotationChecker checker = new RotationChecker(system);
+        system.addListener(checker.listener);
+        checker.touchedTrains.addAll(system.findTrainsWithTrips());
+        checker.executor.scheduleWithFixedDelay(checker::recheck, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        return checker;
+    }
+
+    /**
+     * Re-checks the trains touched since the last check now, without waiting for the next background check.
+     * @return The report of all the trains, with the violations found by this check for the touched trains.
+     */
+    public synchronized Report recheck() {
+        Train[] trains = this.touchedTrains.toArray(new Train[0]);
+        // Trains touched while they are checked are checked again next time
+        for (Train train : trains) {
+            this.touchedTrains.remove(train);
+        }
+        this.violationsByTrain.putAll(ForkJoinPool.commonPool().invoke(new CheckTask(this.system, trains, 0, trains.length)));
+        return getReport();
+    }
+
+    /**
+     * Retrieves the violations found by the last checks of each train.
+     * @return The report of all the trains checked so far.
+     */
+    public Report getReport() {
+        return createReport(this.system.findTrainsWithTrips().toArray(new Train[0]), this.violationsByTrain);
+    }
+
+    /**
+     * Stops checking the system in the background.
+     */
+    @Override
+    public void close() {
+        this.system.removeListener(this.listener);
+        this.executor.shutdownNow();
+    }
+
+    private class TouchListener implements SystemListener {
+
+        @Override
+        public void tripCreated(Trip trip) {
+            touchedTrains.add(trip.getTrain());
+        }
+
+        @Override
+        public void tripCancelled(Trip trip) {
+            touchedTrains.add(trip.getTrain());
+        }
+
+        @Override
+        public void tripsArchived(Collection<Trip> trips) {
+            trips.forEach(trip -> touchedTrains.add(trip.getTrain()));
+        }
+
+        @Override
+        public void delaysApplied(Collection<DelayEvent> events, boolean absorbSlack) {
+            events.forEach(event -> touchedTrains.add(event.getTrip().getTrain()));
+        }
+    }
+
+    /**
+     * Checks the trips of a train, each against the previous one.
+     * Consecutive legs of a multi-stop trip only have to follow each other, as required by createMultiStopTrip.
+     */
+    private static List<Violation> checkTrain(TicketReservationSystemImpl system, Train train) {
+        List<Violation> violations = new ArrayList<>();
+        Trip previous = null;
+        for (Trip trip : system.findOrderedTripsOfTrain(train)) {
+            TripConstraint constraint;
+            if (previous != null && trip instanceof TripImpl && ((TripImpl) trip).isNextLegOf(previous)) {
+                constraint = trip.findRealDepartureTime().isBefore(previous.findRealArrivalTime())
+                        ? TripConstraint.DEPARTS_AFTER_PREVIOUS_ARRIVAL
+                        : TicketReservationSystemImpl.findBrokenConstraint(null, null, trip.getOrigin(), trip.getDestination(),
+                                trip.findRealDepartureTime(), trip.findRealArrivalTime());
+            } else {
+                constraint = TicketReservationSystemImpl.findBrokenConstraint(
+                        previous == null ? null : previous.getDestination(), previous == null ? null : previous.findRealArrivalTime(),
+                        trip.getOrigin(), trip.getDestination(), trip.findRealDepartureTime(), trip.findRealArrivalTime(), true);
+            }
+            if (constraint != null) {
+                violations.add(new Violation(previous, trip, constraint));
+            }
+            previous = trip;
+        }
+        return violations;
+    }
+
+    private static Report createReport(Train[] trains, Map<Train, List<Violation>> violationsByTrain) {
+        List<Violation> violations = new ArrayList<>();
+        int checkedTrains = 0;
+        for (Train train : trains) {
+            List<Violation> trainViolations = violationsByTrain.get(train);
+            if (trainViolations != null) {
+                violations.addAll(trainViolations);
+                checkedTrains++;
+            }
+        }
+        return new Report(checkedTrains, violations);
+    }
+}
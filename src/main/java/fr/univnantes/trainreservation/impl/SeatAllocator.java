@@ -0,0 +1,359 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.SeatClass;
+import fr.univnantes.trainreservation.SeatMap;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Assigns the seats of a trip, with a bitmap holding one bit per seat of the train, set while the seat is free.
+ * Seats are claimed by compare-and-set on the words of the bitmap, so concurrent bookings never lock.
+ *
+ * Each car has a hint: the first word of the bitmap that may hold a free seat of the car. Filling a train moves the
+ * hints forward, so full words are not scanned again, and freeing a seat moves the hint of its car back, so that
+ * freed seats are the first to be reused. Adjacent free seats are found a word at a time with bitwise operations,
+ * and a run of seats spanning two words is claimed one word after the other, rolling back if the second claim fails.
+ *
+ * The bitmap is split in pages of words, each allocated on the first claim of one of its seats, so that trains with
+ * huge capacities only take memory for the seats in use.
+ */
+class SeatAllocator {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final SeatMap seatMap;
+    private final int seats;
+    private final int words;
+    private final int[] carStarts;
+    private final AtomicReferenceArray<AtomicLongArray> pages;
+    private final AtomicIntegerArray hints;
+    private final AtomicLong rollbacks;
+
+    /**
+     * Creates an allocator whose seats are all free.
+     * @param seatMap The seats of the train.
+     */
+    SeatAllocator(SeatMap seatMap) {
+        this.seatMap = seatMap;
+        List<SeatMap.Car> cars = seatMap.getCars();
+        this.carStarts = new int[cars.size() + 1];
+        this.hints = new AtomicIntegerArray(cars.size());
+        for (int car = 0; car <= cars.size(); car++) {
+            this.carStarts[car] = seatMap.findFirstSeatOfCar(car);
+            if (car < cars.size()) {
+                this.hints.set(car, this.carStarts[car] >>> 6);
+            }
+        }
+        this.seats = seatMap.getSeatCount();
+        this.words = (int) ((this.seats + 63L) >>> 6);
+        this.pages = new AtomicReferenceArray<>((this.words + PAGE_SIZE - 1) >>> PAGE_BITS);
+        this.rollbacks = new AtomicLong();
+    }
+
+    /**
+     * Claims a free seat.
+     * @param seatClass The class of the seat, or null for a seat of any class.
+     * @return The index of the claimed seat, or -1 if no seat of this class is free.
+     */
+    int allocate(SeatClass seatClass) {
+        while (true) {
+            long rollbacks = this.rollbacks.get();
+            for (int car = 0; car < this.carStarts.length - 1; car++) {
+                if (seatClass == null || this.seatMap.getCars().get(car).getSeatClass() == seatClass) {
+                    int seat = allocateInCar(car);
+                    if (seat >= 0) {
+                        return seat;
+                    }
+                }
+            }
+            // Seats claimed by a group booking that did not fit may have been given back behind the scan
+            if (this.rollbacks.get() == rollbacks) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Claims adjacent free seats in the same car.
+     * @param seatClass The class of the seats, or null for seats of any class.
+     * @param count The amount of seats.
+     * @return The index of the first claimed seat, the others following it, or -1 if no car has enough adjacent free seats.
+     */
+    int allocateAdjacent(SeatClass seatClass, int count) {
+        for (int car = 0; car < this.carStarts.length - 1; car++) {
+            if ((seatClass == null || this.seatMap.getCars().get(car).getSeatClass() == seatClass)
+                    && this.carStarts[car + 1] - this.carStarts[car] >= count) {
+                for (int first = findRun(car, count); first >= 0; first = findRun(car, count)) {
+                    if (claimRun(first, count)) {
+                        return first;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Claims many free seats of any class at once, taking all the seats it needs from a word with a single
+     * compare-and-set. Either all the seats are claimed, or none is.
+     * @param count The amount of seats.
+     * @return The indexes of the claimed seats, in increasing order, or null if fewer seats are free.
+     */
+    int[] allocateMany(int count) {
+        int[] claimed = new int[count];
+        int claimedCount = 0;
+        for (int car = 0; car < this.carStarts.length - 1 && claimedCount < count; car++) {
+            claimedCount = claimInCar(car, claimed, claimedCount);
+        }
+        if (claimedCount < count) {
+            for (int i = 0; i < claimedCount; i++) {
+                release(claimed[i]);
+            }
+            this.rollbacks.incrementAndGet();
+            return null;
+        }
+        return claimed;
+    }
+
+    /**
+     * Frees a claimed seat.
+     * @param seat The index of the seat.
+     */
+    void release(int seat) {
+        findPage(seat >>> 6).getAndAccumulate((seat >>> 6) & (PAGE_SIZE - 1), 1L << seat, (word, bit) -> word | bit);
+        lowerHint(findCar(seat), seat >>> 6);
+    }
+
+    /**
+     * Claims a given seat (eg. when a ticket is restored).
+     * @param seat The index of the seat.
+     * @return true if the seat was free.
+     */
+    boolean occupy(int seat) {
+        long previous = findPage(seat >>> 6).getAndAccumulate((seat >>> 6) & (PAGE_SIZE - 1), ~(1L << seat),
+                (word, mask) -> word & mask);
+        return (previous & (1L << seat)) != 0;
+    }
+
+    /**
+     * Retrieves the free seats among 64 consecutive seats.
+     * @param word The position of the seats, by groups of 64.
+     * @return The bits of the free seats, set for free seats.
+     */
+    long findFreeSeats(int word) {
+        AtomicLongArray page = this.pages.get(word >>> PAGE_BITS);
+        return page == null ? findInitialFreeSeats(word) : page.get(word & (PAGE_SIZE - 1));
+    }
+
+    /**
+     * Retrieves the amount of groups of 64 seats.
+     * @return The amount of words of the bitmap.
+     */
+    int countWords() {
+        return this.words;
+    }
+
+    /**
+     * Counts the free seats, without scanning the pages that were never claimed.
+     * @return The amount of free seats.
+     */
+    int countFreeSeats() {
+        long free = 0;
+        for (int number = 0; number < this.pages.length(); number++) {
+            AtomicLongArray page = this.pages.get(number);
+            long first = (long) number << (PAGE_BITS + 6);
+            if (page == null) {
+                free += Math.min(PAGE_SIZE << 6, this.seats - first);
+            } else {
+                for (int word = 0; word < page.length(); word++) {
+                    free += Long.bitCount(page.get(word));
+                }
+            }
+        }
+        return (int) free;
+    }
+
+    private int allocateInCar(int car) {
+        int start = this.carStarts[car];
+        int end = this.carStarts[car + 1];
+        if (start == end) {
+            return -1;
+        }
+        int lastWord = (end - 1) >>> 6;
+        for (int word = Math.max(this.hints.get(car), start >>> 6); word <= lastWord; word++) {
+            long mask = findMask(word, start, end);
+            long bits = findFreeSeats(word);
+            while ((bits & mask) != 0) {
+                long bit = Long.lowestOneBit(bits & mask);
+                if (compareAndSet(word, bits, bits & ~bit)) {
+                    return (word << 6) + Long.numberOfTrailingZeros(bit);
+                }
+                bits = findFreeSeats(word);
+            }
+            if (this.hints.compareAndSet(car, word, word + 1) && (findFreeSeats(word) & mask) != 0) {
+                // A seat of the word was freed while the hint moved forward
+                lowerHint(car, word);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Claims free seats of a car until the array of claimed seats is full.
+     * @return The new amount of claimed seats.
+     */
+    private int claimInCar(int car, int[] claimed, int claimedCount) {
+        int start = this.carStarts[car];
+        int end = this.carStarts[car + 1];
+        if (start == end) {
+            return claimedCount;
+        }
+        int lastWord = (end - 1) >>> 6;
+        for (int word = Math.max(this.hints.get(car), start >>> 6); word <= lastWord && claimedCount < claimed.length; word++) {
+            long mask = findMask(word, start, end);
+            long bits;
+            long taken;
+            do {
+                bits = findFreeSeats(word);
+                taken = bits & mask;
+                // Keeps the lowest free seats of the word, as many as still needed
+                for (int extra = Long.bitCount(taken) - (claimed.length - claimedCount); extra > 0; extra--) {
+                    taken &= ~Long.highestOneBit(taken);
+                }
+            } while (taken != 0 && !compareAndSet(word, bits, bits & ~taken));
+            for (; taken != 0; taken &= taken - 1) {
+                claimed[claimedCount++] = (word << 6) + Long.numberOfTrailingZeros(taken);
+            }
+        }
+        return claimedCount;
+    }
+
+    /**
+     * Finds the first run of adjacent free seats of a car.
+     * @return The index of the first seat of the run, or -1 if there is none.
+     */
+    private int findRun(int car, int count) {
+        int start = this.carStarts[car];
+        int end = this.carStarts[car + 1];
+        int lastWord = (end - 1) >>> 6;
+        int run = 0;
+        for (int word = Math.max(this.hints.get(car), start >>> 6); word <= lastWord; word++) {
+            long bits = findFreeSeats(word) & findMask(word, start, end);
+            int lowRun = Long.numberOfTrailingZeros(~bits);
+            if (run + lowRun >= count) {
+                return (word << 6) - run;
+            }
+            if (count <= 64) {
+                long runStarts = findRunStarts(bits, count);
+                if (runStarts != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(runStarts);
+                }
+            }
+            run = bits == -1L ? run + 64 : Long.numberOfLeadingZeros(~bits);
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the bits starting a run of set bits at least as long as count, within a word.
+     */
+    private static long findRunStarts(long bits, int count) {
+        long starts = bits;
+        int covered = 1;
+        while (covered < count && starts != 0) {
+            int shift = Math.min(covered, count - covered);
+            starts &= starts >>> shift;
+            covered += shift;
+        }
+        return starts;
+    }
+
+    private boolean claimRun(int first, int count) {
+        int last = first + count - 1;
+        for (int word = first >>> 6; word <= last >>> 6; word++) {
+            long mask = findMask(word, first, last + 1);
+            long bits;
+            do {
+                bits = findFreeSeats(word);
+                if ((bits & mask) != mask) {
+                    if (word > first >>> 6) {
+                        for (int claimed = first >>> 6; claimed < word; claimed++) {
+                            long claimedMask = findMask(claimed, first, last + 1);
+                            findPage(claimed).getAndAccumulate(claimed & (PAGE_SIZE - 1), claimedMask, (w, m) -> w | m);
+                            lowerHint(findCar(first), claimed);
+                        }
+                        this.rollbacks.incrementAndGet();
+                    }
+                    return false;
+                }
+            } while (!compareAndSet(word, bits, bits & ~mask));
+        }
+        return true;
+    }
+
+    private boolean compareAndSet(int word, long expected, long bits) {
+        return findPage(word).compareAndSet(word & (PAGE_SIZE - 1), expected, bits);
+    }
+
+    /**
+     * Finds the page holding a word of the bitmap, allocating it with all its seats free if it is not yet.
+     */
+    private AtomicLongArray findPage(int word) {
+        int number = word >>> PAGE_BITS;
+        AtomicLongArray page = this.pages.get(number);
+        if (page == null) {
+            int firstWord = number << PAGE_BITS;
+            AtomicLongArray created = new AtomicLongArray(Math.min(PAGE_SIZE, this.words - firstWord));
+            for (int i = 0; i < created.length(); i++) {
+                created.set(i, findInitialFreeSeats(firstWord + i));
+            }
+            this.pages.compareAndSet(number, null, created);
+            page = this.pages.get(number);
+        }
+        return page;
+    }
+
+    /**
+     * Finds the bits of a word while all its seats are free.
+     */
+    private long findInitialFreeSeats(int word) {
+        int remaining = this.seats - (word << 6);
+        return remaining >= 64 ? -1L : (1L << remaining) - 1;
+    }
+
+    private void lowerHint(int car, int word) {
+        this.hints.accumulateAndGet(car, word, Math::min);
+    }
+
+    private int findCar(int seat) {
+        int low = 0;
+        int high = this.carStarts.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (this.carStarts[middle] <= seat) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the bits of a word that stand for the seats from start (included) to end (excluded).
+     */
+    private static long findMask(int word, int start, int end) {
+        int from = Math.max(start - (word << 6), 0);
+        int to = Math.min(end - (word << 6), 64);
+        if (from >= to) {
+            return 0;
+        }
+        long high = to == 64 ? -1L : (1L << to) - 1;
+        return high & (-1L << from);
+    }
+}
@@ -0,0 +1,103 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Seat;
+import fr.univnantes.trainreservation.SeatHold;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Trip;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hold of a seat claimed on the seat bitmap of a trip, and scheduled to expire in a timer.
+ * Confirming, releasing and expiring the hold race on a flag, so that only one of them uses the seat.
+ */
+class SeatHoldImpl extends HoldTimer.Timeout implements SeatHold {
+
+    private final TripImpl trip;
+    private final String passengerName;
+    private final int seat;
+    private final Instant expiry;
+    private final HoldTimer timer;
+    private final AtomicBoolean active;
+
+    /**
+     * Creates a hold on a seat reserved on a trip, whose expiry must then be scheduled.
+     */
+    SeatHoldImpl(TripImpl trip, String passengerName, int seat, Instant expiry, HoldTimer timer) {
+        this.trip = trip;
+        this.passengerName = passengerName;
+        this.seat = seat;
+        this.expiry = expiry;
+        this.timer = timer;
+        this.active = new AtomicBoolean(true);
+    }
+
+    /**
+     * Schedules the expiry of the hold, once it is fully constructed.
+     * @return false if the timer is closed.
+     */
+    boolean schedule() {
+        return this.timer.schedule(this, this.expiry);
+    }
+
+    @Override
+    public Trip getTrip() {
+        return this.trip;
+    }
+
+    @Override
+    public String getPassengerName() {
+        return this.passengerName;
+    }
+
+    @Override
+    public Seat getSeat() {
+        return this.trip.getTrain().getSeatMap().getSeat(this.seat);
+    }
+
+    @Override
+    public Instant getExpiry() {
+        return this.expiry;
+    }
+
+    @Override
+    public boolean isActive() {
+        return this.active.get();
+    }
+
+    @Override
+    public Ticket confirm() throws ReservationException {
+        // The timer may not have expired the hold yet
+        if (!this.timer.now().isBefore(this.expiry)) {
+            expire();
+        }
+        if (!this.active.compareAndSet(true, false)) {
+            throw new ReservationException();
+        }
+        this.timer.cancel(this);
+        List<Ticket> tickets = this.trip.addReservedTickets(List.of(this.passengerName), new int[] {this.seat});
+        if (this.trip.isClosed() && this.trip.discardTickets(tickets)) {
+            throw new ReservationException();
+        }
+        this.trip.confirmReservedTicket(tickets.get(0));
+        return tickets.get(0);
+    }
+
+    @Override
+    public void release() {
+        if (this.active.compareAndSet(true, false)) {
+            this.timer.cancel(this);
+            this.trip.releaseSeats(new int[] {this.seat});
+        }
+    }
+
+    @Override
+    void expire() {
+        if (this.active.compareAndSet(true, false)) {
+            this.trip.releaseSeats(new int[] {this.seat});
+        }
+    }
+}
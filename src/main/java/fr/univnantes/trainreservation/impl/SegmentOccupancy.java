@@ -0,0 +1,103 @@
+package fr.univnantes.trainreservation.impl;
+
+/**
+ * Occupancy of the segments of a route, ie. the amount of passengers travelling on each leg between two stops.
+ * Occupancy is kept in a segment tree, so that adding passengers to a range of segments, and finding the maximum
+ * occupancy of a range of segments, both take O(log segments) time whatever the amount of tickets.
+ * Each node holds the maximum occupancy of its range, including the additions made to the whole range,
+ * which are kept in the node instead of being pushed down to its children.
+ * Operations are serialized on the monitor of the occupancy.
+ */
+class SegmentOccupancy {
+
+    private final int segments;
+    private final int[] maximums;
+    private final int[] additions;
+
+    /**
+     * Creates the occupancy of a route.
+     * @param initial The initial occupancy of each segment.
+     */
+    SegmentOccupancy(int[] initial) {
+        this.segments = initial.length;
+        this.maximums = new int[4 * Math.max(1, initial.length)];
+        this.additions = new int[this.maximums.length];
+        if (initial.length > 0) {
+            build(1, 0, this.segments, initial);
+        }
+    }
+
+    /**
+     * Adds passengers to a range of segments, unless one of the segments would exceed a capacity.
+     * @param from The first segment (included).
+     * @param to The last segment (excluded).
+     * @param amount The amount of passengers.
+     * @param capacity The maximum amount of passengers on a segment.
+     * @return true if the passengers were added, false if they do not fit.
+     */
+    synchronized boolean tryReserve(int from, int to, int amount, int capacity) {
+        if (findMaximum(1, 0, this.segments, from, to) > capacity - amount) {
+            return false;
+        }
+        add(1, 0, this.segments, from, to, amount);
+        return true;
+    }
+
+    /**
+     * Adds passengers to a range of segments, without checking any capacity.
+     * @param from The first segment (included).
+     * @param to The last segment (excluded).
+     * @param amount The amount of passengers, negative to remove passengers.
+     */
+    synchronized void add(int from, int to, int amount) {
+        add(1, 0, this.segments, from, to, amount);
+    }
+
+    /**
+     * Finds the maximum occupancy of a range of segments.
+     * @param from The first segment (included).
+     * @param to The last segment (excluded).
+     * @return The maximum amount of passengers on one of the segments.
+     */
+    synchronized int findMaximumOccupancy(int from, int to) {
+        return findMaximum(1, 0, this.segments, from, to);
+    }
+
+    private void build(int node, int low, int high, int[] initial) {
+        if (high - low == 1) {
+            this.maximums[node] = initial[low];
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        build(2 * node, low, middle, initial);
+        build(2 * node + 1, middle, high, initial);
+        this.maximums[node] = Math.max(this.maximums[2 * node], this.maximums[2 * node + 1]);
+    }
+
+    private void add(int node, int low, int high, int from, int to, int amount) {
+        if (to <= low || high <= from) {
+            return;
+        }
+        if (from <= low && high <= to) {
+            this.additions[node] += amount;
+            this.maximums[node] += amount;
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        add(2 * node, low, middle, from, to, amount);
+        add(2 * node + 1, middle, high, from, to, amount);
+        this.maximums[node] = this.additions[node] + Math.max(this.maximums[2 * node], this.maximums[2 * node + 1]);
+    }
+
+    private int findMaximum(int node, int low, int high, int from, int to) {
+        if (to <= low || high <= from) {
+            return Integer.MIN_VALUE;
+        }
+        if (from <= low && high <= to) {
+            return this.maximums[node];
+        }
+        int middle = (low + high) >>> 1;
+        return this.additions[node] + Math.max(findMaximum(2 * node, low, middle, from, to),
+                findMaximum(2 * node + 1, middle, high, from, to));
+    }
+}
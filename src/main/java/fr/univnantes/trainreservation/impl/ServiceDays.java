@@ -0,0 +1,129 @@
+package fr.univnantes.trainreservation.impl;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Numbers the service days of a time zone: the service day of an instant is the number of days since the epoch
+ * of its date in the time zone, and a day starts at its first instant in the time zone.
+ * The starts of days are computed once with the rules of the time zone, and cached in an array covering a window
+ * of days, which grows when an instant outside of the window is converted. Converting an instant is then a lookup
+ * in the array rather than a computation with the rules of the time zone. Days are not assumed to last 24 hours,
+ * so days shortened or lengthened by daylight saving transitions are numbered correctly.
+ * Days too far away from the window (eg. centuries away) are computed with the rules of the time zone instead.
+ * Can be used by many threads at once.
+ */
+class ServiceDays {
+
+    private static final int MARGIN = 366;
+    private static final int MAXIMUM_WINDOW = 100 * 366;
+
+    /**
+     * Starts of consecutive days, in seconds since the epoch.
+     */
+    private static class Window {
+        private final long firstDay;
+        private final long[] starts;
+
+        private Window(long firstDay, long[] starts) {
+            this.firstDay = firstDay;
+            this.starts = starts;
+        }
+    }
+
+    private final ZoneId timeZone;
+    private volatile Window window;
+
+    /**
+     * Creates the service days of a time zone.
+     * @param timeZone The time zone.
+     */
+    ServiceDays(ZoneId timeZone) {
+        this.timeZone = timeZone;
+        long today = LocalDate.now(timeZone).toEpochDay();
+        this.window = createWindow(today - MARGIN, today + MARGIN);
+    }
+
+    /**
+     * Finds the service day of an instant.
+     * @param instant The instant.
+     * @return The number of the day of the instant.
+     */
+    int findDay(Instant instant) {
+        long seconds = instant.getEpochSecond();
+        Window window = this.window;
+        long[] starts = window.starts;
+        if (seconds < starts[0] || seconds >= starts[starts.length - 1]) {
+            long day = instant.atZone(this.timeZone).toLocalDate().toEpochDay();
+            window = extend(day);
+            if (window == null) {
+                return Math.toIntExact(day);
+            }
+            starts = window.starts;
+        }
+        // Days last about 86400 seconds, so the guess is at most one day off
+        int index = (int) Math.min(Math.floorDiv(seconds - starts[0], 86400L), starts.length - 2);
+        while (starts[index] > seconds) {
+            index--;
+        }
+        while (starts[index + 1] <= seconds) {
+            index++;
+        }
+        return Math.toIntExact(window.firstDay + index);
+    }
+
+    /**
+     * Finds the first instant of a service day.
+     * @param day The number of the day.
+     * @return The start of the day.
+     */
+    Instant findStart(long day) {
+        Window window = this.window;
+        if (day < window.firstDay || day >= window.firstDay + window.starts.length) {
+            window = extend(day);
+            if (window == null) {
+                return LocalDate.ofEpochDay(day).atStartOfDay(this.timeZone).toInstant();
+            }
+        }
+        return Instant.ofEpochSecond(window.starts[(int) (day - window.firstDay)]);
+    }
+
+    /**
+     * Finds the service day of a date.
+     * @param date The date.
+     * @return The number of the day.
+     */
+    static int findDay(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay());
+    }
+
+    /**
+     * Extends the window to cover a day.
+     * @return The extended window, or null if the window would grow too large.
+     */
+    private synchronized Window extend(long day) {
+        Window window = this.window;
+        long firstDay = Math.min(window.firstDay, day - MARGIN);
+        long lastDay = Math.max(window.firstDay + window.starts.length - 2, day + MARGIN);
+        if (lastDay - firstDay > MAXIMUM_WINDOW) {
+            return null;
+        }
+        if (firstDay < window.firstDay || lastDay >= window.firstDay + window.starts.length) {
+            window = createWindow(firstDay, lastDay);
+            this.window = window;
+        }
+        return window;
+    }
+
+    /**
+     * Computes the starts of the days of a window, and the start of the day that follows it.
+     */
+    private Window createWindow(long firstDay, long lastDay) {
+        long[] starts = new long[(int) (lastDay - firstDay + 2)];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = LocalDate.ofEpochDay(firstDay + i).atStartOfDay(this.timeZone).toEpochSecond();
+        }
+        return new Window(firstDay, starts);
+    }
+}
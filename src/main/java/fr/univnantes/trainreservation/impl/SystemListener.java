@@ -0,0 +1,119 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.DelayEvent;
+import fr.univnantes.trainreservation.MultiStopTrip;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Notified of every change made to a system, in the order in which the changes were made for each train.
+ * Listeners are called by the thread making the change, while it holds the lock of the train for trip changes,
+ * so they must be fast, and must not call the system back. Slower work, such as waiting for the changes to be on disk,
+ * belongs in changesCompleted, called once the locks are released.
+ * All methods do nothing by default.
+ */
+interface SystemListener {
+
+    /**
+     * Called when a city has been added to the system.
+     * @param city The added city.
+     */
+    default void cityAdded(City city) {
+    }
+
+    /**
+     * Called when a train has been added to the system.
+     * @param train The added train.
+     */
+    default void trainAdded(Train train) {
+    }
+
+    /**
+     * Called when a trip has been created.
+     * @param trip The created trip.
+     */
+    default void tripCreated(Trip trip) {
+    }
+
+    /**
+     * Called when trips of a train have been created in bulk, eg. by a timetable import.
+     * By default, notifies the creation of each trip.
+     * @param trips The created trips, all of the same train, in time order.
+     */
+    default void tripsCreated(List<Trip> trips) {
+        trips.forEach(this::tripCreated);
+    }
+
+    /**
+     * Called when a multi-stop trip has been created, after the creation of each of its legs.
+     * @param trip The created multi-stop trip.
+     */
+    default void multiStopTripCreated(MultiStopTrip trip) {
+    }
+
+    /**
+     * Called when a trip has been cancelled.
+     * @param trip The cancelled trip.
+     */
+    default void tripCancelled(Trip trip) {
+    }
+
+    /**
+     * Called when trips of a train have been moved to the archive of the system, with their tickets.
+     * @param trips The archived trips, all of the same train.
+     */
+    default void tripsArchived(Collection<Trip> trips) {
+    }
+
+    /**
+     * Called when delays have been applied to trips of a train.
+     * @param events The delay events, all concerning the same train.
+     * @param absorbSlack Whether the time between two trips absorbed the delays.
+     */
+    default void delaysApplied(Collection<DelayEvent> events, boolean absorbSlack) {
+    }
+
+    /**
+     * Called after delaysApplied with the trips whose delays changed, including the trips delayed by propagation.
+     * @param trips The delayed trips, all of the same train.
+     */
+    default void tripsDelayed(List<Trip> trips) {
+    }
+
+    /**
+     * Called when a ticket has been booked on a trip of the system.
+     * @param ticket The booked ticket.
+     */
+    default void ticketBooked(Ticket ticket) {
+    }
+
+    /**
+     * Called when a booked ticket has been cancelled, either alone or with its trip.
+     * @param ticket The cancelled ticket.
+     */
+    default void ticketCancelled(Ticket ticket) {
+    }
+
+    /**
+     * Called when a ticket has been exchanged for a ticket of another trip, which happens as one change.
+     * By default, notifies the cancellation of the old ticket, then the booking of the new ticket.
+     * @param oldTicket The exchanged ticket, now cancelled.
+     * @param newTicket The new ticket.
+     */
+    default void ticketExchanged(Ticket oldTicket, Ticket newTicket) {
+        ticketCancelled(oldTicket);
+        ticketBooked(newTicket);
+    }
+
+    /**
+     * Called by the thread that made changes once it released the locks of the system, before the method making
+     * them returns. Changes made by one method, such as a trip and its tickets cancelled together, are completed once.
+     */
+    default void changesCompleted() {
+    }
+}
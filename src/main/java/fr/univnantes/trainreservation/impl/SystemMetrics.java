@@ -0,0 +1,334 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.DelayEvent;
+import fr.univnantes.trainreservation.MultiStopTrip;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a system: counters of changes and rejections, latency histograms of bookings and queries,
+ * a histogram of the amount of trips delayed by each propagation of delays, and load factors of trips and trains.
+ * Counters are striped (LongAdder) and histograms are arrays of atomic counters, so recording never allocates
+ * and threads recording at once rarely contend. Load factors are computed when they are read.
+ *
+ * Metrics are disabled by default: the system then only checks that it has no metrics before timing an operation.
+ * Enabled metrics can be exported as an MBean, whose attributes are described by {@link SystemMetricsMBean}.
+ */
+public class SystemMetrics implements SystemMetricsMBean, Closeable {
+
+    private static final String DOMAIN = "fr.univnantes.trainreservation";
+
+    private final TicketReservationSystemImpl system;
+    private final SystemListener listener;
+    private final LongAdder ticketsBooked;
+    private final LongAdder ticketsCancelled;
+    private final LongAdder ticketsExchanged;
+    private final LongAdder bookingsRejected;
+    private final LongAdder tripsCreated;
+    private final LongAdder tripsRejected;
+    private final LongAdder tripsCancelled;
+    private final LongAdder tripsArchived;
+    private final LongAdder delayEvents;
+    private final Histogram bookingLatency;
+    private final Histogram queryLatency;
+    private final Histogram journeyLatency;
+    private final Histogram delayPropagation;
+    private volatile ObjectName objectName;
+
+    private SystemMetrics(TicketReservationSystemImpl system) {
+        this.system = system;
+        this.listener = new CountingListener();
+        this.ticketsBooked = new LongAdder();
+        this.ticketsCancelled = new LongAdder();
+        this.ticketsExchanged = new LongAdder();
+        this.bookingsRejected = new LongAdder();
+        this.tripsCreated = new LongAdder();
+        this.tripsRejected = new LongAdder();
+        this.tripsCancelled = new LongAdder();
+        this.tripsArchived = new LongAdder();
+        this.delayEvents = new LongAdder();
+        this.bookingLatency = new Histogram();
+        this.queryLatency = new Histogram();
+        this.journeyLatency = new Histogram();
+        this.delayPropagation = new Histogram();
+    }
+
+    /**
+     * Enables the metrics of a system, replacing its current metrics if any.
+     * @param system The system to measure.
+     * @return The metrics, which must be closed to disable them.
+     */
+    public static SystemMetrics enable(TicketReservationSystemImpl system) {
+        SystemMetrics metrics = new SystemMetrics(system);
+        SystemMetrics previous = system.getMetrics();
+        if (previous != null) {
+            previous.close();
+        }
+        system.addListener(metrics.listener);
+        system.setMetrics(metrics);
+        return metrics;
+    }
+
+    /**
+     * Exports the metrics as an MBean of the platform MBean server.
+     * @param name The name of the MBean, distinguishing systems of the same application.
+     * @return The name under which the MBean is registered.
+     * @throws JMException If the MBean cannot be registered, eg. because the name is taken.
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=SystemMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Disables the metrics, and unregisters their MBean if any. The recorded values can still be read.
+     */
+    @Override
+    public synchronized void close() {
+        this.system.removeListener(this.listener);
+        if (this.system.getMetrics() == this) {
+            this.system.setMetrics(null);
+        }
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException e) {
+                // Already unregistered
+            }
+            this.objectName = null;
+        }
+    }
+
+    /**
+     * Computes the load factor of a trip: the part of the seats of its train that are booked or held.
+     * @param trip The trip.
+     * @return The load factor, between 0 and 1.
+     */
+    public double getLoadFactor(Trip trip) {
+        if (trip instanceof TripImpl) {
+            return ((TripImpl) trip).findLoadFactor();
+        }
+        int seats = trip.getTrain().getMaxPassengers();
+        return seats == 0 ? 0 : (double) trip.getBookedTickets().size() / seats;
+    }
+
+    /**
+     * Computes the load factor of a train: the average load factor of its non-cancelled trips.
+     * @param train The train.
+     * @return The load factor, between 0 and 1, or 0 if the train has no trip.
+     */
+    public double getLoadFactor(Train train) {
+        return this.system.streamOrderedTripsOfTrain(train).mapToDouble(this::getLoadFactor).average().orElse(0);
+    }
+
+    @Override
+    public long getTicketsBooked() {
+        return this.ticketsBooked.sum();
+    }
+
+    @Override
+    public long getTicketsCancelled() {
+        return this.ticketsCancelled.sum();
+    }
+
+    @Override
+    public long getTicketsExchanged() {
+        return this.ticketsExchanged.sum();
+    }
+
+    @Override
+    public long getBookingsRejected() {
+        return this.bookingsRejected.sum();
+    }
+
+    @Override
+    public long getTripsCreated() {
+        return this.tripsCreated.sum();
+    }
+
+    @Override
+    public long getTripsRejected() {
+        return this.tripsRejected.sum();
+    }
+
+    @Override
+    public long getTripsCancelled() {
+        return this.tripsCancelled.sum();
+    }
+
+    @Override
+    public long getTripsArchived() {
+        return this.tripsArchived.sum();
+    }
+
+    @Override
+    public long getDelayEvents() {
+        return this.delayEvents.sum();
+    }
+
+    @Override
+    public long getBookingLatencyMedian() {
+        return this.bookingLatency.percentile(50);
+    }
+
+    @Override
+    public long getBookingLatency99() {
+        return this.bookingLatency.percentile(99);
+    }
+
+    @Override
+    public long getBookingLatencyMax() {
+        return this.bookingLatency.max();
+    }
+
+    @Override
+    public long getQueryLatencyMedian() {
+        return this.queryLatency.percentile(50);
+    }
+
+    @Override
+    public long getQueryLatency99() {
+        return this.queryLatency.percentile(99);
+    }
+
+    @Override
+    public long getQueryLatencyMax() {
+        return this.queryLatency.max();
+    }
+
+    @Override
+    public long getJourneyLatencyMedian() {
+        return this.journeyLatency.percentile(50);
+    }
+
+    @Override
+    public long getJourneyLatency99() {
+        return this.journeyLatency.percentile(99);
+    }
+
+    @Override
+    public long getJourneyLatencyMax() {
+        return this.journeyLatency.max();
+    }
+
+    @Override
+    public long getDelayPropagation99() {
+        return this.delayPropagation.percentile(99);
+    }
+
+    @Override
+    public long getDelayPropagationMax() {
+        return this.delayPropagation.max();
+    }
+
+    @Override
+    public double getAverageLoadFactor() {
+        return this.system.streamAllTrips().mapToDouble(this::getLoadFactor).average().orElse(0);
+    }
+
+    @Override
+    public long getFullTrips() {
+        return this.system.streamAllTrips().filter(trip -> getLoadFactor(trip) >= 1).count();
+    }
+
+    /**
+     * Records the latency of a booking (of one ticket or of a group).
+     */
+    void recordBooking(long nanos) {
+        this.bookingLatency.record(nanos);
+    }
+
+    /**
+     * Counts a booking (or hold) rejected with a ReservationException.
+     */
+    void recordRejectedBooking() {
+        this.bookingsRejected.increment();
+    }
+
+    /**
+     * Counts a trip creation rejected with a TripException.
+     */
+    void recordRejectedTrip() {
+        this.tripsRejected.increment();
+    }
+
+    /**
+     * Records the latency of a query for trips or exchanges.
+     */
+    void recordQuery(long nanos) {
+        this.queryLatency.record(nanos);
+    }
+
+    /**
+     * Records the latency of a journey search.
+     */
+    void recordJourney(long nanos) {
+        this.journeyLatency.record(nanos);
+    }
+
+    /**
+     * Records the amount of trips delayed by one propagation of delays along a train.
+     */
+    void recordDelayPropagation(int delayedTrips) {
+        this.delayPropagation.record(delayedTrips);
+    }
+
+    private class CountingListener implements SystemListener {
+
+        @Override
+        public void tripCreated(Trip trip) {
+            tripsCreated.increment();
+        }
+
+        @Override
+        public void tripsCreated(List<Trip> trips) {
+            tripsCreated.add(trips.size());
+        }
+
+        @Override
+        public void multiStopTripCreated(MultiStopTrip trip) {
+            // Its legs are counted as trips
+        }
+
+        @Override
+        public void tripCancelled(Trip trip) {
+            tripsCancelled.increment();
+        }
+
+        @Override
+        public void tripsArchived(Collection<Trip> trips) {
+            tripsArchived.add(trips.size());
+        }
+
+        @Override
+        public void delaysApplied(Collection<DelayEvent> events, boolean absorbSlack) {
+            delayEvents.add(events.size());
+        }
+
+        @Override
+        public void ticketBooked(Ticket ticket) {
+            ticketsBooked.increment();
+        }
+
+        @Override
+        public void ticketCancelled(Ticket ticket) {
+            ticketsCancelled.increment();
+        }
+
+        @Override
+        public void ticketExchanged(Ticket oldTicket, Ticket newTicket) {
+            ticketsExchanged.increment();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package fr.univnantes.trainreservation.impl;
+
+/**
+ * Attributes of the metrics of a system, as exported through JMX (see {@link SystemMetrics}).
+ * Counters count events since the metrics were enabled, and latencies are in nanoseconds.
+ */
+public interface SystemMetricsMBean {
+
+    long getTicketsBooked();
+
+    long getTicketsCancelled();
+
+    long getTicketsExchanged();
+
+    long getBookingsRejected();
+
+    long getTripsCreated();
+
+    long getTripsRejected();
+
+    long getTripsCancelled();
+
+    long getTripsArchived();
+
+    long getDelayEvents();
+
+    long getBookingLatencyMedian();
+
+    long getBookingLatency99();
+
+    long getBookingLatencyMax();
+
+    long getQueryLatencyMedian();
+
+    long getQueryLatency99();
+
+    long getQueryLatencyMax();
+
+    long getJourneyLatencyMedian();
+
+    long getJourneyLatency99();
+
+    long getJourneyLatencyMax();
+
+    long getDelayPropagation99();
+
+    long getDelayPropagationMax();
+
+    double getAverageLoadFactor();
+
+    long getFullTrips();
+}
@@ -0,0 +1,422 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.ArchivedTrip;
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.MultiStopTrip;
+import fr.univnantes.trainreservation.Seat;
+import fr.univnantes.trainreservation.SeatClass;
+import fr.univnantes.trainreservation.SeatMap;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Saves and loads the whole state of a system in a compact binary snapshot.
+ * Cities, trains and passenger names are written once in tables, and referenced by their integer id everywhere else.
+ * Objects are written in the order of their {@link ObjectIds}, so a loaded system numbers its objects like the saved one.
+ * Snapshots are loaded through a memory-mapped file.
+ *
+ * The format is, with all numbers big-endian:
+ * - header: magic number, format version, journal epoch (see {@link Journal}), time zone id
+ * - cities: count, count of cities registered in the system, names
+ * - trains: count, count of trains registered in the system, then for each train its name and its cars
+ *   (count, then the class and amount of seats of each car)
+ * - passenger names: count, names
+ * - trips: count, count of non-cancelled trips, then for each trip its origin, destination, train, planned times,
+ *   delays, and the passenger names and seats of its booked and cancelled tickets
+ * - multi-stop trips: count, then for each multi-stop trip the count and positions of its legs among the trips
+ * - archived trips: count, then for each trip its origin, destination, train, planned times, delays, whether it was
+ *   cancelled, the passenger names and seats of its booked tickets, and the passenger names of its cancelled tickets
+ * Strings are written as their length followed by their UTF-8 bytes.
+ */
+public class SystemSnapshot {
+
+    private static final int MAGIC = 0x54525353;
+    private static final int VERSION = 5;
+
+    /**
+     * Saves the state of a system in a snapshot file, replacing it atomically if it already exists.
+     * The snapshot is consistent if the system does not change while it is saved.
+     * @param system The system to save.
+     * @param path The snapshot file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(TicketReservationSystemImpl system, Path path) throws IOException {
+        save(system, path, 0);
+    }
+
+    /**
+     * Saves the state of a system in a snapshot file, tagged with the epoch of the journal that continues it.
+     * The system may change meanwhile: each change is either in the snapshot or notified after it is read.
+     * @return The ids of the saved objects.
+     */
+    static ObjectIds save(TicketReservationSystemImpl system, Path path, long journalEpoch) throws IOException {
+        Contents contents = new Contents(system);
+        ObjectIds ids = ObjectIds.of(contents);
+        List<Trip> allTrips = contents.getTrips();
+        List<City> cities = ids.cities.list();
+        List<Train> trains = ids.trains.list();
+        Map<String, Integer> nameIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (Trip trip : allTrips) {
+            for (Ticket ticket : contents.bookedTickets.get(trip)) {
+                intern(ticket.getPassengerName(), nameIds, names);
+            }
+            for (Ticket ticket : contents.cancelledTickets.get(trip)) {
+                intern(ticket.getPassengerName(), nameIds, names);
+            }
+        }
+        List<ArchivedTrip> archivedTrips = contents.archivedTrips;
+        for (ArchivedTrip trip : archivedTrips) {
+            trip.getBookedPassengers().forEach(name -> intern(name, nameIds, names));
+            trip.getCancelledPassengers().forEach(name -> intern(name, nameIds, names));
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalEpoch);
+            writeString(out, system.getTimeZone().getId());
+
+            out.writeInt(cities.size());
+            out.writeInt(contents.cities.size());
+            for (City city : cities) {
+                writeString(out, city.getName());
+            }
+            out.writeInt(trains.size());
+            out.writeInt(contents.trains.size());
+            for (Train train : trains) {
+                writeString(out, train.getName());
+                writeSeatMap(out, train.getSeatMap());
+            }
+            out.writeInt(names.size());
+            for (String name : names) {
+                writeString(out, name);
+            }
+
+            out.writeInt(allTrips.size());
+            out.writeInt(contents.activeTrips.size());
+            for (Trip trip : allTrips) {
+                out.writeInt((int) ids.cities.find(trip.getOrigin()));
+                out.writeInt((int) ids.cities.find(trip.getDestination()));
+                out.writeInt((int) ids.trains.find(trip.getTrain()));
+                writeInstant(out, trip.getPlannedDepartureTime());
+                writeInstant(out, trip.getPlannedArrivalTime());
+                writeDuration(out, trip.getDepartureDelay());
+                writeDuration(out, trip.getArrivalDelay());
+                writeTickets(out, contents.bookedTickets.get(trip), nameIds);
+                writeTickets(out, contents.cancelledTickets.get(trip), nameIds);
+            }
+
+            List<MultiStopTrip> multiStopTrips = contents.multiStopTrips;
+            out.writeInt(multiStopTrips.size());
+            for (MultiStopTrip multiStopTrip : multiStopTrips) {
+                out.writeInt(multiStopTrip.getLegs().size());
+                for (Trip leg : multiStopTrip.getLegs()) {
+                    out.writeInt((int) ids.trips.find(leg));
+                }
+            }
+
+            out.writeInt(archivedTrips.size());
+            for (ArchivedTrip trip : archivedTrips) {
+                out.writeInt((int) ids.cities.find(trip.getOrigin()));
+                out.writeInt((int) ids.cities.find(trip.getDestination()));
+                out.writeInt((int) ids.trains.find(trip.getTrain()));
+                writeInstant(out, trip.getPlannedDepartureTime());
+                writeInstant(out, trip.getPlannedArrivalTime());
+                writeDuration(out, trip.getDepartureDelay());
+                writeDuration(out, trip.getArrivalDelay());
+                out.writeBoolean(trip.isCancelled());
+                List<String> bookedPassengers = trip.getBookedPassengers();
+                List<Seat> bookedSeats = trip.getBookedSeats();
+                out.writeInt(bookedPassengers.size());
+                for (int i = 0; i < bookedPassengers.size(); i++) {
+                    out.writeInt(nameIds.get(bookedPassengers.get(i)));
+                    out.writeInt(bookedSeats.get(i).getIndex());
+                }
+                List<String> cancelledPassengers = trip.getCancelledPassengers();
+                out.writeInt(cancelledPassengers.size());
+                for (String passenger : cancelledPassengers) {
+                    out.writeInt(nameIds.get(passenger));
+                }
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return ids;
+    }
+
+    /**
+     * Objects of a system to save, each collection of the system being read only once, so that the snapshot is
+     * consistent with its ids even if the system changes meanwhile.
+     */
+    static final class Contents {
+
+        final List<City> cities;
+        final List<Train> trains;
+        final List<Trip> activeTrips;
+        final List<Trip> cancelledTrips;
+        final Map<Trip, List<Ticket>> bookedTickets;
+        final Map<Trip, List<Ticket>> cancelledTickets;
+        final List<MultiStopTrip> multiStopTrips;
+        final List<ArchivedTrip> archivedTrips;
+
+        /**
+         * Reads the objects of a system.
+         * @param system The system, which may be changed by other threads meanwhile.
+         */
+        Contents(TicketReservationSystemImpl system) {
+            this.cities = system.getCities().stream().distinct().collect(Collectors.toList());
+            this.trains = system.getAllTrains().stream().distinct().collect(Collectors.toList());
+            this.activeTrips = new ArrayList<>(system.getAllTrips());
+            Set<Trip> active = new HashSet<>(this.activeTrips);
+            // A trip cancelled meanwhile is in both lists: it is kept as it was first read
+            this.cancelledTrips = system.getAllCancelledTrips().stream()
+                    .filter(trip -> !active.contains(trip))
+                    .collect(Collectors.toList());
+            this.bookedTickets = new HashMap<>();
+            this.cancelledTickets = new HashMap<>();
+            for (Trip trip : getTrips()) {
+                this.bookedTickets.put(trip, trip.getBookedTickets());
+                this.cancelledTickets.put(trip, trip.getCancelledTickets());
+            }
+            this.archivedTrips = system.getArchive().streamTrips().collect(Collectors.toList());
+            // A trip archived meanwhile is already in the archive, since trips leave the system once archived
+            this.activeTrips.removeIf(trip -> !system.contains(trip));
+            this.cancelledTrips.removeIf(trip -> !system.contains(trip));
+            Set<Trip> trips = new HashSet<>(getTrips());
+            this.multiStopTrips = system.getAllMultiStopTrips().stream()
+                    .filter(trip -> trips.containsAll(trip.getLegs()))
+                    .collect(Collectors.toList());
+        }
+
+        /**
+         * Lists the trips of the system, the non-cancelled ones first.
+         */
+        List<Trip> getTrips() {
+            List<Trip> trips = new ArrayList<>(this.activeTrips);
+            trips.addAll(this.cancelledTrips);
+            return trips;
+        }
+    }
+
+    /**
+     * Loads a system from a snapshot file.
+     * @param path The snapshot file.
+     * @return A new system, in the state it was when saved.
+     * @throws IOException If the file cannot be read, or is not a snapshot.
+     */
+    public static TicketReservationSystemImpl load(Path path) throws IOException {
+        return load(path, false);
+    }
+
+    /**
+     * Loads a system from a snapshot file.
+     * @param path The snapshot file.
+     * @param compactTickets Whether the loaded system should keep its tickets compact.
+     * @return A new system, in the state it was when saved.
+     * @throws IOException If the file cannot be read, or is not a snapshot.
+     */
+    public static TicketReservationSystemImpl load(Path path, boolean compactTickets) throws IOException {
+        MappedByteBuffer in = map(path);
+        readJournalEpoch(in, path);
+        TicketReservationSystemImpl system = new TicketReservationSystemImpl(ZoneId.of(readString(in)), compactTickets);
+
+        City[] cities = new City[in.getInt()];
+        int registeredCities = in.getInt();
+        for (int i = 0; i < cities.length; i++) {
+            cities[i] = new CityImpl(readString(in));
+            if (i < registeredCities) {
+                system.addCity(cities[i]);
+            }
+        }
+        Train[] trains = new Train[in.getInt()];
+        int registeredTrains = in.getInt();
+        for (int i = 0; i < trains.length; i++) {
+            trains[i] = new TrainImpl(readString(in), readSeatMap(in));
+            if (i < registeredTrains) {
+                system.addTrain(trains[i]);
+            }
+        }
+        String[] names = new String[in.getInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString(in);
+        }
+
+        TripImpl[] trips = new TripImpl[in.getInt()];
+        int activeTrips = in.getInt();
+        for (int i = 0; i < trips.length; i++) {
+            City origin = cities[in.getInt()];
+            City destination = cities[in.getInt()];
+            Train train = trains[in.getInt()];
+            Instant departure = readInstant(in);
+            Instant arrival = readInstant(in);
+            boolean cancelled = i >= activeTrips;
+            TripImpl trip = cancelled
+                    ? system.restoreCancelledTrip(origin, destination, train, departure, arrival)
+                    : system.restoreTrip(origin, destination, train, departure, arrival);
+            trip.addDepartureDelay(readDuration(in));
+            trip.addArrivalDelay(readDuration(in));
+            int bookedCount = in.getInt();
+            for (int t = 0; t < bookedCount; t++) {
+                trip.restoreTicket(names[in.getInt()], false, in.getInt());
+            }
+            int cancelledCount = in.getInt();
+            for (int t = 0; t < cancelledCount; t++) {
+                trip.restoreTicket(names[in.getInt()], true, in.getInt());
+            }
+            if (cancelled) {
+                trip.cancel();
+            }
+            trips[i] = trip;
+        }
+
+        int multiStopTripCount = in.getInt();
+        for (int i = 0; i < multiStopTripCount; i++) {
+            List<TripImpl> legs = new ArrayList<>();
+            int legCount = in.getInt();
+            for (int leg = 0; leg < legCount; leg++) {
+                legs.add(trips[in.getInt()]);
+            }
+            system.restoreMultiStopTrip(legs);
+        }
+
+        int archivedTripCount = in.getInt();
+        for (int i = 0; i < archivedTripCount; i++) {
+            City origin = cities[in.getInt()];
+            City destination = cities[in.getInt()];
+            Train train = trains[in.getInt()];
+            Instant departure = readInstant(in);
+            Instant arrival = readInstant(in);
+            Duration departureDelay = readDuration(in);
+            Duration arrivalDelay = readDuration(in);
+            boolean cancelled = in.get() != 0;
+            int bookedCount = in.getInt();
+            List<String> bookedPassengers = new ArrayList<>(bookedCount);
+            int[] bookedSeats = new int[bookedCount];
+            for (int t = 0; t < bookedCount; t++) {
+                bookedPassengers.add(names[in.getInt()]);
+                bookedSeats[t] = in.getInt();
+            }
+            int cancelledCount = in.getInt();
+            List<String> cancelledPassengers = new ArrayList<>(cancelledCount);
+            for (int t = 0; t < cancelledCount; t++) {
+                cancelledPassengers.add(names[in.getInt()]);
+            }
+            system.restoreArchivedTrip(origin, destination, train, departure, arrival, departureDelay, arrivalDelay,
+                    cancelled, bookedPassengers, bookedSeats, cancelledPassengers);
+        }
+        return system;
+    }
+
+    /**
+     * Reads the epoch of the journal that continues a snapshot.
+     * @return The journal epoch, 0 if the snapshot is not continued by a journal.
+     */
+    static long readJournalEpoch(Path path) throws IOException {
+        return readJournalEpoch(map(path), path);
+    }
+
+    /**
+     * Maps a whole file in memory.
+     */
+    static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to be mapped: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static long readJournalEpoch(ByteBuffer in, Path path) throws IOException {
+        if (in.remaining() < 16 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a supported snapshot: " + path);
+        }
+        return in.getLong();
+    }
+
+    private static void intern(String value, Map<String, Integer> ids, List<String> values) {
+        if (!ids.containsKey(value)) {
+            ids.put(value, values.size());
+            values.add(value);
+        }
+    }
+
+    private static void writeTickets(DataOutputStream out, List<Ticket> tickets, Map<String, Integer> nameIds) throws IOException {
+        out.writeInt(tickets.size());
+        for (Ticket ticket : tickets) {
+            out.writeInt(nameIds.get(ticket.getPassengerName()));
+            out.writeInt(ticket.getSeat().getIndex());
+        }
+    }
+
+    static void writeSeatMap(DataOutputStream out, SeatMap seatMap) throws IOException {
+        out.writeInt(seatMap.getCars().size());
+        for (SeatMap.Car car : seatMap.getCars()) {
+            out.writeByte(car.getSeatClass().ordinal());
+            out.writeInt(car.getSeats());
+        }
+    }
+
+    static SeatMap readSeatMap(ByteBuffer in) {
+        List<SeatMap.Car> cars = new ArrayList<>();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            cars.add(new SeatMap.Car(SeatClass.values()[in.get()], in.getInt()));
+        }
+        return new SeatMap(cars);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+    }
+
+    static Instant readInstant(ByteBuffer in) {
+        return Instant.ofEpochSecond(in.getLong(), in.getInt());
+    }
+
+    static void writeDuration(DataOutputStream out, Duration duration) throws IOException {
+        out.writeLong(duration.getSeconds());
+        out.writeInt(duration.getNano());
+    }
+
+    static Duration readDuration(ByteBuffer in) {
+        return Duration.ofSeconds(in.getLong(), in.getInt());
+    }
+}
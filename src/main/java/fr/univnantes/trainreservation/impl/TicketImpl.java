@@ -1,19 +1,32 @@
 package fr.univnantes.trainreservation.impl;
 
 import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Seat;
+import fr.univnantes.trainreservation.SeatClass;
 import fr.univnantes.trainreservation.Ticket;
 import fr.univnantes.trainreservation.Trip;
 
+import java.util.List;
+
 public class TicketImpl implements Ticket {
 
-    private boolean cancelled;
+    private volatile boolean cancelled;
     private String passengerName;
     private Trip trip;
+    private Seat seat;
 
     public TicketImpl(String passengerName, Trip trip) {
+        this(passengerName, trip, null);
+    }
+
+    /**
+     * Creates a ticket assigned a seat of the train of its trip.
+     */
+    public TicketImpl(String passengerName, Trip trip, Seat seat) {
         this.cancelled = false;
         this.passengerName = passengerName;
         this.trip = trip;
+        this.seat = seat;
     }
 
 
@@ -32,6 +45,11 @@ public class TicketImpl implements Ticket {
         return this.trip;
     }
 
+    @Override
+    public Seat getSeat() {
+        return this.seat;
+    }
+
     @Override
     public void cancel() {
         this.cancelled = true;
@@ -39,14 +57,48 @@ public class TicketImpl implements Ticket {
 
     @Override
     public Ticket exchangeTicket(Trip trip) throws ReservationException {
-        if (this.getTrip().getOrigin() != trip.getOrigin()
-                || this.getTrip().getDestination() != trip.getDestination()
-                || this.getTrip().isCancelled()
-                || this.getTrip().getPlannedDepartureTime().isBefore(trip.getPlannedDepartureTime())
+        return exchange(this, trip);
+    }
+
+    /**
+     * Exchanges a ticket for a new ticket for a different trip, as specified by {@link Ticket#exchangeTicket(Trip)}.
+     * Between trips of a system, the exchange takes no lock: a seat is first claimed on the new trip, then the ticket
+     * is released from its trip, which only one exchange or cancellation of the ticket can do. The exchange that loses
+     * gives its new seat back, so a ticket is exchanged at most once and the new trip is never overbooked.
+     * @param ticket The ticket to exchange.
+     * @param trip The trip for the new ticket.
+     * @return The new ticket.
+     * @throws ReservationException If the trip does not satisfy the constraints, or if it is full.
+     */
+    static Ticket exchange(Ticket ticket, Trip trip) throws ReservationException {
+        if (ticket.getTrip().getOrigin() != trip.getOrigin()
+                || ticket.getTrip().getDestination() != trip.getDestination()
+                || trip.isCancelled()
+                || ticket.isCancelled()
+                || !trip.getPlannedDepartureTime().isAfter(ticket.getTrip().getPlannedDepartureTime())
         ) {
             throw new ReservationException();
         }
-        this.cancel();
-        return new TicketImpl(this.getPassengerName(), trip);
+        SeatClass seatClass = ticket.getSeat() == null ? null : ticket.getSeat().getSeatClass();
+        if (!(ticket.getTrip() instanceof TripImpl) || !(trip instanceof TripImpl)) {
+            Ticket newTicket = trip.bookTicket(ticket.getPassengerName(), seatClass);
+            ticket.getTrip().cancelTicket(ticket);
+            return newTicket;
+        }
+        TripImpl source = (TripImpl) ticket.getTrip();
+        TripImpl target = (TripImpl) trip;
+        int seat = target.reserveSeat(seatClass);
+        List<Ticket> newTicket = target.addReservedTickets(List.of(ticket.getPassengerName()), new int[] {seat});
+        if (target.isClosed()) {
+            // Unless it is discarded, the new ticket was already released by cancel(): the exchange fails either way
+            target.discardTickets(newTicket);
+            throw new ReservationException();
+        }
+        if (!source.releaseExchangedTicket(ticket)) {
+            target.discardTickets(newTicket);
+            throw new ReservationException();
+        }
+        target.confirmExchangedTicket(ticket, newTicket.get(0));
+        return newTicket.get(0);
     }
 }
@@ -2,61 +2,199 @@ package fr.univnantes.trainreservation.impl;
 
 import fr.univnantes.trainreservation.*;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class TicketReservationSystemImpl implements TicketReservationSystem {
+/**
+ * Ticket reservation system that can be used by many threads at once.
+ * Queries never block. Changes to the trips of a train (creation, cancellation, delays) are serialized
+ * by locking the timeline of that train only, so changes to different trains run in parallel.
+ * Tickets are booked and cancelled on the trips themselves, without any lock.
+ */
+public class TicketReservationSystemImpl implements TicketReservationSystem, AutoCloseable {
 
-    private List<Trip> trips;
-    private List<Trip> cancelledTrips;
+    private static final Duration MINIMUM_TURNAROUND = Duration.ofMinutes(10);
+
+    private Set<Trip> trips;
+    private Set<Trip> cancelledTrips;
     private List<City> cities;
     private List<Train> trains;
     private ZoneId timeZone;
+    private TripIndex tripIndex;
+    private Map<Train, TrainTimeline> timelines;
+    private DelayPropagator delayPropagator;
+    private TicketStore ticketStore;
+    private TripListener tripListener;
+    private JourneyPlanner journeyPlanner;
+    private List<SystemListener> listeners;
+    private List<MultiStopTrip> multiStopTrips;
+    private CompactTripArchive archive;
+    private HoldTimer holdTimer;
+    private volatile SystemMetrics metrics;
 
     /**
-     * TODO
+     * Creates an empty system, keeping one object per ticket.
      *
-     * @param timeZone
+     * @param timeZone The time zone used to compute the service days of trips.
      */
     public TicketReservationSystemImpl(ZoneId timeZone) {
-        this.trips = new ArrayList<>();
-        this.cancelledTrips = new ArrayList<>();
-        this.cities = new ArrayList<>();
-        this.trains = new ArrayList<>();
+        this(timeZone, false);
+    }
+
+    /**
+     * Creates an empty system.
+     * Compact tickets are kept in columns of primitive values instead of objects, which takes an order of magnitude
+     * less memory for many millions of tickets; their Ticket objects are views created whenever tickets are read.
+     *
+     * @param timeZone The time zone used to compute the service days of trips.
+     * @param compactTickets Whether tickets should be kept compact.
+     */
+    public TicketReservationSystemImpl(ZoneId timeZone, boolean compactTickets) {
+        this(timeZone, compactTickets, Clock.systemUTC());
+    }
+
+    /**
+     * Creates an empty system whose seat holds expire with a given clock (eg. a clock controlled by tests).
+     *
+     * @param timeZone The time zone used to compute the service days of trips.
+     * @param compactTickets Whether tickets should be kept compact.
+     * @param clock The clock giving the time at which seat holds expire.
+     */
+    public TicketReservationSystemImpl(ZoneId timeZone, boolean compactTickets, Clock clock) {
+        this.trips = new ConcurrentLinkedSet<>();
+        this.cancelledTrips = new ConcurrentLinkedSet<>();
+        this.cities = new CopyOnWriteArrayList<>();
+        this.trains = new CopyOnWriteArrayList<>();
         this.timeZone = timeZone;
+        this.tripIndex = new TripIndex(timeZone);
+        this.timelines = new ConcurrentHashMap<>();
+        this.delayPropagator = new DelayPropagator(MINIMUM_TURNAROUND);
+        this.ticketStore = compactTickets ? new CompactTicketStore() : new ObjectTicketStore();
+        this.journeyPlanner = new JourneyPlanner(this.timelines);
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.multiStopTrips = new CopyOnWriteArrayList<>();
+        this.archive = new CompactTripArchive();
+        this.holdTimer = new HoldTimer(clock, HoldTimer.TICK);
+        this.tripListener = new TripListener() {
+            @Override
+            public void ticketBooked(Ticket ticket) {
+                listeners.forEach(listener -> listener.ticketBooked(ticket));
+                completeChanges(ticket.getTrip());
+            }
+
+            @Override
+            public void ticketCancelled(Ticket ticket) {
+                listeners.forEach(listener -> listener.ticketCancelled(ticket));
+                completeChanges(ticket.getTrip());
+            }
+
+            @Override
+            public void ticketExchanged(Ticket oldTicket, Ticket newTicket) {
+                listeners.forEach(listener -> listener.ticketExchanged(oldTicket, newTicket));
+                completeChanges(newTicket.getTrip());
+            }
+
+            @Override
+            public SystemMetrics getMetrics() {
+                return metrics;
+            }
+        };
     }
 
     @Override
     public List<Ticket> getAllBookedTickets() {
-        return trips.stream().map(t -> t.getBookedTickets()).flatMap(Collection::stream).collect(Collectors.toList());
+        return new ArrayList<>(ticketStore.viewBooked());
     }
 
     @Override
     public List<Ticket> getAllCancelledTickets() {
-        return trips.stream().map(t -> t.getCancelledTickets()).flatMap(Collection::stream).collect(Collectors.toList());
+        return new ArrayList<>(ticketStore.viewCancelled());
+    }
+
+    @Override
+    public Stream<Ticket> streamBookedTickets() {
+        return ticketStore.viewBooked().stream();
+    }
+
+    @Override
+    public Collection<Ticket> viewBookedTickets() {
+        return ticketStore.viewBooked();
+    }
+
+    @Override
+    public Collection<Ticket> viewCancelledTickets() {
+        return ticketStore.viewCancelled();
     }
 
     @Override
     public List<Trip> findPossibleExchanges(Ticket ticket) {
-        return trips.stream().filter(trip -> trip.getOrigin() == ticket.getTrip().getOrigin()
-                && trip.getDestination() == ticket.getTrip().getDestination()
-                && !trip.isCancelled()
-                && trip.getPlannedDepartureTime().isAfter(ticket.getTrip().getPlannedDepartureTime())).collect(Collectors.toList());
+        long start = startTiming();
+        List<Trip> result = streamPossibleExchanges(ticket).collect(Collectors.toList());
+        recordQuery(start);
+        return result;
+    }
+
+    @Override
+    public List<Trip> findPossibleExchanges(Ticket ticket, int limit) {
+        long start = startTiming();
+        List<Trip> result = streamPossibleExchanges(ticket).limit(limit).collect(Collectors.toList());
+        recordQuery(start);
+        return result;
+    }
+
+    @Override
+    public Stream<Trip> streamPossibleExchanges(Ticket ticket) {
+        Trip ticketTrip = ticket.getTrip();
+        return tripIndex.findDepartingAfter(ticketTrip.getOrigin(), ticketTrip.getDestination(), ticketTrip.getPlannedDepartureTime())
+                .filter(trip -> !trip.isCancelled());
     }
 
     @Override
     public List<Trip> findAvailableTrips(City origin, LocalDate date) {
-        return trips.stream().filter(trip -> trip.getOrigin() == origin
-                && trip.getPlannedDepartureTime().atZone(timeZone).toLocalDate().equals(date)).collect(Collectors.toList());
+        long start = startTiming();
+        List<Trip> result = new ArrayList<>(tripIndex.find(origin, date));
+        recordQuery(start);
+        return result;
     }
 
     @Override
     public List<Trip> findAvailableTrips(City origin, City destination, LocalDate date) {
-        return findAvailableTrips(origin, date).stream().filter(trip -> trip.getDestination() == destination).collect(Collectors.toList());
+        long start = startTiming();
+        List<Trip> result = new ArrayList<>(tripIndex.find(origin, destination, date));
+        recordQuery(start);
+        return result;
+    }
+
+    @Override
+    public List<Trip> findAvailableTrips(City origin, LocalDate date, int limit) {
+        long start = startTiming();
+        List<Trip> result = streamAvailableTrips(origin, date).limit(limit).collect(Collectors.toList());
+        recordQuery(start);
+        return result;
+    }
+
+    @Override
+    public Stream<Trip> streamAvailableTrips(City origin, LocalDate date) {
+        return streamAvailableTrips(origin, date, date);
+    }
+
+    @Override
+    public Stream<Trip> streamAvailableTrips(City origin, City destination, LocalDate date) {
+        return tripIndex.findOrdered(origin, destination, date, date).filter(trip -> !trip.isCancelled());
+    }
+
+    @Override
+    public Stream<Trip> streamAvailableTrips(City origin, LocalDate firstDate, LocalDate lastDate) {
+        return tripIndex.findOrdered(origin, firstDate, lastDate).filter(trip -> !trip.isCancelled());
     }
 
     @Override
@@ -71,71 +209,189 @@ public class TicketReservationSystemImpl implements TicketReservationSystem {
 
     @Override
     public List<Trip> getAllTrips() {
-        return Collections.unmodifiableList(this.trips);
+        return Collections.unmodifiableList(new ArrayList<>(this.trips));
+    }
+
+    @Override
+    public Stream<Trip> streamAllTrips() {
+        return this.trips.stream();
     }
 
     @Override
     public List<Trip> getAllCancelledTrips() {
-        return Collections.unmodifiableList(this.cancelledTrips);
+        return Collections.unmodifiableList(new ArrayList<>(this.cancelledTrips));
     }
 
     @Override
     public void addCity(City city) {
         this.cities.add(city);
+        listeners.forEach(listener -> listener.cityAdded(city));
+        completeChanges();
     }
 
     @Override
     public Trip createTrip(City origin, City destination, Train train, Instant departure, Instant arrival) throws TripException {
-        List<Trip> trainTrips = this.findOrderedTripsOfTrain(train);
-
-
-        if (!trainTrips.isEmpty()) {
-
-            Trip lastTrainTrip = trainTrips.get(trainTrips.size() - 1);
-
-            boolean comesAfter = lastTrainTrip.findRealArrivalTime().isBefore(departure);
-
-            boolean c1 = lastTrainTrip.getDestination() == origin;
+        TrainTimeline timeline = timelines.computeIfAbsent(train, t -> new TrainTimeline());
+        TripImpl trip;
+        synchronized (timeline) {
+            checkNextTrip(timeline.findLast(), origin, destination, departure, arrival, metrics);
+            trip = newTrip(origin, destination, train, departure, arrival);
+            registerTrip(trip, timeline);
+            journeyPlanner.invalidate(train);
+        }
+        completeChanges();
+        return trip;
+    }
 
-            boolean c2 = Duration.between(lastTrainTrip.findRealArrivalTime(), departure)
-                    .compareTo(Duration.ofMinutes(10)) == 1;
+    @Override
+    public MultiStopTrip createMultiStopTrip(Train train, List<City> stops, List<Instant> departures, List<Instant> arrivals) throws TripException {
+        if (stops.size() < 2 || departures.size() != stops.size() - 1 || arrivals.size() != stops.size() - 1) {
+            recordRejectedTrip(metrics);
+            throw new TripException();
+        }
+        TrainTimeline timeline = timelines.computeIfAbsent(train, t -> new TrainTimeline());
+        MultiStopTrip trip;
+        synchronized (timeline) {
+            checkNextTrip(timeline.findLast(), stops.get(0), stops.get(1), departures.get(0), arrivals.get(0), metrics);
+            for (int i = 1; i < departures.size(); i++) {
+                if (stops.get(i) == stops.get(i + 1)
+                        || departures.get(i).isBefore(arrivals.get(i - 1))
+                        || !arrivals.get(i).isAfter(departures.get(i))) {
+                    recordRejectedTrip(metrics);
+                    throw new TripException();
+                }
+            }
+            List<TripImpl> legs = new ArrayList<>();
+            for (int i = 0; i < departures.size(); i++) {
+                legs.add(newTrip(stops.get(i), stops.get(i + 1), train, departures.get(i), arrivals.get(i)));
+            }
+            // The legs join their route before they can be found and booked
+            trip = new MultiStopTripImpl(train, legs);
+            for (TripImpl leg : legs) {
+                registerTrip(leg, timeline);
+            }
+            multiStopTrips.add(trip);
+            journeyPlanner.invalidate(train);
+            listeners.forEach(listener -> listener.multiStopTripCreated(trip));
+        }
+        completeChanges();
+        return trip;
+    }
 
-            boolean c3 = arrival.isAfter(departure);
+    @Override
+    public List<MultiStopTrip> getAllMultiStopTrips() {
+        return Collections.unmodifiableList(this.multiStopTrips);
+    }
 
-            boolean c4 = origin != destination;
+    @Override
+    public List<Ticket> bookTickets(Map<Trip, ? extends Collection<String>> bookings) throws ReservationException {
+        List<TripImpl> trips = new ArrayList<>(bookings.size());
+        List<List<String>> names = new ArrayList<>(bookings.size());
+        List<int[]> seats = new ArrayList<>(bookings.size());
+        try {
+            for (Map.Entry<Trip, ? extends Collection<String>> booking : bookings.entrySet()) {
+                if (!(booking.getKey() instanceof TripImpl)) {
+                    throw new ReservationException();
+                }
+                TripImpl trip = (TripImpl) booking.getKey();
+                List<String> tripNames = new ArrayList<>(booking.getValue());
+                seats.add(trip.reserveSeats(tripNames.size()));
+                trips.add(trip);
+                names.add(tripNames);
+            }
+        } catch (ReservationException e) {
+            for (int i = 0; i < trips.size(); i++) {
+                trips.get(i).releaseSeats(seats.get(i));
+            }
+            throw e;
+        }
 
-            if (!(comesAfter && c1 && c2 && c3 && c4))
-                throw new TripException();
+        List<List<Ticket>> tickets = new ArrayList<>(trips.size());
+        boolean cancelled = false;
+        for (int i = 0; i < trips.size(); i++) {
+            tickets.add(trips.get(i).addReservedTickets(names.get(i), seats.get(i)));
+            cancelled |= trips.get(i).isClosed();
         }
-        Trip trip = new TripImpl(origin, destination, train, departure, arrival);
-        trips.add(trip);
-        return trip;
+        // A trip may have been cancelled while booking: the tickets of the other trips are discarded too
+        if (cancelled) {
+            for (int i = 0; i < trips.size(); i++) {
+                trips.get(i).discardTickets(tickets.get(i));
+            }
+            throw new ReservationException();
+        }
+        List<Ticket> booked = new ArrayList<>();
+        for (int i = 0; i < trips.size(); i++) {
+            tickets.get(i).forEach(trips.get(i)::confirmReservedTicket);
+            booked.addAll(tickets.get(i));
+        }
+        return Collections.unmodifiableList(booked);
     }
 
     @Override
     public void cancelTrip(Trip trip) {
-        trip.cancel();
-        trips.remove(trip);
-        cancelledTrips.add(trip);
+        this.cancelTrips(List.of(trip));
+    }
+
+    @Override
+    public void cancelTrips(Collection<Trip> trips) {
+        Map<Train, List<Trip>> tripsByTrain = new LinkedHashMap<>();
+        for (Trip trip : trips) {
+            tripsByTrain.computeIfAbsent(trip.getTrain(), train -> new ArrayList<>()).add(trip);
+        }
+        for (Map.Entry<Train, List<Trip>> entry : tripsByTrain.entrySet()) {
+            TrainTimeline timeline = timelines.get(entry.getKey());
+            if (timeline == null) {
+                entry.getValue().forEach(this::unregisterTrip);
+                journeyPlanner.invalidate(entry.getKey());
+                continue;
+            }
+            synchronized (timeline) {
+                for (Trip trip : entry.getValue()) {
+                    timeline.remove(trip);
+                    unregisterTrip(trip);
+                }
+            }
+            journeyPlanner.invalidate(entry.getKey());
+        }
+        completeChanges();
     }
 
     @Override
     public void delayTripDeparture(Trip trip, Duration delay) {
-        trip.addDepartureDelay(delay);
-        this.delayTripArrival(trip, delay);
+        this.applyDelays(List.of(DelayEvent.departure(trip, delay)), false);
     }
 
     @Override
     public void delayTripArrival(Trip trip, Duration delay) {
-        trip.addArrivalDelay(delay);
-        try {
-            Optional<Trip> nextTrip = findNextTripOfTrain(trip.getTrain(), trip);
-            if (nextTrip.isPresent()) {
-                delayTripDeparture(nextTrip.get(), delay);
+        this.applyDelays(List.of(DelayEvent.arrival(trip, delay)), false);
+    }
+
+    @Override
+    public void applyDelays(Collection<DelayEvent> events, boolean absorbSlack) {
+        Map<Train, List<DelayEvent>> eventsByTrain = new LinkedHashMap<>();
+        for (DelayEvent event : events) {
+            eventsByTrain.computeIfAbsent(event.getTrip().getTrain(), train -> new ArrayList<>()).add(event);
+        }
+        for (Map.Entry<Train, List<DelayEvent>> entry : eventsByTrain.entrySet()) {
+            TrainTimeline timeline = timelines.get(entry.getKey());
+            if (timeline == null) {
+                List<Trip> delayedTrips = delayPropagator.propagate(null, entry.getValue(), absorbSlack);
+                listeners.forEach(listener -> listener.delaysApplied(entry.getValue(), absorbSlack));
+                listeners.forEach(listener -> listener.tripsDelayed(delayedTrips));
+                continue;
             }
-        } catch (TripException e) {
-            e.printStackTrace();
+            synchronized (timeline) {
+                List<Trip> delayedTrips = delayPropagator.propagate(timeline, entry.getValue(), absorbSlack);
+                SystemMetrics metrics = this.metrics;
+                if (metrics != null) {
+                    metrics.recordDelayPropagation(delayedTrips.size());
+                }
+                listeners.forEach(listener -> listener.delaysApplied(entry.getValue(), absorbSlack));
+                listeners.forEach(listener -> listener.tripsDelayed(delayedTrips));
+            }
+            journeyPlanner.invalidate(entry.getKey());
         }
+        completeChanges();
     }
 
     @Override
@@ -143,10 +399,8 @@ public class TicketReservationSystemImpl implements TicketReservationSystem {
         if (trip.getTrain() != train) {
             throw new TripException();
         }
-        List<Trip> orderedTrips = findOrderedTripsOfTrain(train);
-        int nextTripIndex = orderedTrips.indexOf(trip) + 1;
-        Trip result = nextTripIndex < orderedTrips.size() ? orderedTrips.get(nextTripIndex) : null;
-        return Optional.ofNullable(result);
+        TrainTimeline timeline = timelines.get(train);
+        return timeline == null ? Optional.empty() : timeline.findNext(trip);
     }
 
     @Override
@@ -154,20 +408,443 @@ public class TicketReservationSystemImpl implements TicketReservationSystem {
         if (trip.getTrain() != train) {
             throw new TripException();
         }
-        List<Trip> orderedTrips = findOrderedTripsOfTrain(train);
-        int previousTripIndex = orderedTrips.indexOf(trip) - 1;
-        Trip result = previousTripIndex >= 0 ? orderedTrips.get(previousTripIndex) : null;
-        return Optional.ofNullable(result);
+        TrainTimeline timeline = timelines.get(train);
+        return timeline == null ? Optional.empty() : timeline.findPrevious(trip);
     }
 
     @Override
     public List<Trip> findOrderedTripsOfTrain(Train train) {
-        return trips.stream().sorted((t1, t2) -> t1.findRealArrivalTime().isBefore(t2.findRealDepartureTime()) ? -1 : 1).collect(Collectors.toList());
+        TrainTimeline timeline = timelines.get(train);
+        return timeline == null ? new ArrayList<>() : timeline.toList();
+    }
+
+    @Override
+    public Stream<Trip> streamOrderedTripsOfTrain(Train train) {
+        TrainTimeline timeline = timelines.get(train);
+        return timeline == null ? Stream.empty() : timeline.stream();
+    }
+
+    @Override
+    public Optional<Journey> findEarliestArrivalJourney(City origin, City destination, Instant departure, Duration minimumConnection) {
+        long start = startTiming();
+        Optional<Journey> result = journeyPlanner.findEarliestArrival(origin, destination, departure, minimumConnection);
+        recordJourney(start);
+        return result;
+    }
+
+    @Override
+    public Optional<Journey> findFewestTransfersJourney(City origin, City destination, Instant departure, Duration minimumConnection) {
+        long start = startTiming();
+        Optional<Journey> result = journeyPlanner.findFewestTransfers(origin, destination, departure, minimumConnection);
+        recordJourney(start);
+        return result;
+    }
+
+    @Override
+    public int archiveTrips(Instant before) {
+        Map<Train, List<Trip>> cancelledByTrain = new LinkedHashMap<>();
+        for (Trip trip : cancelledTrips) {
+            if (trip.findRealArrivalTime().isBefore(before)) {
+                cancelledByTrain.computeIfAbsent(trip.getTrain(), train -> new ArrayList<>()).add(trip);
+            }
+        }
+        Map<Train, List<MultiStopTrip>> multiStopTripsByTrain = new HashMap<>();
+        for (MultiStopTrip trip : multiStopTrips) {
+            multiStopTripsByTrain.computeIfAbsent(trip.getTrain(), train -> new ArrayList<>()).add(trip);
+        }
+        Set<Train> trains = new LinkedHashSet<>(timelines.keySet());
+        trains.addAll(cancelledByTrain.keySet());
+
+        int count = 0;
+        for (Train train : trains) {
+            TrainTimeline timeline = timelines.computeIfAbsent(train, t -> new TrainTimeline());
+            synchronized (timeline) {
+                List<Trip> over = new ArrayList<>(cancelledByTrain.getOrDefault(train, List.of()));
+                Trip last = timeline.findLast().orElse(null);
+                // The timeline is ordered by real time, so the trips that are over come first
+                timeline.stream()
+                        .takeWhile(trip -> trip != last && trip.findRealArrivalTime().isBefore(before))
+                        .forEach(over::add);
+                Set<Trip> overTrips = new HashSet<>(over);
+                for (MultiStopTrip trip : multiStopTripsByTrain.getOrDefault(train, List.of())) {
+                    if (!overTrips.containsAll(trip.getLegs())) {
+                        over.removeAll(trip.getLegs());
+                    }
+                }
+                count += moveToArchive(over, timeline);
+            }
+        }
+        completeChanges();
+        return count;
+    }
+
+    @Override
+    public TripArchive getArchive() {
+        return this.archive;
     }
 
     @Override
     public void addTrain(Train train) {
         this.trains.add(train);
+        listeners.forEach(listener -> listener.trainAdded(train));
+        completeChanges();
+    }
+
+    /**
+     * Retrieves the time zone of the system, used to parse dates.
+     * @return The time zone of the system.
+     */
+    public ZoneId getTimeZone() {
+        return this.timeZone;
+    }
+
+    /**
+     * Lists the trains that have or had trips in the system, registered or not.
+     * @return A live, unmodifiable view of the trains.
+     */
+    Set<Train> findTrainsWithTrips() {
+        return Collections.unmodifiableSet(this.timelines.keySet());
+    }
+
+    /**
+     * Retrieves the enabled metrics of the system.
+     * @return The metrics, or null if they are disabled.
+     */
+    SystemMetrics getMetrics() {
+        return this.metrics;
+    }
 
+    /**
+     * Enables or disables the metrics of the system (see {@link SystemMetrics#enable}).
+     * @param metrics The metrics, or null to disable them.
+     */
+    void setMetrics(SystemMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a listener, notified of all the next changes made to the system.
+     * @param listener The listener to add.
+     */
+    void addListener(SystemListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     * @param listener The listener to remove.
+     */
+    void removeListener(SystemListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Stops the thread expiring the seat holds of the system, and rejects new holds.
+     * Active holds can still be released, or confirmed until their expiry.
+     */
+    @Override
+    public void close() {
+        this.holdTimer.close();
+    }
+
+    /**
+     * Registers a restored trip (eg. from a snapshot), without checking the constraints of createTrip.
+     * The trips of a train must be restored in time order.
+     * @return The restored trip.
+     */
+    TripImpl restoreTrip(City origin, City destination, Train train, Instant departure, Instant arrival) {
+        TripImpl trip = newTrip(origin, destination, train, departure, arrival);
+        TrainTimeline timeline = timelines.computeIfAbsent(train, t -> new TrainTimeline());
+        synchronized (timeline) {
+            addTrip(trip, timeline);
+        }
+        journeyPlanner.invalidate(train);
+        return trip;
+    }
+
+    /**
+     * Creates trips of a train in bulk (eg. imported from a timetable) while holding the timeline of the train,
+     * so that they are checked against the last trip of the train without any change to the train in between.
+     * Listeners are notified of all the created trips at once.
+     * @param train The train of the trips.
+     * @param check Given the last trip of the train, checks the trips to create and returns them in time order,
+     *              or returns an empty list if none should be created.
+     * @return The created trips.
+     */
+    List<Trip> createTrips(Train train, Function<Optional<Trip>, List<TimetableImport.Row>> check) {
+        TrainTimeline timeline = timelines.computeIfAbsent(train, t -> new TrainTimeline());
+        List<Trip> created = new ArrayList<>();
+        synchronized (timeline) {
+            for (TimetableImport.Row row : check.apply(timeline.findLast())) {
+                TripImpl trip = newTrip(row.origin, row.destination, train, row.departure, row.arrival);
+                addTrip(trip, timeline);
+                created.add(trip);
+            }
+            if (!created.isEmpty()) {
+                listeners.forEach(listener -> listener.tripsCreated(created));
+            }
+        }
+        if (!created.isEmpty()) {
+            journeyPlanner.invalidate(train);
+            completeChanges();
+        }
+        return created;
+    }
+
+    /**
+     * Registers a restored cancelled trip (eg. from a snapshot).
+     * Its tickets must be restored before cancelling it.
+     * @return The restored trip, not cancelled yet.
+     */
+    TripImpl restoreCancelledTrip(City origin, City destination, Train train, Instant departure, Instant arrival) {
+        TripImpl trip = newTrip(origin, destination, train, departure, arrival);
+        cancelledTrips.add(trip);
+        return trip;
+    }
+
+    /**
+     * Registers a multi-stop trip made of restored legs (eg. from a snapshot).
+     * Its legs must be registered, with their tickets, before.
+     * @param legs The legs, in order.
+     * @return The restored multi-stop trip.
+     */
+    MultiStopTrip restoreMultiStopTrip(List<TripImpl> legs) {
+        MultiStopTrip trip = new MultiStopTripImpl(legs.get(0).getTrain(), legs);
+        multiStopTrips.add(trip);
+        return trip;
+    }
+
+    /**
+     * Moves trips to the archive, without checking that they are over (eg. when replaying a journal).
+     * @param trips The trips to archive.
+     */
+    void archive(Collection<Trip> trips) {
+        Map<Train, List<Trip>> tripsByTrain = new LinkedHashMap<>();
+        for (Trip trip : trips) {
+            tripsByTrain.computeIfAbsent(trip.getTrain(), train -> new ArrayList<>()).add(trip);
+        }
+        for (Map.Entry<Train, List<Trip>> entry : tripsByTrain.entrySet()) {
+            TrainTimeline timeline = timelines.computeIfAbsent(entry.getKey(), t -> new TrainTimeline());
+            synchronized (timeline) {
+                moveToArchive(entry.getValue(), timeline);
+            }
+        }
+        completeChanges();
+    }
+
+    /**
+     * Sets the delays of a trip, without propagating them (eg. when replaying a journal).
+     */
+    void restoreDelays(Trip trip, Duration departureDelay, Duration arrivalDelay) {
+        ((TripImpl) trip).restoreDelays(departureDelay, arrivalDelay);
+        journeyPlanner.invalidate(trip.getTrain());
+    }
+
+    /**
+     * Checks whether a trip is in the system, cancelled or not, ie. is neither archived nor unknown.
+     */
+    boolean contains(Trip trip) {
+        return trips.contains(trip) || cancelledTrips.contains(trip);
+    }
+
+    /**
+     * Adds a restored archived trip (eg. from a snapshot) directly to the archive.
+     * @param bookedSeats The indexes of the seats of the booked tickets, in the order of the passengers.
+     */
+    void restoreArchivedTrip(City origin, City destination, Train train, Instant departure, Instant arrival,
+                             Duration departureDelay, Duration arrivalDelay, boolean cancelled,
+                             List<String> bookedPassengers, int[] bookedSeats, List<String> cancelledPassengers) {
+        archive.add(origin, destination, train, departure, arrival, departureDelay, arrivalDelay, cancelled,
+                tripIndex.findServiceDay(departure), bookedPassengers, bookedSeats, cancelledPassengers);
+    }
+
+    /**
+     * Creates a trip of the system, which is not registered yet.
+     */
+    private TripImpl newTrip(City origin, City destination, Train train, Instant departure, Instant arrival) {
+        return new TripImpl(origin, destination, train, departure, arrival, tripListener, ticketStore, holdTimer,
+                tripIndex.findServiceDay(departure));
+    }
+
+    /**
+     * Checks that a trip can be created after the last trip of its train.
+     * @param metrics The metrics counting rejected trips, or null if they are disabled.
+     * @throws TripException If the trip cannot follow the last trip, as specified by createTrip.
+     */
+    private static void checkNextTrip(Optional<Trip> lastTrip, City origin, City destination, Instant departure, Instant arrival,
+                                      SystemMetrics metrics) throws TripException {
+        if (lastTrip.isPresent()) {
+            Trip lastTrainTrip = lastTrip.get();
+            if (findBrokenConstraint(lastTrainTrip.getDestination(), lastTrainTrip.findRealArrivalTime(),
+                    origin, destination, departure, arrival) != null) {
+                recordRejectedTrip(metrics);
+                throw new TripException();
+            }
+        }
+    }
+
+    private static void recordRejectedTrip(SystemMetrics metrics) {
+        if (metrics != null) {
+            metrics.recordRejectedTrip();
+        }
+    }
+
+    /**
+     * Starts timing an operation if the metrics are enabled.
+     * @return The start time in nanoseconds, or 0 if the metrics are disabled.
+     */
+    private long startTiming() {
+        return this.metrics == null ? 0 : System.nanoTime();
+    }
+
+    private void recordQuery(long start) {
+        SystemMetrics metrics = this.metrics;
+        if (start != 0 && metrics != null) {
+            metrics.recordQuery(System.nanoTime() - start);
+        }
+    }
+
+    private void recordJourney(long start) {
+        SystemMetrics metrics = this.metrics;
+        if (start != 0 && metrics != null) {
+            metrics.recordJourney(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Finds the first constraint of createTrip that a trip breaks.
+     * @param previousDestination The destination of the previous trip of the train, or null if there is none.
+     * @param previousArrival The real arrival of the previous trip of the train, or null if there is none,
+     *                        in which case only the constraints on the trip itself are checked.
+     * @return The broken constraint, or null if the trip satisfies all of them.
+     */
+    static TripConstraint findBrokenConstraint(City previousDestination, Instant previousArrival,
+                                               City origin, City destination, Instant departure, Instant arrival) {
+        return findBrokenConstraint(previousDestination, previousArrival, origin, destination, departure, arrival, false);
+    }
+
+    /**
+     * Finds the first constraint of createTrip that a trip breaks, possibly allowing a turnaround of exactly
+     * the minimum, as left by delays absorbed with the time between trips (createTrip requires more).
+     * @return The broken constraint, or null if the trip satisfies all of them.
+     */
+    static TripConstraint findBrokenConstraint(City previousDestination, Instant previousArrival,
+                                               City origin, City destination, Instant departure, Instant arrival,
+                                               boolean allowMinimumTurnaround) {
+        if (previousArrival != null) {
+            if (!previousArrival.isBefore(departure)) {
+                return TripConstraint.DEPARTS_AFTER_PREVIOUS_ARRIVAL;
+            }
+            if (previousDestination != origin) {
+                return TripConstraint.DEPARTS_FROM_PREVIOUS_DESTINATION;
+            }
+            int turnaround = Duration.between(previousArrival, departure).compareTo(MINIMUM_TURNAROUND);
+            if (turnaround < 0 || (turnaround == 0 && !allowMinimumTurnaround)) {
+                return TripConstraint.MINIMUM_TURNAROUND;
+            }
+        }
+        if (!arrival.isAfter(departure)) {
+            return TripConstraint.ARRIVES_AFTER_DEPARTURE;
+        }
+        if (origin == destination) {
+            return TripConstraint.DIFFERENT_DESTINATION;
+        }
+        return null;
+    }
+
+    /**
+     * Registers a new trip at the end of the timeline of its train. Must be called while holding the timeline.
+     */
+    private void registerTrip(Trip trip, TrainTimeline timeline) {
+        addTrip(trip, timeline);
+        listeners.forEach(listener -> listener.tripCreated(trip));
+    }
+
+    /**
+     * Notifies listeners that the current thread completed its changes, once it released the locks of the system.
+     */
+    private void completeChanges() {
+        listeners.forEach(SystemListener::changesCompleted);
+    }
+
+    /**
+     * Notifies listeners that the current thread completed a change of the tickets of a trip, unless it still holds
+     * the timeline of the train (eg. when cancelling the trip): the method holding it notifies them once it released it.
+     */
+    private void completeChanges(Trip trip) {
+        TrainTimeline timeline = timelines.get(trip.getTrain());
+        if (timeline == null || !Thread.holdsLock(timeline)) {
+            completeChanges();
+        }
+    }
+
+    /**
+     * Adds a trip at the end of the timeline of its train, without notifying listeners. Must be called while holding the timeline.
+     */
+    private void addTrip(Trip trip, TrainTimeline timeline) {
+        trips.add(trip);
+        tripIndex.add(trip);
+        timeline.append(trip);
+    }
+
+    /**
+     * Moves trips of a train, with their tickets, from the system to the archive. Must be called while holding the
+     * timeline of the train. Trips that are no longer in the system (eg. already archived) are skipped.
+     * @return The amount of archived trips.
+     */
+    private int moveToArchive(List<Trip> trips, TrainTimeline timeline) {
+        List<Trip> archived = new ArrayList<>(trips.size());
+        List<TicketStore.TripTickets> tickets = new ArrayList<>(trips.size());
+        for (Trip trip : trips) {
+            if (!this.trips.contains(trip) && !cancelledTrips.contains(trip)) {
+                continue;
+            }
+            ((TripImpl) trip).archive();
+            timeline.remove(trip);
+            tripIndex.remove(trip);
+            List<Ticket> booked = trip.getBookedTickets();
+            List<String> bookedPassengers = new ArrayList<>(booked.size());
+            int[] bookedSeats = new int[booked.size()];
+            for (int i = 0; i < booked.size(); i++) {
+                bookedPassengers.add(booked.get(i).getPassengerName());
+                bookedSeats[i] = booked.get(i).getSeat().getIndex();
+            }
+            List<String> cancelledPassengers = trip.getCancelledTickets().stream()
+                    .map(Ticket::getPassengerName)
+                    .collect(Collectors.toList());
+            archive.add(trip.getOrigin(), trip.getDestination(), trip.getTrain(),
+                    trip.getPlannedDepartureTime(), trip.getPlannedArrivalTime(),
+                    trip.getDepartureDelay(), trip.getArrivalDelay(), trip.isCancelled(),
+                    tripIndex.findServiceDay(trip), bookedPassengers, bookedSeats, cancelledPassengers);
+            // Removed once archived, so that a snapshot finds the trip in the system or in the archive at any time
+            this.trips.remove(trip);
+            cancelledTrips.remove(trip);
+            tickets.add(((TripImpl) trip).getTickets());
+            archived.add(trip);
+        }
+        if (archived.isEmpty()) {
+            return 0;
+        }
+        ticketStore.evict(tickets);
+        Set<Trip> archivedTrips = new HashSet<>(archived);
+        multiStopTrips.removeIf(trip -> archivedTrips.containsAll(trip.getLegs()));
+        journeyPlanner.invalidate(archived.get(0).getTrain());
+        listeners.forEach(listener -> listener.tripsArchived(archived));
+        return archived.size();
+    }
+
+    /**
+     * Cancels a trip and moves it from the trips to the cancelled trips of the system.
+     * Cancelling a trip twice only registers it once as cancelled.
+     * @param trip The trip to cancel.
+     */
+    private void unregisterTrip(Trip trip) {
+        trip.cancel();
+        // Added to the cancelled trips before leaving the trips, so that a snapshot always finds the trip
+        if (cancelledTrips.add(trip)) {
+            trips.remove(trip);
+            tripIndex.remove(trip);
+            listeners.forEach(listener -> listener.tripCancelled(trip));
+        }
     }
 }
@@ -0,0 +1,105 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.Seat;
+import fr.univnantes.trainreservation.Ticket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Stores all the tickets of a system, and gives each of its trips the tickets booked and cancelled on it.
+ * Trips reserve the seats of their tickets themselves: the store only keeps track of the tickets.
+ * Stores can be used by many threads at once.
+ */
+interface TicketStore {
+
+    /**
+     * Tickets of one trip.
+     */
+    interface TripTickets {
+
+        /**
+         * Adds a booked ticket.
+         * @param passengerName The name of the passenger.
+         * @param seat The seat of the ticket.
+         * @return The booked ticket.
+         */
+        Ticket book(String passengerName, Seat seat);
+
+        /**
+         * Adds booked tickets for a group of passengers.
+         * @param passengerNames The names of the passengers.
+         * @param seats The seats of the tickets, in the order of the passengers.
+         * @return The booked tickets, in the order of the passengers.
+         */
+        default List<Ticket> bookAll(List<String> passengerNames, List<Seat> seats) {
+            List<Ticket> tickets = new ArrayList<>(passengerNames.size());
+            for (int i = 0; i < passengerNames.size(); i++) {
+                tickets.add(book(passengerNames.get(i), seats.get(i)));
+            }
+            return tickets;
+        }
+
+        /**
+         * Adds a ticket that is already cancelled (eg. restored from a snapshot).
+         * @param passengerName The name of the passenger.
+         * @param seat The seat the ticket had.
+         * @return The cancelled ticket.
+         */
+        Ticket restoreCancelled(String passengerName, Seat seat);
+
+        /**
+         * Moves a booked ticket to the cancelled tickets.
+         * When many threads release the same ticket at once, only one of them succeeds.
+         * @param ticket The ticket to release.
+         * @return true if the ticket was booked, false if it was already released or is not a ticket of the trip.
+         */
+        boolean release(Ticket ticket);
+
+        /**
+         * Removes a booked ticket, without moving it to the cancelled tickets (eg. when its booking fails).
+         * @param ticket The ticket to discard.
+         * @return true if the ticket was booked, false if it was already released or is not a ticket of the trip.
+         */
+        boolean discard(Ticket ticket);
+
+        /**
+         * Retrieves the booked tickets, in the order in which they were booked.
+         * @return A new list of the booked tickets.
+         */
+        List<Ticket> getBooked();
+
+        /**
+         * Retrieves the cancelled tickets, in the order in which they were cancelled.
+         * @return A new list of the cancelled tickets.
+         */
+        List<Ticket> getCancelled();
+    }
+
+    /**
+     * Creates the store of the tickets of a new trip.
+     * @param trip The trip.
+     * @return The tickets of the trip, initially empty.
+     */
+    TripTickets createTripTickets(TripImpl trip);
+
+    /**
+     * Retrieves a live view of all the booked tickets of all the trips.
+     * @return The booked tickets, which cannot be changed through the view.
+     */
+    Collection<Ticket> viewBooked();
+
+    /**
+     * Retrieves a live view of all the cancelled tickets of all the trips.
+     * @return The cancelled tickets, which cannot be changed through the view.
+     */
+    Collection<Ticket> viewCancelled();
+
+    /**
+     * Removes the tickets of trips from the views of the store, when the trips are archived.
+     * The tickets of the trips can still be read from the trips, but must no longer change.
+     * @param trips The tickets of the trips, created by this store.
+     */
+    void evict(Collection<TripTickets> trips);
+}
@@ -0,0 +1,313 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripConstraint;
+import fr.univnantes.trainreservation.util.TimeManagement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Imports a timetable of trips in bulk from a CSV file, with one trip per line:
+ * train,origin,destination,departure,arrival
+ * where the train and the cities are given by name, and times are formatted like "2022-05-12 08:00" in the time zone
+ * of the system. Blank lines, lines starting with '#', and a header line starting with "train," are ignored.
+ *
+ * Lines are read in batches, which are parsed in parallel. Trips are then grouped by train, sorted by departure,
+ * and checked against the constraints of createTrip in one pass per train, trains being checked in parallel.
+ * Unlike createTrip, the first trip of a train is also checked for its own constraints (arrival after departure,
+ * different destination). All the violations are reported together instead of stopping at the first one.
+ * A train is only imported if all its trips are valid, so a timetable can be fixed and imported again for the
+ * rejected trains only. Trains must be registered in the system beforehand; cities are found by name among the
+ * cities of the system, and added to it when they are not found.
+ */
+public class TimetableImport {
+
+    private static final int BATCH_SIZE = 4096;
+    private static final String HEADER = "train,";
+
+    /**
+     * A line of a timetable that could not be imported.
+     */
+    public static class Violation {
+
+        /**
+         * Reason why a line could not be imported.
+         */
+        public enum Kind {
+            /**
+             * The line does not have five fields, or its times cannot be parsed.
+             */
+            MALFORMED_LINE,
+            /**
+             * The train of the line is not registered in the system.
+             */
+            UNKNOWN_TRAIN,
+            /**
+             * The trip of the line breaks a constraint of createTrip.
+             */
+            BROKEN_CONSTRAINT
+        }
+
+        private final int line;
+        private final Kind kind;
+        private final TripConstraint constraint;
+
+        private Violation(int line, Kind kind, TripConstraint constraint) {
+            this.line = line;
+            this.kind = kind;
+            this.constraint = constraint;
+        }
+
+        /**
+         * Retrieves the number of the line in the timetable, starting from 1.
+         * @return The line number.
+         */
+        public int getLine() {
+            return this.line;
+        }
+
+        /**
+         * Retrieves the reason why the line could not be imported.
+         * @return The kind of violation.
+         */
+        public Kind getKind() {
+            return this.kind;
+        }
+
+        /**
+         * Retrieves the constraint broken by the trip of the line.
+         * @return The broken constraint, or null if the kind of violation is not BROKEN_CONSTRAINT.
+         */
+        public TripConstraint getConstraint() {
+            return this.constraint;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + this.line + ": " + (this.constraint == null ? this.kind : this.constraint);
+        }
+    }
+
+    /**
+     * Outcome of the import of a timetable.
+     */
+    public static class Report {
+
+        private final List<Trip> importedTrips;
+        private final List<Violation> violations;
+
+        private Report(List<Trip> importedTrips, List<Violation> violations) {
+            this.importedTrips = Collections.unmodifiableList(importedTrips);
+            this.violations = Collections.unmodifiableList(violations);
+        }
+
+        /**
+         * Retrieves the trips created by the import.
+         * @return The created trips, grouped by train and in time order for each train.
+         */
+        public List<Trip> getImportedTrips() {
+            return this.importedTrips;
+        }
+
+        /**
+         * Retrieves all the lines that could not be imported.
+         * @return The violations, ordered by line.
+         */
+        public List<Violation> getViolations() {
+            return this.violations;
+        }
+
+        /**
+         * Retrieves whether the whole timetable was imported.
+         * @return true if no line was rejected.
+         */
+        public boolean isComplete() {
+            return this.violations.isEmpty();
+        }
+    }
+
+    /**
+     * Trip read from a line of a timetable.
+     */
+    static class Row {
+        final int line;
+        final String trainName;
+        final String originName;
+        final String destinationName;
+        final Instant departure;
+        final Instant arrival;
+        City origin;
+        City destination;
+
+        private Row(int line, String trainName, String originName, String destinationName, Instant departure, Instant arrival) {
+            this.line = line;
+            this.trainName = trainName;
+            this.originName = originName;
+            this.destinationName = destinationName;
+            this.departure = departure;
+            this.arrival = arrival;
+        }
+    }
+
+    /**
+     * Rows and violations of a batch of lines.
+     */
+    private static class Batch {
+        private final List<Row> rows = new ArrayList<>();
+        private final List<Violation> violations = new ArrayList<>();
+    }
+
+    private TimetableImport() {
+    }
+
+    /**
+     * Imports the trips of a timetable file into a system.
+     * @param system The system in which trips are created.
+     * @param path The CSV file of the timetable, in UTF-8.
+     * @return The report of the import.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Report importCsv(TicketReservationSystemImpl system, Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            return importCsv(system, reader);
+        }
+    }
+
+    /**
+     * Imports the trips of a timetable into a system.
+     * @param system The system in which trips are created.
+     * @param reader The CSV content of the timetable, which is read to its end but not closed.
+     * @return The report of the import.
+     * @throws IOException If the timetable cannot be read.
+     */
+    public static Report importCsv(TicketReservationSystemImpl system, Reader reader) throws IOException {
+        ZoneId timeZone = system.getTimeZone();
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        List<CompletableFuture<Batch>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        int lineCount = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            batch.add(line);
+            lineCount++;
+            if (batch.size() == BATCH_SIZE) {
+                batches.add(parseAsync(batch, lineCount - batch.size() + 1, timeZone));
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(parseAsync(batch, lineCount - batch.size() + 1, timeZone));
+        }
+
+        List<Violation> violations = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Train> trainsByName = new HashMap<>();
+        system.getAllTrains().forEach(train -> trainsByName.putIfAbsent(train.getName(), train));
+        Map<String, City> citiesByName = new HashMap<>();
+        system.getCities().forEach(city -> citiesByName.putIfAbsent(city.getName(), city));
+        Map<Train, List<Row>> rowsByTrain = new LinkedHashMap<>();
+        for (CompletableFuture<Batch> parsed : batches) {
+            Batch rows = parsed.join();
+            violations.addAll(rows.violations);
+            for (Row row : rows.rows) {
+                Train train = trainsByName.get(row.trainName);
+                if (train == null) {
+                    violations.add(new Violation(row.line, Violation.Kind.UNKNOWN_TRAIN, null));
+                    continue;
+                }
+                row.origin = findCity(system, citiesByName, row.originName);
+                row.destination = findCity(system, citiesByName, row.destinationName);
+                rowsByTrain.computeIfAbsent(train, t -> new ArrayList<>()).add(row);
+            }
+        }
+
+        List<Trip> importedTrips = rowsByTrain.entrySet().parallelStream()
+                .flatMap(entry -> system.createTrips(entry.getKey(), last -> check(entry.getValue(), last, violations)).stream())
+                .collect(Collectors.toList());
+        List<Violation> sortedViolations = new ArrayList<>(violations);
+        sortedViolations.sort(Comparator.comparingInt(Violation::getLine));
+        return new Report(importedTrips, sortedViolations);
+    }
+
+    private static CompletableFuture<Batch> parseAsync(List<String> lines, int firstLine, ZoneId timeZone) {
+        return CompletableFuture.supplyAsync(() -> parse(lines, firstLine, timeZone));
+    }
+
+    private static Batch parse(List<String> lines, int firstLine, ZoneId timeZone) {
+        Batch batch = new Batch();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            int number = firstLine + i;
+            if (line.isEmpty() || line.startsWith("#") || (number == 1 && line.startsWith(HEADER))) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            if (fields.length != 5) {
+                batch.violations.add(new Violation(number, Violation.Kind.MALFORMED_LINE, null));
+                continue;
+            }
+            try {
+                batch.rows.add(new Row(number, fields[0].trim(), fields[1].trim(), fields[2].trim(),
+                        TimeManagement.createInstant(fields[3].trim(), timeZone),
+                        TimeManagement.createInstant(fields[4].trim(), timeZone)));
+            } catch (DateTimeParseException e) {
+                batch.violations.add(new Violation(number, Violation.Kind.MALFORMED_LINE, null));
+            }
+        }
+        return batch;
+    }
+
+    private static City findCity(TicketReservationSystemImpl system, Map<String, City> citiesByName, String name) {
+        return citiesByName.computeIfAbsent(name, n -> {
+            City city = new CityImpl(n);
+            system.addCity(city);
+            return city;
+        });
+    }
+
+    /**
+     * Checks the trips of a train in departure order, each against the previous valid trip.
+     * @param last The last trip of the train in the system.
+     * @return The trips in departure order if all of them are valid, or an empty list.
+     */
+    private static List<Row> check(List<Row> rows, Optional<Trip> last, List<Violation> violations) {
+        // The sort is stable, so trips departing at the same time keep the order of their lines
+        rows.sort(Comparator.comparing(row -> row.departure));
+        City previousDestination = last.map(Trip::getDestination).orElse(null);
+        Instant previousArrival = last.map(Trip::findRealArrivalTime).orElse(null);
+        List<Violation> found = new ArrayList<>();
+        for (Row row : rows) {
+            TripConstraint constraint = TicketReservationSystemImpl.findBrokenConstraint(previousDestination, previousArrival,
+                    row.origin, row.destination, row.departure, row.arrival);
+            if (constraint != null) {
+                found.add(new Violation(row.line, Violation.Kind.BROKEN_CONSTRAINT, constraint));
+                continue;
+            }
+            previousDestination = row.destination;
+            previousArrival = row.arrival;
+        }
+        if (!found.isEmpty()) {
+            violations.addAll(found);
+            return List.of();
+        }
+        return rows;
+    }
+}
@@ -1,15 +1,25 @@
 package fr.univnantes.trainreservation.impl;
 
+import fr.univnantes.trainreservation.SeatMap;
 import fr.univnantes.trainreservation.Train;
 
 public class TrainImpl implements Train {
 
     private final String name;
     private final int maxPassengers;
+    private final SeatMap seatMap;
 
     public TrainImpl(String name, int maxPassengers) {
+        this(name, SeatMap.ofSingleCar(maxPassengers));
+    }
+
+    /**
+     * Creates a train whose maximum amount of passengers is the amount of seats of its seat map.
+     */
+    public TrainImpl(String name, SeatMap seatMap) {
         this.name = name;
-        this.maxPassengers = maxPassengers;
+        this.maxPassengers = seatMap.getSeatCount();
+        this.seatMap = seatMap;
     }
 
     @Override
@@ -21,4 +31,9 @@ public class TrainImpl implements Train {
     public int getMaxPassengers() {
         return this.maxPassengers;
     }
+
+    @Override
+    public SeatMap getSeatMap() {
+        return this.seatMap;
+    }
 }
@@ -0,0 +1,151 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.Trip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Time-ordered chain of the (non-cancelled) trips of one train.
+ * Trips can only be created after the last trip of their train, and a delay is always propagated to all
+ * the following trips of the train, so appending trips in creation order keeps the chain ordered by real time.
+ * Finding the last, next or previous trip, and removing a trip, take constant time.
+ * The timeline can be read by many threads at once without blocking, but it must only be modified while holding
+ * its monitor: changes to the trips of one train are serialized, and changes to different trains are independent.
+ */
+class TrainTimeline {
+
+    private static class Node {
+        private final Trip trip;
+        private final long rank;
+        private volatile Node previous;
+        private volatile Node next;
+
+        private Node(Trip trip, long rank) {
+            this.trip = trip;
+            this.rank = rank;
+        }
+    }
+
+    private final Map<Trip, Node> nodes;
+    private volatile Node first;
+    private volatile Node last;
+    private long nextRank;
+
+    /**
+     * Creates an empty timeline.
+     */
+    TrainTimeline() {
+        this.nodes = new ConcurrentHashMap<>();
+        this.nextRank = 0;
+    }
+
+    /**
+     * Adds a trip at the end of the timeline.
+     *
+     * @param trip The trip to add, which must come after the last trip of the timeline.
+     */
+    void append(Trip trip) {
+        Node node = new Node(trip, this.nextRank++);
+        node.previous = this.last;
+        if (this.last == null) {
+            this.first = node;
+        } else {
+            this.last.next = node;
+        }
+        this.last = node;
+        this.nodes.put(trip, node);
+    }
+
+    /**
+     * Removes a trip from the timeline. Does nothing if the trip is not in the timeline.
+     *
+     * @param trip The trip to remove.
+     */
+    void remove(Trip trip) {
+        Node node = this.nodes.remove(trip);
+        if (node == null) {
+            return;
+        }
+        if (node.previous == null) {
+            this.first = node.next;
+        } else {
+            node.previous.next = node.next;
+        }
+        if (node.next == null) {
+            this.last = node.previous;
+        } else {
+            node.next.previous = node.previous;
+        }
+    }
+
+    /**
+     * Finds the last trip of the timeline.
+     *
+     * @return The last trip, or nothing if the timeline is empty.
+     */
+    Optional<Trip> findLast() {
+        return Optional.ofNullable(this.last).map(node -> node.trip);
+    }
+
+    /**
+     * Finds the trip that follows a trip of the timeline.
+     *
+     * @param trip The trip.
+     * @return The following trip, or nothing if the trip is the last one or is not in the timeline.
+     */
+    Optional<Trip> findNext(Trip trip) {
+        Node node = this.nodes.get(trip);
+        return Optional.ofNullable(node == null ? null : node.next).map(next -> next.trip);
+    }
+
+    /**
+     * Finds the trip that precedes a trip of the timeline.
+     *
+     * @param trip The trip.
+     * @return The preceding trip, or nothing if the trip is the first one or is not in the timeline.
+     */
+    Optional<Trip> findPrevious(Trip trip) {
+        Node node = this.nodes.get(trip);
+        return Optional.ofNullable(node == null ? null : node.previous).map(previous -> previous.trip);
+    }
+
+    /**
+     * Finds the rank of a trip in the timeline. Ranks grow along the timeline, but are not contiguous.
+     *
+     * @param trip The trip.
+     * @return The rank of the trip, or -1 if the trip is not in the timeline.
+     */
+    long findRank(Trip trip) {
+        Node node = this.nodes.get(trip);
+        return node == null ? -1 : node.rank;
+    }
+
+    /**
+     * Streams the trips of the timeline, following the chain lazily from the first trip.
+     * Trips removed while the stream is consumed may still be found.
+     *
+     * @return The trips, ordered by time.
+     */
+    Stream<Trip> stream() {
+        return Stream.iterate(this.first, Objects::nonNull, node -> node.next).map(node -> node.trip);
+    }
+
+    /**
+     * Lists the trips of the timeline.
+     *
+     * @return A new list containing the trips, ordered by time.
+     */
+    List<Trip> toList() {
+        List<Trip> result = new ArrayList<>();
+        for (Node node = this.first; node != null; node = node.next) {
+            result.add(node.trip);
+        }
+        return result;
+    }
+}
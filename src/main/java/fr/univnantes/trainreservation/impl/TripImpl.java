@@ -4,35 +4,61 @@ import fr.univnantes.trainreservation.*;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Trip whose tickets can be booked and cancelled by many threads at once.
+ * Each ticket is assigned a seat of the train by a lock-free seat allocator, so that concurrent bookings never exceed
+ * the capacity of the train and never wait for each other. Tickets themselves are kept in the ticket store of the system.
+ */
 public class TripImpl implements Trip {
 
     private final City origin;
     private final City destination;
     private final Train train;
-    private boolean cancelled;
+    private volatile boolean cancelled;
+    private volatile boolean archived;
     private final Instant departureTime;
     private final Instant arrivalTime;
-    private Duration departureDelay;
-    private Duration arrivalDelay;
-    private final List<Ticket> bookedTickets;
-    private final List<Ticket> cancelledTickets;
-
+    private final int serviceDay;
+    private volatile Duration departureDelay;
+    private volatile Duration arrivalDelay;
+    private volatile SeatAllocator seatAllocator;
+    private volatile SegmentOccupancy occupancy;
+    private int segment;
+    private final TicketStore.TripTickets tickets;
+    private final TripListener listener;
+    private final HoldTimer holdTimer;
 
     public TripImpl(City origin, City destination, Train train, Instant departureTime, Instant arrivalTime) {
+        this(origin, destination, train, departureTime, arrivalTime, TripListener.NONE, new ObjectTicketStore(),
+                HoldTimer.STANDALONE,
+                ServiceDays.findDay(departureTime.atZone(ZoneId.systemDefault()).toLocalDate()));
+    }
+
+    /**
+     * Creates a trip that keeps its tickets in a store, and notifies a listener when its tickets change.
+     * @param holdTimer The timer expiring the seat holds of the trip.
+     * @param serviceDay The service day of the planned departure, in the time zone of the system.
+     */
+    TripImpl(City origin, City destination, Train train, Instant departureTime, Instant arrivalTime,
+             TripListener listener, TicketStore ticketStore, HoldTimer holdTimer, int serviceDay) {
         this.origin = origin;
         this.destination = destination;
         this.train = train;
         this.departureTime = departureTime;
         this.arrivalTime = arrivalTime;
-        this.bookedTickets = new ArrayList<>();
-        this.cancelledTickets = new ArrayList<>();
+        this.serviceDay = serviceDay;
         this.cancelled = false;
         this.departureDelay = Duration.ZERO;
         this.arrivalDelay = Duration.ZERO;
+        this.listener = listener;
+        this.holdTimer = holdTimer;
+        this.tickets = ticketStore.createTripTickets(this);
     }
 
     @Override
@@ -73,8 +99,8 @@ public class TripImpl implements Trip {
     @Override
     public void cancel() {
         this.cancelled = true;
-        for (Ticket ticket : bookedTickets) {
-            ticket.cancel();
+        for (Ticket ticket : this.tickets.getBooked()) {
+            releaseTicket(ticket);
         }
     }
 
@@ -83,9 +109,7 @@ public class TripImpl implements Trip {
         if (ticket.getTrip() != this) {
             throw new ReservationException();
         }
-        ticket.cancel();
-        this.bookedTickets.remove(ticket);
-        this.cancelledTickets.add(ticket);
+        releaseTicket(ticket);
     }
 
     @Override
@@ -120,31 +144,452 @@ public class TripImpl implements Trip {
 
     @Override
     public List<Ticket> getBookedTickets() {
-        return Collections.unmodifiableList(bookedTickets);
+        return Collections.unmodifiableList(this.tickets.getBooked());
     }
 
     @Override
     public List<Ticket> getCancelledTickets() {
-        return Collections.unmodifiableList(cancelledTickets);
+        return Collections.unmodifiableList(this.tickets.getCancelled());
     }
 
     @Override
     public Ticket bookTicket(String passengerName) throws ReservationException {
-        if (this.getBookedTickets().size() >= this.getTrain().getMaxPassengers()) {
+        return bookTicket(passengerName, null);
+    }
+
+    @Override
+    public Ticket bookTicket(String passengerName, SeatClass seatClass) throws ReservationException {
+        SystemMetrics metrics = this.listener.getMetrics();
+        if (metrics == null) {
+            return bookUntimedTicket(passengerName, seatClass);
+        }
+        long start = System.nanoTime();
+        try {
+            Ticket ticket = bookUntimedTicket(passengerName, seatClass);
+            metrics.recordBooking(System.nanoTime() - start);
+            return ticket;
+        } catch (ReservationException e) {
+            metrics.recordRejectedBooking();
+            throw e;
+        }
+    }
+
+    @Override
+    public List<Ticket> bookAdjacentTickets(List<String> passengerNames, SeatClass seatClass) throws ReservationException {
+        SystemMetrics metrics = this.listener.getMetrics();
+        if (metrics == null) {
+            return bookUntimedAdjacentTickets(passengerNames, seatClass);
+        }
+        long start = System.nanoTime();
+        try {
+            List<Ticket> tickets = bookUntimedAdjacentTickets(passengerNames, seatClass);
+            metrics.recordBooking(System.nanoTime() - start);
+            return tickets;
+        } catch (ReservationException e) {
+            metrics.recordRejectedBooking();
+            throw e;
+        }
+    }
+
+    @Override
+    public List<Ticket> bookTickets(Collection<String> passengerNames) throws ReservationException {
+        SystemMetrics metrics = this.listener.getMetrics();
+        if (metrics == null) {
+            return bookUntimedTickets(passengerNames);
+        }
+        long start = System.nanoTime();
+        try {
+            List<Ticket> tickets = bookUntimedTickets(passengerNames);
+            metrics.recordBooking(System.nanoTime() - start);
+            return tickets;
+        } catch (ReservationException e) {
+            metrics.recordRejectedBooking();
+            throw e;
+        }
+    }
+
+    @Override
+    public SeatHold holdSeat(String passengerName, Duration duration) throws ReservationException {
+        return holdSeat(passengerName, null, duration);
+    }
+
+    @Override
+    public SeatHold holdSeat(String passengerName, SeatClass seatClass, Duration duration) throws ReservationException {
+        int seat;
+        try {
+            seat = reserveSeat(seatClass);
+        } catch (ReservationException e) {
+            SystemMetrics metrics = this.listener.getMetrics();
+            if (metrics != null) {
+                metrics.recordRejectedBooking();
+            }
+            throw e;
+        }
+        SeatHoldImpl hold = new SeatHoldImpl(this, passengerName, seat, this.holdTimer.now().plus(duration), this.holdTimer);
+        if (!hold.schedule()) {
+            // The system was closed
+            releaseSeats(new int[] {seat});
             throw new ReservationException();
         }
-        Ticket ticket = new TicketImpl(passengerName, this);
-        this.bookedTickets.add(ticket);
+        return hold;
+    }
+
+    private Ticket bookUntimedTicket(String passengerName, SeatClass seatClass) throws ReservationException {
+        Ticket ticket = this.tickets.book(passengerName, this.train.getSeatMap().getSeat(reserveSeat(seatClass)));
+        // The trip may have been cancelled while booking, after cancel() went through the booked tickets
+        if (isClosed() && discardTicket(ticket)) {
+            throw new ReservationException();
+        }
+        this.listener.ticketBooked(ticket);
         return ticket;
     }
 
+    private List<Ticket> bookUntimedAdjacentTickets(List<String> passengerNames, SeatClass seatClass) throws ReservationException {
+        if (isClosed()) {
+            throw new ReservationException();
+        }
+        if (passengerNames.isEmpty()) {
+            return List.of();
+        }
+        if (!reserveSegment(passengerNames.size())) {
+            throw new ReservationException();
+        }
+        int first = getSeatAllocator().allocateAdjacent(seatClass, passengerNames.size());
+        if (first < 0) {
+            releaseSegment(passengerNames.size());
+            throw new ReservationException();
+        }
+        List<Ticket> tickets = new ArrayList<>(passengerNames.size());
+        for (int i = 0; i < passengerNames.size(); i++) {
+            tickets.add(this.tickets.book(passengerNames.get(i), this.train.getSeatMap().getSeat(first + i)));
+        }
+        if (isClosed() && discardTickets(tickets)) {
+            throw new ReservationException();
+        }
+        tickets.forEach(this.listener::ticketBooked);
+        return Collections.unmodifiableList(tickets);
+    }
+
+    private List<Ticket> bookUntimedTickets(Collection<String> passengerNames) throws ReservationException {
+        List<String> names = new ArrayList<>(passengerNames);
+        List<Ticket> tickets = addReservedTickets(names, reserveSeats(names.size()));
+        if (isClosed() && discardTickets(tickets)) {
+            throw new ReservationException();
+        }
+        tickets.forEach(this.listener::ticketBooked);
+        return Collections.unmodifiableList(tickets);
+    }
+
     @Override
-    public void addDepartureDelay(Duration delay) {
+    public synchronized void addDepartureDelay(Duration delay) {
         this.departureDelay = this.departureDelay.plus(delay);
     }
 
     @Override
-    public void addArrivalDelay(Duration delay) {
+    public synchronized void addArrivalDelay(Duration delay) {
         this.arrivalDelay = this.arrivalDelay.plus(delay);
     }
+
+    /**
+     * Sets the delays of the trip, eg. when replaying a journal.
+     */
+    synchronized void restoreDelays(Duration departureDelay, Duration arrivalDelay) {
+        this.departureDelay = departureDelay;
+        this.arrivalDelay = arrivalDelay;
+    }
+
+    /**
+     * Marks the trip as archived, so that it can no longer be booked. Must be called before its tickets are archived:
+     * a booking made meanwhile then either is archived with them, or sees the mark and is discarded.
+     */
+    void archive() {
+        this.archived = true;
+    }
+
+    /**
+     * Checks whether the trip can no longer be booked, because it was cancelled or archived.
+     * @return true if the trip is cancelled or archived.
+     */
+    boolean isClosed() {
+        return this.cancelled || this.archived;
+    }
+
+    /**
+     * Retrieves the service day of the trip (see {@link ServiceDays}), computed once when the trip was created.
+     * @return The number of the day of the planned departure.
+     */
+    int getServiceDay() {
+        return this.serviceDay;
+    }
+
+    /**
+     * Retrieves the tickets of the trip in the ticket store of the system, eg. to evict them when the trip is archived.
+     * @return The tickets of the trip.
+     */
+    TicketStore.TripTickets getTickets() {
+        return this.tickets;
+    }
+
+    /**
+     * Restores a ticket of the trip (eg. from a snapshot) on a given seat, without checking that the seat is free.
+     * @param passengerName The name of the passenger.
+     * @param cancelled Whether the ticket was cancelled.
+     * @param seat The index of the seat of the ticket.
+     * @return The restored ticket.
+     */
+    Ticket restoreTicket(String passengerName, boolean cancelled, int seat) {
+        Ticket ticket;
+        if (cancelled) {
+            ticket = this.tickets.restoreCancelled(passengerName, this.train.getSeatMap().getSeat(seat));
+            this.listener.ticketCancelled(ticket);
+        } else {
+            getSeatAllocator().occupy(seat);
+            SegmentOccupancy occupancy = this.occupancy;
+            if (occupancy != null) {
+                occupancy.add(this.segment, this.segment + 1, 1);
+            }
+            ticket = this.tickets.book(passengerName, this.train.getSeatMap().getSeat(seat));
+            this.listener.ticketBooked(ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * Makes the trip a leg of a multi-stop trip, whose seats are shared along its route.
+     * Bookings of the trip then also reserve its segment of the route. Must be called before the trip is booked.
+     * @param occupancy The occupancy of the segments of the route.
+     * @param segment The segment of the route served by the trip.
+     */
+    void joinRoute(SegmentOccupancy occupancy, int segment) {
+        this.segment = segment;
+        this.occupancy = occupancy;
+    }
+
+    /**
+     * Finds whether the trip is a leg of a multi-stop trip.
+     * @return true if the trip joined a route.
+     */
+    boolean isLeg() {
+        return this.occupancy != null;
+    }
+
+    /**
+     * Finds whether the trip is the leg following another trip in the same multi-stop trip.
+     * @param previous The other trip.
+     * @return true if both trips are consecutive legs of one multi-stop trip.
+     */
+    boolean isNextLegOf(Trip previous) {
+        return this.occupancy != null && previous instanceof TripImpl
+                && ((TripImpl) previous).occupancy == this.occupancy && ((TripImpl) previous).segment + 1 == this.segment;
+    }
+
+    /**
+     * Books a ticket whose place was already reserved on the segment of the trip, preferably on a given seat.
+     * The booking is only notified once confirmed, so that it can still be discarded.
+     * If the booking fails, the reservation of the segment is given back.
+     * @param passengerName The name of the passenger.
+     * @param preferredSeat The index of the preferred seat, or -1 for any seat.
+     * @return The booked ticket.
+     * @throws ReservationException If the trip was cancelled or archived, or has no free seat.
+     */
+    Ticket bookReservedTicket(String passengerName, int preferredSeat) throws ReservationException {
+        SeatAllocator allocator = getSeatAllocator();
+        int seat = isClosed() ? -1
+                : preferredSeat >= 0 && allocator.occupy(preferredSeat) ? preferredSeat : allocator.allocate(null);
+        if (seat < 0) {
+            releaseSegment(1);
+            throw new ReservationException();
+        }
+        Ticket ticket = this.tickets.book(passengerName, this.train.getSeatMap().getSeat(seat));
+        if (isClosed()) {
+            // Unless it is discarded, the ticket was already released by cancel(), with its seat and segment
+            discardTicket(ticket);
+            throw new ReservationException();
+        }
+        return ticket;
+    }
+
+    /**
+     * Reserves a free seat of a class.
+     * @param seatClass The class of the seat, or null for a seat of any class.
+     * @return The index of the reserved seat.
+     * @throws ReservationException If the trip has no free seat of this class, or was cancelled or archived.
+     */
+    int reserveSeat(SeatClass seatClass) throws ReservationException {
+        if (isClosed() || !reserveSegment(1)) {
+            throw new ReservationException();
+        }
+        int seat = getSeatAllocator().allocate(seatClass);
+        if (seat < 0) {
+            releaseSegment(1);
+            throw new ReservationException();
+        }
+        return seat;
+    }
+
+    /**
+     * Reserves free seats of any class for a group of passengers, with a single claim on the seat bitmap.
+     * @param count The amount of seats.
+     * @return The indexes of the reserved seats.
+     * @throws ReservationException If the trip does not have enough free seats, or was cancelled or archived.
+     */
+    int[] reserveSeats(int count) throws ReservationException {
+        if (isClosed() || !reserveSegment(count)) {
+            throw new ReservationException();
+        }
+        int[] seats = getSeatAllocator().allocateMany(count);
+        if (seats == null) {
+            releaseSegment(count);
+            throw new ReservationException();
+        }
+        return seats;
+    }
+
+    /**
+     * Frees seats reserved with reserveSeats, whose tickets will not be booked.
+     * @param seats The indexes of the seats.
+     */
+    void releaseSeats(int[] seats) {
+        for (int seat : seats) {
+            getSeatAllocator().release(seat);
+        }
+        releaseSegment(seats.length);
+    }
+
+    /**
+     * Books the tickets of a group on seats reserved with reserveSeats, in bulk.
+     * The bookings are not notified, so that they can still be discarded.
+     * @param passengerNames The names of the passengers.
+     * @param seats The indexes of the reserved seats, in the order of the passengers.
+     * @return The booked tickets, in the order of the passengers.
+     */
+    List<Ticket> addReservedTickets(List<String> passengerNames, int[] seats) {
+        List<Seat> reservedSeats = new ArrayList<>(seats.length);
+        for (int seat : seats) {
+            reservedSeats.add(this.train.getSeatMap().getSeat(seat));
+        }
+        return this.tickets.bookAll(passengerNames, reservedSeats);
+    }
+
+    /**
+     * Releases a booked ticket that is exchanged for a ticket of another trip, and frees its seat.
+     * The release is only notified with the exchange.
+     * @param ticket The exchanged ticket.
+     * @return true if the ticket was booked, false if it was already cancelled or exchanged.
+     */
+    boolean releaseExchangedTicket(Ticket ticket) {
+        if (!this.tickets.release(ticket)) {
+            return false;
+        }
+        ticket.cancel();
+        getSeatAllocator().release(ticket.getSeat().getIndex());
+        releaseSegment(1);
+        return true;
+    }
+
+    /**
+     * Notifies the exchange of a ticket for a ticket of this trip, added with addReservedTickets.
+     * @param oldTicket The exchanged ticket, released from its trip.
+     * @param newTicket The new ticket.
+     */
+    void confirmExchangedTicket(Ticket oldTicket, Ticket newTicket) {
+        this.listener.ticketExchanged(oldTicket, newTicket);
+    }
+
+    /**
+     * Notifies the booking of a ticket booked with bookReservedTicket.
+     * @param ticket The booked ticket.
+     */
+    void confirmReservedTicket(Ticket ticket) {
+        this.listener.ticketBooked(ticket);
+    }
+
+    /**
+     * Computes the part of the seats of the trip that are booked or held, from the bitmap of its seat allocator.
+     * @return The load factor, between 0 and 1.
+     */
+    double findLoadFactor() {
+        SeatAllocator allocator = this.seatAllocator;
+        int seats = this.train.getSeatMap().getSeatCount();
+        if (allocator == null || seats == 0) {
+            return 0;
+        }
+        return (double) (seats - allocator.countFreeSeats()) / seats;
+    }
+
+    /**
+     * Retrieves the allocator of the seats of the trip, created on the first booking
+     * so that trips that are never booked do not hold a seat map.
+     * @return The seat allocator.
+     */
+    SeatAllocator getSeatAllocator() {
+        SeatAllocator allocator = this.seatAllocator;
+        if (allocator == null) {
+            synchronized (this) {
+                allocator = this.seatAllocator;
+                if (allocator == null) {
+                    allocator = new SeatAllocator(this.train.getSeatMap());
+                    this.seatAllocator = allocator;
+                }
+            }
+        }
+        return allocator;
+    }
+
+    /**
+     * Removes a ticket whose booking failed, and frees its seat.
+     * @return true if the ticket was removed, false if it had already been cancelled with the trip.
+     */
+    boolean discardTicket(Ticket ticket) {
+        if (!this.tickets.discard(ticket)) {
+            return false;
+        }
+        ticket.cancel();
+        getSeatAllocator().release(ticket.getSeat().getIndex());
+        releaseSegment(1);
+        return true;
+    }
+
+    /**
+     * Removes tickets whose booking failed, and frees their seats.
+     * @return true if at least one ticket was removed.
+     */
+    boolean discardTickets(List<Ticket> tickets) {
+        boolean discarded = false;
+        for (Ticket ticket : tickets) {
+            discarded |= discardTicket(ticket);
+        }
+        return discarded;
+    }
+
+    /**
+     * Reserves places on the segment of the trip, if the trip is a leg of a multi-stop trip.
+     * @return false if the segment does not have enough free places.
+     */
+    private boolean reserveSegment(int amount) {
+        SegmentOccupancy occupancy = this.occupancy;
+        return occupancy == null || occupancy.tryReserve(this.segment, this.segment + 1, amount, this.train.getMaxPassengers());
+    }
+
+    private void releaseSegment(int amount) {
+        SegmentOccupancy occupancy = this.occupancy;
+        if (occupancy != null) {
+            occupancy.add(this.segment, this.segment + 1, -amount);
+        }
+    }
+
+    /**
+     * Cancels a ticket, and frees its seat if it was booked on this trip.
+     * Only the thread that releases the ticket from the store frees the seat,
+     * so concurrent cancellations of the same ticket free it only once.
+     * @param ticket The ticket to cancel.
+     */
+    private void releaseTicket(Ticket ticket) {
+        ticket.cancel();
+        if (this.tickets.release(ticket)) {
+            getSeatAllocator().release(ticket.getSeat().getIndex());
+            releaseSegment(1);
+            this.listener.ticketCancelled(ticket);
+        }
+    }
 }
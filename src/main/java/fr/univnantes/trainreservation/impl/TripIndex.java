@@ -0,0 +1,239 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.Trip;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Indexes the trips of a system by origin, by origin and destination, and by service day.
+ * The service day of a trip is the number of the date of its planned departure in the time zone of the system
+ * (see {@link ServiceDays}), computed once when the trip is created. Trips are kept in one bucket per service day,
+ * in maps sorted by day, so that a range of days is found at once.
+ * Trips of each origin and of each route are also ordered by planned departure, to answer range queries lazily.
+ * Since delays never change the planned departure, a trip never moves from one service day to another.
+ * The index can be read and updated by many threads at once, and reads never block.
+ * Buckets of days and of departures are dropped as soon as they become empty (eg. once their trips are archived),
+ * so that the index only grows with the trips of the system. Updates of one bucket hold its monitor: a bucket is
+ * closed before being dropped, and a trip added to a closed bucket goes to a new one, so no trip is ever lost.
+ */
+class TripIndex {
+
+    private final ServiceDays serviceDays;
+    private final Map<City, NavigableMap<Integer, Bucket>> tripsByOrigin;
+    private final Map<City, Map<City, NavigableMap<Integer, Bucket>>> tripsByRoute;
+    private final Map<City, NavigableMap<Instant, Bucket>> orderedTripsByOrigin;
+    private final Map<City, Map<City, NavigableMap<Instant, Bucket>>> orderedTripsByRoute;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param timeZone The time zone used to compute service days.
+     */
+    TripIndex(ZoneId timeZone) {
+        this.serviceDays = new ServiceDays(timeZone);
+        this.tripsByOrigin = new ConcurrentHashMap<>();
+        this.tripsByRoute = new ConcurrentHashMap<>();
+        this.orderedTripsByOrigin = new ConcurrentHashMap<>();
+        this.orderedTripsByRoute = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Finds the service day of a departure, to be given to the trip departing at that time.
+     *
+     * @param departure The planned departure.
+     * @return The number of the service day.
+     */
+    int findServiceDay(Instant departure) {
+        return this.serviceDays.findDay(departure);
+    }
+
+    /**
+     * Adds a trip to the index.
+     *
+     * @param trip The trip to add.
+     */
+    void add(Trip trip) {
+        int day = findServiceDay(trip);
+        NavigableMap<Integer, Bucket> originDays = this.tripsByOrigin
+                .computeIfAbsent(trip.getOrigin(), origin -> new ConcurrentSkipListMap<>());
+        NavigableMap<Integer, Bucket> routeDays = this.tripsByRoute
+                .computeIfAbsent(trip.getOrigin(), origin -> new ConcurrentHashMap<>())
+                .computeIfAbsent(trip.getDestination(), destination -> new ConcurrentSkipListMap<>());
+        NavigableMap<Instant, Bucket> routeDepartures = this.orderedTripsByRoute
+                .computeIfAbsent(trip.getOrigin(), origin -> new ConcurrentHashMap<>())
+                .computeIfAbsent(trip.getDestination(), destination -> new ConcurrentSkipListMap<>());
+        NavigableMap<Instant, Bucket> originDepartures = this.orderedTripsByOrigin
+                .computeIfAbsent(trip.getOrigin(), origin -> new ConcurrentSkipListMap<>());
+        addToBucket(originDays, day, trip);
+        addToBucket(routeDays, day, trip);
+        addToBucket(routeDepartures, trip.getPlannedDepartureTime(), trip);
+        addToBucket(originDepartures, trip.getPlannedDepartureTime(), trip);
+    }
+
+    /**
+     * Removes a trip from the index. Does nothing if the trip is not indexed.
+     *
+     * @param trip The trip to remove.
+     */
+    void remove(Trip trip) {
+        int day = findServiceDay(trip);
+        Map<Integer, Bucket> originDays = this.tripsByOrigin.get(trip.getOrigin());
+        if (originDays != null) {
+            removeFromBucket(originDays, day, trip);
+        }
+        Map<City, NavigableMap<Integer, Bucket>> destinations = this.tripsByRoute.get(trip.getOrigin());
+        Map<Integer, Bucket> routeDays = destinations == null ? null : destinations.get(trip.getDestination());
+        if (routeDays != null) {
+            removeFromBucket(routeDays, day, trip);
+        }
+        Map<City, NavigableMap<Instant, Bucket>> orderedDestinations = this.orderedTripsByRoute.get(trip.getOrigin());
+        NavigableMap<Instant, Bucket> routeDepartures = orderedDestinations == null ? null
+                : orderedDestinations.get(trip.getDestination());
+        if (routeDepartures != null) {
+            removeFromBucket(routeDepartures, trip.getPlannedDepartureTime(), trip);
+        }
+        NavigableMap<Instant, Bucket> originDepartures = this.orderedTripsByOrigin.get(trip.getOrigin());
+        if (originDepartures != null) {
+            removeFromBucket(originDepartures, trip.getPlannedDepartureTime(), trip);
+        }
+    }
+
+    /**
+     * Finds the indexed trips originating from a city on a service day.
+     *
+     * @param origin The city from which trips should originate.
+     * @param date The service day.
+     * @return The matching trips, in the order in which they were indexed.
+     */
+    Collection<Trip> find(City origin, LocalDate date) {
+        return findInBucket(this.tripsByOrigin.get(origin), date);
+    }
+
+    /**
+     * Finds the indexed trips between two cities on a service day.
+     *
+     * @param origin The city from which trips should originate.
+     * @param destination The city to which trips should arrive.
+     * @param date The service day.
+     * @return The matching trips, in the order in which they were indexed.
+     */
+    Collection<Trip> find(City origin, City destination, LocalDate date) {
+        Map<City, NavigableMap<Integer, Bucket>> destinations = this.tripsByRoute.getOrDefault(origin, Collections.emptyMap());
+        return findInBucket(destinations.get(destination), date);
+    }
+
+    /**
+     * Streams the indexed trips between two cities whose planned departure is strictly after an instant.
+     * The trips are found lazily, so consuming only the first trips of the stream does not go through the others.
+     *
+     * @param origin The city from which trips should originate.
+     * @param destination The city to which trips should arrive.
+     * @param after The instant after which trips should depart.
+     * @return The matching trips, ordered by planned departure.
+     */
+    Stream<Trip> findDepartingAfter(City origin, City destination, Instant after) {
+        Map<City, NavigableMap<Instant, Bucket>> destinations = this.orderedTripsByRoute.getOrDefault(origin, Collections.emptyMap());
+        NavigableMap<Instant, Bucket> departures = destinations.get(destination);
+        if (departures == null) {
+            return Stream.empty();
+        }
+        return departures.tailMap(after, false).values().stream().flatMap(Set::stream);
+    }
+
+    /**
+     * Streams the indexed trips originating from a city on a range of service days.
+     * The trips are found lazily, so consuming only the first trips of the stream does not go through the others.
+     *
+     * @param origin The city from which trips should originate.
+     * @param firstDate The first service day.
+     * @param lastDate The last service day (included).
+     * @return The matching trips, ordered by planned departure, then in the order in which they were indexed.
+     */
+    Stream<Trip> findOrdered(City origin, LocalDate firstDate, LocalDate lastDate) {
+        return findDepartingOn(this.orderedTripsByOrigin.get(origin), firstDate, lastDate);
+    }
+
+    /**
+     * Streams the indexed trips between two cities on a range of service days (see findOrdered).
+     *
+     * @param origin The city from which trips should originate.
+     * @param destination The city to which trips should arrive.
+     * @param firstDate The first service day.
+     * @param lastDate The last service day (included).
+     * @return The matching trips, ordered by planned departure, then in the order in which they were indexed.
+     */
+    Stream<Trip> findOrdered(City origin, City destination, LocalDate firstDate, LocalDate lastDate) {
+        Map<City, NavigableMap<Instant, Bucket>> destinations = this.orderedTripsByRoute.getOrDefault(origin, Collections.emptyMap());
+        return findDepartingOn(destinations.get(destination), firstDate, lastDate);
+    }
+
+    private Stream<Trip> findDepartingOn(NavigableMap<Instant, Bucket> departures, LocalDate firstDate, LocalDate lastDate) {
+        if (departures == null || lastDate.isBefore(firstDate)) {
+            return Stream.empty();
+        }
+        Instant start = this.serviceDays.findStart(ServiceDays.findDay(firstDate));
+        Instant end = this.serviceDays.findStart(ServiceDays.findDay(lastDate) + 1L);
+        return departures.subMap(start, true, end, false).values().stream().flatMap(Set::stream);
+    }
+
+    /**
+     * Finds the service day of a trip, given to it when it was created.
+     *
+     * @param trip The trip.
+     * @return The number of the service day.
+     */
+    int findServiceDay(Trip trip) {
+        return trip instanceof TripImpl ? ((TripImpl) trip).getServiceDay() : findServiceDay(trip.getPlannedDepartureTime());
+    }
+
+    private static Collection<Trip> findInBucket(Map<Integer, Bucket> days, LocalDate date) {
+        Bucket dayTrips = days == null ? null : days.get(ServiceDays.findDay(date));
+        return dayTrips == null ? Collections.emptyList() : dayTrips;
+    }
+
+    private static <K> void addToBucket(Map<K, Bucket> buckets, K key, Trip trip) {
+        while (true) {
+            Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket());
+            synchronized (bucket) {
+                if (!bucket.closed) {
+                    bucket.add(trip);
+                    return;
+                }
+            }
+            // Emptied and being dropped by another thread: the trip goes to a new bucket
+            buckets.remove(key, bucket);
+        }
+    }
+
+    private static <K> void removeFromBucket(Map<K, Bucket> buckets, K key, Trip trip) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            if (!bucket.remove(trip) || !bucket.isEmpty()) {
+                return;
+            }
+            bucket.closed = true;
+        }
+        buckets.remove(key, bucket);
+    }
+
+    /**
+     * Trips of a day or of a departure, closed once empty so that it can be dropped.
+     */
+    private static class Bucket extends ConcurrentLinkedSet<Trip> {
+        private boolean closed;
+    }
+}
@@ -0,0 +1,52 @@
+package fr.univnantes.trainreservation.impl;
+
+import fr.univnantes.trainreservation.Ticket;
+
+/**
+ * Notified by a trip when its tickets change, so that the system can notify its own listeners.
+ */
+interface TripListener {
+
+    /**
+     * Listener that ignores all changes, for trips that do not belong to a system.
+     */
+    TripListener NONE = new TripListener() {
+        @Override
+        public void ticketBooked(Ticket ticket) {
+        }
+
+        @Override
+        public void ticketCancelled(Ticket ticket) {
+        }
+    };
+
+    /**
+     * Called when a ticket has been booked on the trip.
+     * @param ticket The booked ticket.
+     */
+    void ticketBooked(Ticket ticket);
+
+    /**
+     * Called when a booked ticket of the trip has been cancelled, either alone or with the trip.
+     * @param ticket The cancelled ticket.
+     */
+    void ticketCancelled(Ticket ticket);
+
+    /**
+     * Called when a ticket of another trip has been exchanged for a ticket of the trip.
+     * @param oldTicket The exchanged ticket, cancelled on its trip.
+     * @param newTicket The new ticket, booked on the trip.
+     */
+    default void ticketExchanged(Ticket oldTicket, Ticket newTicket) {
+        ticketCancelled(oldTicket);
+        ticketBooked(newTicket);
+    }
+
+    /**
+     * Retrieves the metrics in which the trip records its bookings.
+     * @return The metrics, or null if they are disabled.
+     */
+    default SystemMetrics getMetrics() {
+        return null;
+    }
+}
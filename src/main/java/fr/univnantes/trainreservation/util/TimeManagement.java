@@ -8,6 +8,9 @@ import java.time.format.DateTimeFormatter;
 
 public class TimeManagement {
 
+    // Formatters are immutable and thread-safe, so one is shared by all calls
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
     /**
      * Creates an Instant based on a date+time string formatted in this fashion: "2021-03-11 11:00"
      * Example of usage:
@@ -17,8 +20,7 @@ public class TimeManagement {
      * @return The resulting Instant corresponding to the date and timezone.
      */
     public static Instant createInstant(String dateTimeString, ZoneId zoneID) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-        LocalDateTime dateTime = LocalDateTime.parse(dateTimeString, formatter);
+        LocalDateTime dateTime = LocalDateTime.parse(dateTimeString, FORMATTER);
         ZonedDateTime zonedDateTime = ZonedDateTime.of(dateTime, zoneID);
         return zonedDateTime.toInstant();
     }
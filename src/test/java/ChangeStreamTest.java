@@ -0,0 +1,64 @@
+import fr.univnantes.trainreservation.ChangeEvent;
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripException;
+import fr.univnantes.trainreservation.impl.*;
+import fr.univnantes.trainreservation.util.TimeManagement;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ChangeStreamTest {
+
+    @Test
+    void streamPublishesChangesInOrderAndOverflowsWhenFull() throws TripException, ReservationException, InterruptedException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 20);
+        ChangeStream stream = ChangeStream.subscribe(trs, 8);
+        ChangeStream tripStream = ChangeStream.subscribe(trs, 8, EnumSet.of(ChangeEvent.Kind.TRIP_DELAYED));
+        Trip first = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip second = trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+        Ticket ticket = first.bookTicket("Luma");
+        first.cancelTicket(ticket);
+        trs.delayTripArrival(first, Duration.ofMinutes(20));
+
+        List<ChangeEvent> events = stream.poll(100, Duration.ofSeconds(1));
+        assertEquals(List.of(ChangeEvent.Kind.TRIP_CREATED, ChangeEvent.Kind.TRIP_CREATED, ChangeEvent.Kind.TICKET_BOOKED,
+                ChangeEvent.Kind.TICKET_CANCELLED, ChangeEvent.Kind.TRIP_DELAYED, ChangeEvent.Kind.TRIP_DELAYED),
+                events.stream().map(ChangeEvent::getKind).collect(Collectors.toList()));
+        assertSame(ticket, events.get(2).getTicket());
+        assertSame(second, events.get(5).getTrip());
+        assertEquals(Duration.ofMinutes(20), events.get(5).getDepartureDelay());
+        assertEquals(2, tripStream.poll(100).size());
+        assertTrue(stream.poll(100, Duration.ofMillis(10)).isEmpty());
+
+        for (int i = 0; i < 9; i++) {
+            second.bookTicket("Passenger " + i);
+        }
+        assertTrue(stream.isOverflowed());
+        assertEquals(1, stream.getDroppedEvents());
+        assertEquals(8, stream.poll(100).size());
+        second.bookTicket("Late");
+        assertEquals(2, stream.getDroppedEvents());
+        stream.resume();
+        second.bookTicket("Sam");
+        assertEquals("Sam", stream.poll(100).get(0).getTicket().getPassengerName());
+
+        stream.close();
+        first.bookTicket("Kim");
+        assertTrue(stream.poll(100).isEmpty());
+    }
+}
@@ -0,0 +1,440 @@
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripException;
+import fr.univnantes.trainreservation.impl.*;
+import fr.univnantes.trainreservation.util.TimeManagement;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class JournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoveredSystemHasTheJournaledChanges() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        trs.addCity(nantes);
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+
+        try (Journal journal = Journal.open(trs, snapshot, journalPath)) {
+            City rennes = new CityImpl("Rennes");
+            Train train = new TrainImpl("TER", 2);
+            trs.addTrain(train);
+            Trip first = trs.createTrip(nantes, rennes, train,
+                    TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+            Trip second = trs.createTrip(rennes, nantes, train,
+                    TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+            Trip third = trs.createTrip(nantes, rennes, train,
+                    TimeManagement.createInstant("2022-05-12 12:00", zone), TimeManagement.createInstant("2022-05-12 13:00", zone));
+            third.bookTicket("Luma");
+            Ticket alex = first.bookTicket("Alex");
+            alex.exchangeTicket(third);
+            second.bookTicket("Sam");
+            trs.delayTripArrival(first, Duration.ofMinutes(15));
+            trs.cancelTrip(second);
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+
+        assertEquals(1, recovered.getCities().size());
+        assertEquals(1, recovered.getAllTrains().size());
+        assertEquals(2, recovered.getAllTrips().size());
+        assertEquals(1, recovered.getAllCancelledTrips().size());
+        Trip first = recovered.getAllTrips().get(0);
+        Trip third = recovered.getAllTrips().get(1);
+        assertEquals(Duration.ofMinutes(15), first.getArrivalDelay());
+        assertEquals("Luma", third.getBookedTickets().get(0).getPassengerName());
+        assertEquals("Alex", third.getBookedTickets().get(1).getPassengerName());
+        assertEquals("Alex", first.getCancelledTickets().get(0).getPassengerName());
+        assertEquals("Sam", recovered.getAllCancelledTrips().get(0).getCancelledTickets().get(0).getPassengerName());
+    }
+
+    @Test
+    void concurrentBookingsAreAllJournaled() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        Trip trip = trs.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 1000),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (Journal journal = Journal.open(trs, snapshot, journalPath)) {
+            List<Future<Ticket>> bookings = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                String name = "Passenger " + i;
+                bookings.add(executor.submit(() -> trip.bookTicket(name)));
+            }
+            for (Future<Ticket> booking : bookings) {
+                booking.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(400, recovered.getAllBookedTickets().size());
+    }
+
+    @Test
+    void ticketsCancelledByOtherThreadsAreJournaled() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        Trip trip = trs.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 1000),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (Journal journal = Journal.open(trs, snapshot, journalPath)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int booker = i;
+                tasks.add(executor.submit(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        trip.bookTicket("Passenger " + booker + "-" + j);
+                    }
+                    return null;
+                }));
+                // Cancels the tickets as soon as they are visible, possibly before their booking is journaled
+                tasks.add(executor.submit(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        for (Ticket ticket : trip.getBookedTickets()) {
+                            try {
+                                trip.cancelTicket(ticket);
+                            } catch (ReservationException e) {
+                                // Cancelled by another thread
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(trip.getBookedTickets().size(), recovered.getAllBookedTickets().size());
+        assertEquals(trip.getCancelledTickets().size(), recovered.getAllCancelledTickets().size());
+    }
+
+    @Test
+    void checkpointEmptiesTheJournal() throws TripException, ReservationException, IOException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        Trip trip = trs.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 10),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+
+        try (Journal journal = Journal.open(trs, snapshot, journalPath)) {
+            trip.bookTicket("Luma");
+            journal.checkpoint();
+            trip.bookTicket("Sam");
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(2, recovered.getAllBookedTickets().size());
+    }
+
+    @Test
+    void changesMadeDuringCheckpointsAreRecoveredOnce() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        Trip trip = trs.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 1000),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (Journal journal = Journal.open(trs, snapshot, journalPath)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int booker = i;
+                tasks.add(executor.submit(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        Ticket ticket = trip.bookTicket("Passenger " + booker + "-" + j);
+                        if (j % 2 == 0) {
+                            trip.cancelTicket(ticket);
+                        }
+                        if (j % 10 == 0) {
+                            trs.delayTripArrival(trip, Duration.ofMinutes(1));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                while (!task.isDone()) {
+                    journal.checkpoint();
+                }
+                task.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(200, recovered.getAllBookedTickets().size());
+        assertEquals(200, recovered.getAllCancelledTickets().size());
+        assertEquals(Duration.ofMinutes(40), recovered.getAllTrips().get(0).getArrivalDelay());
+    }
+
+    @Test
+    void archivalIsJournaled() throws TripException, ReservationException, IOException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City paris = new CityImpl("Paris");
+        Train train = new TrainImpl("TGV", 10);
+        Trip first = trs.createTrip(nantes, paris, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        trs.createTrip(paris, nantes, train,
+                TimeManagement.createInstant("2022-05-12 11:00", zone), TimeManagement.createInstant("2022-05-12 13:00", zone));
+        first.bookTicket("Luma");
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+
+        try (Journal journal = Journal.open(trs, snapshot, journalPath)) {
+            trs.archiveTrips(TimeManagement.createInstant("2022-05-13 00:00", zone));
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(1, recovered.getAllTrips().size());
+        assertEquals(0, recovered.getAllBookedTickets().size());
+        assertEquals(List.of("Luma"), recovered.getArchive().streamTrips().findFirst().orElseThrow().getBookedPassengers());
+    }
+
+    @Test
+    void failedJournalRejectsTheChangesItDoesNotHave() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        Trip trip = trs.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 10),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+        AtomicBoolean failing = new AtomicBoolean();
+
+        try (Journal journal = Journal.open(trs, snapshot, journalPath,
+                path -> new FailingChannel(Journal.ChannelFactory.FILES.open(path), failing))) {
+            trip.bookTicket("Luma");
+            failing.set(true);
+            assertThrows(UncheckedIOException.class, () -> trip.bookTicket("Sam"));
+            failing.set(false);
+            // The journal holds a torn record: nothing is written after it
+            assertThrows(UncheckedIOException.class, () -> trip.bookTicket("Alex"));
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(1, recovered.getAllBookedTickets().size());
+    }
+
+    @Test
+    void checkpointRepairsAFailedJournal() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        Trip trip = trs.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 10),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+        AtomicBoolean failing = new AtomicBoolean();
+
+        try (Journal journal = Journal.open(trs, snapshot, journalPath,
+                path -> new FailingChannel(Journal.ChannelFactory.FILES.open(path), failing))) {
+            failing.set(true);
+            assertThrows(UncheckedIOException.class, () -> trip.bookTicket("Luma"));
+            failing.set(false);
+            journal.checkpoint();
+            trip.bookTicket("Sam");
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(2, recovered.getAllBookedTickets().size());
+    }
+
+    @Test
+    void interruptedThreadsStillJournal() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        Trip trip = trs.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 10),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+
+        try (Journal journal = Journal.open(trs, snapshot, journalPath)) {
+            Thread.currentThread().interrupt();
+            trip.bookTicket("Luma");
+            assertTrue(Thread.interrupted());
+            trip.bookTicket("Sam");
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(2, recovered.getAllBookedTickets().size());
+    }
+
+    @Test
+    void cancellingATripForcesTheJournalOnce() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        Trip trip = trs.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 100),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        for (int i = 0; i < 50; i++) {
+            trip.bookTicket("Passenger " + i);
+        }
+        Path snapshot = directory.resolve("system.snapshot");
+        Path journalPath = directory.resolve("system.journal");
+        List<FailingChannel> channels = new ArrayList<>();
+
+        try (Journal journal = Journal.open(trs, snapshot, journalPath, path -> {
+            FailingChannel channel = new FailingChannel(Journal.ChannelFactory.FILES.open(path), new AtomicBoolean());
+            channels.add(channel);
+            return channel;
+        })) {
+            int forces = channels.get(0).forces;
+            trs.cancelTrip(trip);
+            assertEquals(forces + 1, channels.get(0).forces);
+        }
+
+        TicketReservationSystemImpl recovered = Journal.recover(snapshot, journalPath);
+        assertEquals(50, recovered.getAllCancelledTickets().size());
+    }
+
+    /**
+     * Journal file that counts its disk syncs, and writes half of the buffers it is given then fails while failing.
+     */
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+        private final AtomicBoolean failing;
+        private volatile int forces;
+
+        private FailingChannel(FileChannel channel, AtomicBoolean failing) {
+            this.channel = channel;
+            this.failing = failing;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failing.get()) {
+                ByteBuffer half = src.duplicate();
+                half.limit(half.position() + half.remaining() / 2);
+                channel.write(half);
+                throw new IOException();
+            }
+            return channel.write(src);
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            forces++;
+            channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            throw new IOException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            throw new IOException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            throw new IOException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.Journey;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripException;
+import fr.univnantes.trainreservation.impl.*;
+import fr.univnantes.trainreservation.util.TimeManagement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+public class JourneyPlannerTest {
+
+    private TicketReservationSystemImpl trs;
+    private City nantes;
+    private City angers;
+    private City paris;
+    private Trip terToAngers;
+    private Trip terToParis;
+    private Trip tgvToParis;
+    private Trip intercityToParis;
+
+    @BeforeEach
+    void beforeEach() throws TripException {
+        trs = new TicketReservationSystemImpl(ZoneId.systemDefault());
+        nantes = new CityImpl("Nantes");
+        angers = new CityImpl("Angers");
+        paris = new CityImpl("Paris");
+        Train ter = new TrainImpl("TER", 100);
+        Train tgv = new TrainImpl("TGV", 500);
+        Train intercity = new TrainImpl("Intercity", 300);
+
+        terToAngers = trs.createTrip(nantes, angers, ter, time("08:00"), time("09:00"));
+        terToParis = trs.createTrip(angers, paris, ter, time("09:30"), time("10:30"));
+        tgvToParis = trs.createTrip(nantes, paris, tgv, time("09:00"), time("11:00"));
+        intercityToParis = trs.createTrip(angers, paris, intercity, time("09:20"), time("09:40"));
+    }
+
+    @Test
+    void earliestArrivalJourneyMayChangeTrain() {
+        Optional<Journey> journey = trs.findEarliestArrivalJourney(nantes, paris, time("07:00"), Duration.ofMinutes(15));
+
+        assertTrue(journey.isPresent());
+        assertEquals(List.of(terToAngers, intercityToParis), journey.get().getTrips());
+        assertEquals(1, journey.get().findTransfers());
+        assertEquals(time("09:40"), journey.get().findRealArrivalTime());
+    }
+
+    @Test
+    void earliestArrivalJourneyRespectsTheMinimumConnection() {
+        Optional<Journey> journey = trs.findEarliestArrivalJourney(nantes, paris, time("07:00"), Duration.ofMinutes(30));
+
+        assertEquals(List.of(terToAngers, terToParis), journey.get().getTrips());
+        assertEquals(0, journey.get().findTransfers());
+    }
+
+    @Test
+    void earliestArrivalJourneyUsesRealTimes() {
+        trs.delayTripDeparture(terToAngers, Duration.ofMinutes(10));
+
+        Optional<Journey> journey = trs.findEarliestArrivalJourney(nantes, paris, time("07:00"), Duration.ofMinutes(15));
+
+        assertEquals(List.of(terToAngers, terToParis), journey.get().getTrips());
+        assertEquals(time("10:40"), journey.get().findRealArrivalTime());
+    }
+
+    @Test
+    void fewestTransfersJourneyStaysInTheSameTrain() {
+        Optional<Journey> journey = trs.findFewestTransfersJourney(nantes, paris, time("07:00"), Duration.ofMinutes(15));
+
+        assertEquals(List.of(terToAngers, terToParis), journey.get().getTrips());
+    }
+
+    @Test
+    void noJourneyAfterTheLastDeparture() {
+        assertFalse(trs.findEarliestArrivalJourney(nantes, paris, time("09:30"), Duration.ofMinutes(15)).isPresent());
+        assertFalse(trs.findFewestTransfersJourney(paris, nantes, time("07:00"), Duration.ofMinutes(15)).isPresent());
+
+        trs.cancelTrip(tgvToParis);
+        assertFalse(trs.findEarliestArrivalJourney(nantes, paris, time("08:30"), Duration.ofMinutes(15)).isPresent());
+    }
+
+    @Test
+    void journeysDoNotRideThroughCancelledTrips() throws TripException {
+        City tours = new CityImpl("Tours");
+        City lyon = new CityImpl("Lyon");
+        Train regional = new TrainImpl("Regional", 100);
+        Trip toAngers = trs.createTrip(tours, angers, regional, time("12:00"), time("13:00"));
+        Trip toParis = trs.createTrip(angers, paris, regional, time("13:30"), time("14:00"));
+        Trip toLyon = trs.createTrip(paris, lyon, regional, time("14:30"), time("16:00"));
+
+        Optional<Journey> journey = trs.findFewestTransfersJourney(tours, lyon, time("11:00"), Duration.ofMinutes(15));
+        assertEquals(List.of(toAngers, toParis, toLyon), journey.get().getTrips());
+
+        trs.cancelTrip(toParis);
+        assertFalse(trs.findEarliestArrivalJourney(tours, lyon, time("11:00"), Duration.ofMinutes(15)).isPresent());
+        assertFalse(trs.findFewestTransfersJourney(tours, lyon, time("11:00"), Duration.ofMinutes(15)).isPresent());
+    }
+
+    private static Instant time(String time) {
+        return TimeManagement.createInstant("2022-05-12 " + time, ZoneId.systemDefault());
+    }
+}
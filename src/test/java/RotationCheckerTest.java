@@ -0,0 +1,75 @@
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.MultiStopTrip;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripConstraint;
+import fr.univnantes.trainreservation.TripException;
+import fr.univnantes.trainreservation.impl.*;
+import fr.univnantes.trainreservation.util.TimeManagement;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.List;
+
+public class RotationCheckerTest {
+
+    @Test
+    void checkerFindsRotationsBrokenByDelaysAndRechecksTouchedTrains() throws TripException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 10);
+        Trip first = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip second = trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+        for (int i = 0; i < 40; i++) {
+            trs.createTrip(nantes, rennes, new TrainImpl("TGV " + i, 10),
+                    TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        }
+        assertTrue(RotationChecker.checkAll(trs).isConsistent());
+
+        // Delaying the trip itself does not propagate the delay to the next trip of the train
+        first.addArrivalDelay(Duration.ofMinutes(55));
+        RotationChecker.Report report = RotationChecker.checkAll(trs);
+        assertEquals(41, report.getCheckedTrains());
+        assertEquals(1, report.getViolations().size());
+        assertSame(first, report.getViolations().get(0).getPreviousTrip());
+        assertSame(second, report.getViolations().get(0).getTrip());
+        assertEquals(TripConstraint.MINIMUM_TURNAROUND, report.getViolations().get(0).getConstraint());
+
+        try (RotationChecker checker = RotationChecker.start(trs, Duration.ofHours(1))) {
+            assertEquals(1, checker.recheck().getViolations().size());
+            trs.delayTripDeparture(second, Duration.ofMinutes(20));
+            RotationChecker.Report recheck = checker.recheck();
+            assertTrue(recheck.isConsistent());
+            assertEquals(41, recheck.getCheckedTrains());
+            assertEquals(List.of(), checker.getReport().getViolations());
+        }
+    }
+
+    @Test
+    void legsOfAMultiStopTripOnlyHaveToFollowEachOther() throws TripException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City angers = new CityImpl("Angers");
+        City paris = new CityImpl("Paris");
+        Train train = new TrainImpl("TGV", 10);
+        MultiStopTrip trip = trs.createMultiStopTrip(train, List.of(nantes, angers, paris),
+                List.of(TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 08:42", zone)),
+                List.of(TimeManagement.createInstant("2022-05-12 08:40", zone), TimeManagement.createInstant("2022-05-12 10:10", zone)));
+        trs.createTrip(paris, nantes, train,
+                TimeManagement.createInstant("2022-05-12 11:00", zone), TimeManagement.createInstant("2022-05-12 13:00", zone));
+        assertTrue(RotationChecker.checkAll(trs).isConsistent());
+
+        trip.getLegs().get(0).addArrivalDelay(Duration.ofMinutes(5));
+        RotationChecker.Report report = RotationChecker.checkAll(trs);
+        assertEquals(1, report.getViolations().size());
+        assertSame(trip.getLegs().get(1), report.getViolations().get(0).getTrip());
+        assertEquals(TripConstraint.DEPARTS_AFTER_PREVIOUS_ARRIVAL, report.getViolations().get(0).getConstraint());
+    }
+}
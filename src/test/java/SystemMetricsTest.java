@@ -0,0 +1,64 @@
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripException;
+import fr.univnantes.trainreservation.impl.*;
+import fr.univnantes.trainreservation.util.TimeManagement;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+public class SystemMetricsTest {
+
+    @Test
+    void metricsCountChangesAndMeasureLatenciesUntilClosed() throws TripException, ReservationException, JMException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 2);
+        SystemMetrics metrics = SystemMetrics.enable(trs);
+        Trip first = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip second = trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 09:30", zone), TimeManagement.createInstant("2022-05-12 10:30", zone));
+        assertThrows(TripException.class, () -> trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone)));
+
+        first.bookTickets(List.of("Luma", "Alex"));
+        assertThrows(ReservationException.class, () -> first.bookTicket("Sam"));
+        second.bookTicket("Sam");
+        first.cancelTicket(first.getBookedTickets().get(0));
+        trs.findAvailableTrips(nantes, LocalDate.of(2022, 5, 12));
+        trs.delayTripArrival(first, Duration.ofMinutes(30));
+
+        assertEquals(2, metrics.getTripsCreated());
+        assertEquals(1, metrics.getTripsRejected());
+        assertEquals(3, metrics.getTicketsBooked());
+        assertEquals(1, metrics.getTicketsCancelled());
+        assertEquals(1, metrics.getBookingsRejected());
+        assertEquals(1, metrics.getDelayEvents());
+        assertEquals(2, metrics.getDelayPropagationMax());
+        assertTrue(metrics.getBookingLatencyMax() > 0);
+        assertTrue(metrics.getBookingLatencyMedian() <= metrics.getBookingLatency99());
+        assertTrue(metrics.getQueryLatencyMax() > 0);
+        assertEquals(0.5, metrics.getLoadFactor(first));
+        assertEquals(0.5, metrics.getLoadFactor(train));
+        assertEquals(0, metrics.getFullTrips());
+
+        ObjectName name = metrics.registerMBean("test");
+        assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "TicketsBooked"));
+        metrics.close();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        second.bookTicket("Kim");
+        assertEquals(3, metrics.getTicketsBooked());
+    }
+}
@@ -0,0 +1,129 @@
+import fr.univnantes.trainreservation.ArchivedTrip;
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.MultiStopTrip;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripException;
+import fr.univnantes.trainreservation.impl.*;
+import fr.univnantes.trainreservation.util.TimeManagement;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+public class SystemSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadedSnapshotHasTheSavedState() throws TripException, ReservationException, IOException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 2);
+        trs.addCity(nantes);
+        trs.addCity(rennes);
+        trs.addTrain(train);
+        Trip first = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip second = trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+        Trip third = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 12:00", zone), TimeManagement.createInstant("2022-05-12 13:00", zone));
+        first.bookTicket("Luma");
+        Ticket alex = first.bookTicket("Alex");
+        first.cancelTicket(alex);
+        second.bookTicket("Luma");
+        third.bookTicket("Sam");
+        trs.delayTripArrival(first, Duration.ofMinutes(5));
+        trs.cancelTrip(third);
+
+        Path path = directory.resolve("system.snapshot");
+        SystemSnapshot.save(trs, path);
+        TicketReservationSystemImpl loaded = SystemSnapshot.load(path);
+
+        assertEquals(zone, loaded.getTimeZone());
+        assertEquals(List.of("Nantes", "Rennes"), List.of(loaded.getCities().get(0).getName(), loaded.getCities().get(1).getName()));
+        assertEquals(2, loaded.getAllTrains().get(0).getMaxPassengers());
+        assertEquals(2, loaded.getAllTrips().size());
+        assertEquals(1, loaded.getAllCancelledTrips().size());
+        assertEquals(2, loaded.getAllBookedTickets().size());
+        assertEquals(2, loaded.getAllCancelledTickets().size());
+
+        Trip loadedFirst = loaded.getAllTrips().get(0);
+        assertEquals(Duration.ofMinutes(5), loadedFirst.getArrivalDelay());
+        assertEquals(Duration.ofMinutes(5), loaded.getAllTrips().get(1).getDepartureDelay());
+        assertEquals("Luma", loadedFirst.getBookedTickets().get(0).getPassengerName());
+        assertEquals("Alex", loadedFirst.getCancelledTickets().get(0).getPassengerName());
+        assertTrue(loaded.getAllCancelledTrips().get(0).isCancelled());
+
+        City loadedNantes = loaded.getCities().get(0);
+        assertEquals(List.of(loadedFirst), loaded.findAvailableTrips(loadedNantes, LocalDate.of(2022, 5, 12)));
+        assertEquals(loaded.getAllTrips(), loaded.findOrderedTripsOfTrain(loaded.getAllTrains().get(0)));
+        loadedFirst.bookTicket("Sam");
+        assertThrows(ReservationException.class, () -> loadedFirst.bookTicket("Late"));
+    }
+
+    @Test
+    void loadedSnapshotKeepsTheSegmentsOfMultiStopTrips() throws TripException, ReservationException, IOException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City angers = new CityImpl("Angers");
+        City paris = new CityImpl("Paris");
+        Train train = new TrainImpl("TGV", 1);
+        MultiStopTrip trip = trs.createMultiStopTrip(train, List.of(nantes, angers, paris),
+                List.of(TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 08:42", zone)),
+                List.of(TimeManagement.createInstant("2022-05-12 08:40", zone), TimeManagement.createInstant("2022-05-12 10:10", zone)));
+        trip.bookTicket("Luma", angers, paris);
+
+        Path path = directory.resolve("system.snapshot");
+        SystemSnapshot.save(trs, path);
+        TicketReservationSystemImpl loaded = SystemSnapshot.load(path);
+
+        MultiStopTrip loadedTrip = loaded.getAllMultiStopTrips().get(0);
+        assertEquals(loaded.getAllTrips(), loadedTrip.getLegs());
+        City loadedNantes = loadedTrip.getStops().get(0);
+        City loadedParis = loadedTrip.getStops().get(2);
+        assertEquals(0, loadedTrip.findAvailableSeats(loadedNantes, loadedParis));
+        assertEquals(1, loadedTrip.bookTicket("Sam", loadedNantes, loadedTrip.getStops().get(1)).size());
+    }
+
+    @Test
+    void loadedSnapshotKeepsTheArchive() throws TripException, ReservationException, IOException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 2);
+        Trip first = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+        first.bookTicket("Luma");
+        first.cancelTicket(first.bookTicket("Alex"));
+        trs.archiveTrips(TimeManagement.createInstant("2022-05-13 00:00", zone));
+
+        Path path = directory.resolve("system.snapshot");
+        SystemSnapshot.save(trs, path);
+        TicketReservationSystemImpl loaded = SystemSnapshot.load(path);
+
+        assertEquals(1, loaded.getAllTrips().size());
+        assertEquals(1, loaded.getArchive().size());
+        ArchivedTrip archived = loaded.getArchive().findTrips(loaded.getAllTrips().get(0).getDestination(), LocalDate.of(2022, 5, 12)).get(0);
+        assertEquals("Rennes", archived.getDestination().getName());
+        assertSame(loaded.getAllTrips().get(0).getTrain(), archived.getTrain());
+        assertEquals(List.of("Luma"), archived.getBookedPassengers());
+        assertEquals(List.of("Alex"), archived.getCancelledPassengers());
+    }
+}
@@ -1,17 +1,38 @@
+import fr.univnantes.trainreservation.ArchivedTrip;
 import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.DelayEvent;
+import fr.univnantes.trainreservation.MultiStopTrip;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.SeatHold;
 import fr.univnantes.trainreservation.Ticket;
 import fr.univnantes.trainreservation.Train;
 import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripArchive;
+import fr.univnantes.trainreservation.TripException;
 import fr.univnantes.trainreservation.impl.*;
 import fr.univnantes.trainreservation.util.TimeManagement;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 public class TicketReservationSystemImplTest {
 
@@ -51,4 +72,614 @@ public class TicketReservationSystemImplTest {
 
         assertTrue(testList.containsAll(testedTickets));
     }
+
+    @Test
+    void findAvailableTripsOnlyReturnsTripsOfTheRequestedDay() throws TripException {
+        ZoneId zone = ZoneId.systemDefault();
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 100);
+        trs.addCity(nantes);
+        trs.addCity(rennes);
+        trs.addTrain(train);
+
+        Trip first = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip second = trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+        Trip third = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-13 08:00", zone), TimeManagement.createInstant("2022-05-13 09:00", zone));
+
+        assertEquals(List.of(first), trs.findAvailableTrips(nantes, LocalDate.of(2022, 5, 12)));
+        assertEquals(List.of(second), trs.findAvailableTrips(rennes, nantes, LocalDate.of(2022, 5, 12)));
+        assertEquals(List.of(third), trs.findAvailableTrips(nantes, rennes, LocalDate.of(2022, 5, 13)));
+
+        trs.cancelTrip(third);
+        assertTrue(trs.findAvailableTrips(nantes, rennes, LocalDate.of(2022, 5, 13)).isEmpty());
+    }
+
+    @Test
+    void findOrderedTripsOfTrainOnlyReturnsTripsOfThatTrain() throws TripException {
+        ZoneId zone = ZoneId.systemDefault();
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train ter = new TrainImpl("TER", 100);
+        Train tgv = new TrainImpl("TGV", 500);
+
+        Trip first = trs.createTrip(nantes, rennes, ter,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip other = trs.createTrip(rennes, nantes, tgv,
+                TimeManagement.createInstant("2022-05-12 08:30", zone), TimeManagement.createInstant("2022-05-12 09:30", zone));
+        Trip second = trs.createTrip(rennes, nantes, ter,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+
+        assertEquals(List.of(first, second), trs.findOrderedTripsOfTrain(ter));
+        assertEquals(List.of(other), trs.findOrderedTripsOfTrain(tgv));
+        assertEquals(Optional.of(second), trs.findNextTripOfTrain(ter, first));
+        assertEquals(Optional.of(first), trs.findPreviousTripOfTrain(ter, second));
+        assertEquals(Optional.empty(), trs.findNextTripOfTrain(ter, second));
+        assertThrows(TripException.class, () -> trs.findNextTripOfTrain(tgv, first));
+    }
+
+    @Test
+    void delayTripArrivalIsPropagatedToTheFollowingTrips() throws TripException {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 100);
+        Instant start = TimeManagement.createInstant("2022-05-12 06:00", ZoneId.systemDefault());
+        List<Trip> created = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            Instant departure = start.plus(Duration.ofHours(2 * i));
+            created.add(trs.createTrip(i % 2 == 0 ? nantes : rennes, i % 2 == 0 ? rennes : nantes, train,
+                    departure, departure.plus(Duration.ofHours(1))));
+        }
+
+        trs.delayTripArrival(created.get(0), Duration.ofMinutes(15));
+
+        assertEquals(Duration.ZERO, created.get(0).getDepartureDelay());
+        assertEquals(Duration.ofMinutes(15), created.get(0).getArrivalDelay());
+        assertEquals(Duration.ofMinutes(15), created.get(19999).getDepartureDelay());
+        assertEquals(Duration.ofMinutes(15), created.get(19999).getArrivalDelay());
+    }
+
+    @Test
+    void applyDelaysCanAbsorbDelaysWithTheTimeBetweenTrips() throws TripException {
+        ZoneId zone = ZoneId.systemDefault();
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 100);
+        Trip first = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip second = trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 09:30", zone), TimeManagement.createInstant("2022-05-12 10:30", zone));
+        Trip third = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 11:00", zone), TimeManagement.createInstant("2022-05-12 12:00", zone));
+
+        trs.applyDelays(List.of(DelayEvent.arrival(first, Duration.ofMinutes(30)),
+                DelayEvent.departure(third, Duration.ofMinutes(5))), true);
+
+        assertEquals(Duration.ofMinutes(30), first.getArrivalDelay());
+        assertEquals(Duration.ofMinutes(10), second.getDepartureDelay());
+        assertEquals(Duration.ofMinutes(10), second.getArrivalDelay());
+        assertEquals(Duration.ofMinutes(5), third.getDepartureDelay());
+    }
+
+    @Test
+    void tripsOfDifferentTrainsCanBeCreatedConcurrently() throws InterruptedException {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Instant start = TimeManagement.createInstant("2022-05-12 06:00", ZoneId.systemDefault());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 16; t++) {
+            Train train = new TrainImpl("TER " + t, 100);
+            trs.addTrain(train);
+            executor.execute(() -> {
+                for (int i = 0; i < 500; i++) {
+                    Instant departure = start.plus(Duration.ofHours(2 * i));
+                    try {
+                        trs.createTrip(i % 2 == 0 ? nantes : rennes, i % 2 == 0 ? rennes : nantes, train,
+                                departure, departure.plus(Duration.ofHours(1)));
+                    } catch (TripException e) {
+                        fail(e);
+                    }
+                    trs.findAvailableTrips(nantes, LocalDate.of(2022, 5, 12));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(16, trs.getAllTrains().size());
+        assertEquals(16 * 500, trs.getAllTrips().size());
+        assertEquals(16 * 5, trs.findAvailableTrips(nantes, rennes, LocalDate.of(2022, 5, 12)).size());
+    }
+
+    @Test
+    void tripsCreatedWhileOthersAreCancelledOnTheSameRouteStayIndexed() throws InterruptedException {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Instant start = TimeManagement.createInstant("2022-05-12 06:00", ZoneId.systemDefault());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            Train train = new TrainImpl("TER " + t, 100);
+            boolean cancelling = t % 2 == 0;
+            executor.execute(() -> {
+                for (int i = 0; i < 500; i++) {
+                    Instant departure = start.plus(Duration.ofHours(2 * i));
+                    try {
+                        Trip trip = trs.createTrip(i % 2 == 0 ? nantes : rennes, i % 2 == 0 ? rennes : nantes, train,
+                                departure, departure.plus(Duration.ofHours(1)));
+                        if (cancelling) {
+                            trs.cancelTrip(trip);
+                        }
+                    } catch (TripException e) {
+                        fail(e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Each kept trip departs at the same instant as a cancelled trip of the same route
+        assertEquals(4 * 250, trs.streamAvailableTrips(nantes, LocalDate.of(2022, 5, 12), LocalDate.of(2022, 7, 1)).count());
+        int byDay = 0;
+        int byRouteAndDay = 0;
+        for (LocalDate date = LocalDate.of(2022, 5, 12); date.isBefore(LocalDate.of(2022, 7, 1)); date = date.plusDays(1)) {
+            byDay += trs.findAvailableTrips(nantes, date).size();
+            byRouteAndDay += trs.findAvailableTrips(nantes, rennes, date).size();
+        }
+        assertEquals(4 * 250, byDay);
+        assertEquals(4 * 250, byRouteAndDay);
+    }
+
+    @Test
+    void tripsAddedWhileTheirEmptiedBucketsAreDroppedStayIndexed() throws InterruptedException, TripException {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Instant departure = TimeManagement.createInstant("2022-05-12 08:00", ZoneId.systemDefault());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            Train train = new TrainImpl("TER " + t, 100);
+            int cancellations = 1000 + 50 * t;
+            executor.execute(() -> {
+                try {
+                    // The buckets of the departure empty and fill again while the other trains keep their last trip
+                    for (int i = 0; i < cancellations; i++) {
+                        trs.cancelTrip(trs.createTrip(nantes, rennes, train, departure, departure.plus(Duration.ofHours(1))));
+                    }
+                    trs.createTrip(nantes, rennes, train, departure, departure.plus(Duration.ofHours(1)));
+                } catch (TripException e) {
+                    fail(e);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(8, trs.findAvailableTrips(nantes, LocalDate.of(2022, 5, 12)).size());
+        assertEquals(8, trs.findAvailableTrips(nantes, rennes, LocalDate.of(2022, 5, 12)).size());
+        assertEquals(8, trs.streamAvailableTrips(nantes, rennes, LocalDate.of(2022, 5, 12)).count());
+
+        // Archiving drops the buckets of the day, which are created again for new trips
+        for (Trip trip : trs.getAllTrips()) {
+            trs.createTrip(rennes, nantes, trip.getTrain(), departure.plus(Duration.ofDays(1)), departure.plus(Duration.ofDays(1).plusHours(1)));
+        }
+        int cancelled = trs.getAllCancelledTrips().size();
+        assertEquals(8 + cancelled, trs.archiveTrips(departure.plus(Duration.ofHours(2))));
+        assertEquals(0, trs.findAvailableTrips(nantes, LocalDate.of(2022, 5, 12)).size());
+        Trip late = trs.createTrip(nantes, rennes, new TrainImpl("TGV", 100), departure, departure.plus(Duration.ofHours(1)));
+        assertEquals(List.of(late), trs.findAvailableTrips(nantes, rennes, LocalDate.of(2022, 5, 12)));
+        assertEquals(List.of(late), trs.streamAvailableTrips(nantes, rennes, LocalDate.of(2022, 5, 12))
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void cancelTripsMovesAllTripsToTheCancelledTrips() throws TripException {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 100);
+        Instant start = TimeManagement.createInstant("2022-05-12 06:00", ZoneId.systemDefault());
+        List<Trip> created = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Instant departure = start.plus(Duration.ofHours(2 * i));
+            created.add(trs.createTrip(i % 2 == 0 ? nantes : rennes, i % 2 == 0 ? rennes : nantes, train,
+                    departure, departure.plus(Duration.ofHours(1))));
+        }
+
+        trs.cancelTrips(List.of(created.get(1), created.get(3), created.get(4)));
+        trs.cancelTrip(created.get(3));
+
+        assertEquals(List.of(created.get(0), created.get(2), created.get(5)), trs.getAllTrips());
+        assertEquals(List.of(created.get(1), created.get(3), created.get(4)), trs.getAllCancelledTrips());
+        assertEquals(List.of(created.get(0), created.get(2), created.get(5)), trs.findOrderedTripsOfTrain(train));
+        assertTrue(created.get(4).isCancelled());
+    }
+
+    @Test
+    void ticketViewsFollowBookingsAndCancellations() throws TripException, ReservationException {
+        ZoneId zone = ZoneId.systemDefault();
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 100);
+        Trip first = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip second = trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+        Collection<Ticket> booked = trs.viewBookedTickets();
+        Collection<Ticket> cancelled = trs.viewCancelledTickets();
+
+        Ticket luma = first.bookTicket("Luma");
+        Ticket alex = first.bookTicket("Alex");
+        Ticket sam = second.bookTicket("Sam");
+        assertEquals(3, booked.size());
+
+        first.cancelTicket(alex);
+        assertEquals(List.of(luma, sam), trs.getAllBookedTickets());
+        assertEquals(List.of(alex), trs.getAllCancelledTickets());
+
+        trs.cancelTrip(second);
+        assertEquals(1, booked.size());
+        assertEquals(2, cancelled.size());
+        assertTrue(cancelled.contains(sam));
+        assertThrows(UnsupportedOperationException.class, () -> booked.remove(luma));
+    }
+
+    @Test
+    void concurrentBookingsAndCancellationsKeepTheTicketViewsConsistent() throws Exception {
+        checkConcurrentBookingsAndCancellations(trs);
+        checkConcurrentBookingsAndCancellations(new TicketReservationSystemImpl(ZoneId.systemDefault(), true));
+    }
+
+    private static void checkConcurrentBookingsAndCancellations(TicketReservationSystemImpl system) throws Exception {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Instant departure = TimeManagement.createInstant("2022-05-12 08:00", ZoneId.systemDefault());
+        List<Trip> trips = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            trips.add(system.createTrip(nantes, rennes, new TrainImpl("TER " + t, 4000), departure, departure.plus(Duration.ofHours(1))));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            Trip trip = trips.get(thread % trips.size());
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    Ticket ticket = trip.bookTicket("Passenger " + i);
+                    if (i % 2 == 0) {
+                        trip.cancelTicket(ticket);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(8 * 500, system.getAllBookedTickets().size());
+        assertEquals(8 * 500, system.getAllCancelledTickets().size());
+        for (Trip trip : trips) {
+            assertEquals(2 * 500, trip.getBookedTickets().size());
+            assertEquals(2 * 500, trip.getCancelledTickets().size());
+        }
+    }
+
+    @Test
+    void compactTicketsBehaveLikeTicketObjects() throws TripException, ReservationException {
+        TicketReservationSystemImpl compact = new TicketReservationSystemImpl(ZoneId.systemDefault(), true);
+        ZoneId zone = ZoneId.systemDefault();
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 5000);
+        Trip first = compact.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        Trip second = compact.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+
+        Ticket luma = first.bookTicket("Luma");
+        Ticket alex = first.bookTicket("Alex");
+        Ticket sam = second.bookTicket("Sam");
+        for (int i = 0; i < 3000; i++) {
+            first.bookTicket("Passenger " + (i % 100));
+        }
+        assertEquals(3003, compact.viewBookedTickets().size());
+        assertEquals("Passenger 42", first.getBookedTickets().get(44).getPassengerName());
+        assertEquals(luma, first.getBookedTickets().get(0));
+        assertSame(first, luma.getTrip());
+
+        first.cancelTicket(alex);
+        assertTrue(alex.isCancelled());
+        assertEquals(List.of(alex), compact.getAllCancelledTickets());
+        assertEquals(List.of(alex), first.getCancelledTickets());
+        assertFalse(first.getBookedTickets().contains(alex));
+
+        compact.cancelTrip(second);
+        assertEquals(3001, compact.getAllBookedTickets().size());
+        assertEquals(List.of(alex, sam), compact.getAllCancelledTickets());
+        assertTrue(sam.isCancelled());
+        assertThrows(ReservationException.class, () -> second.cancelTicket(luma));
+    }
+
+    @Test
+    void findPossibleExchangesReturnsTheNextDeparturesOfTheSameRoute() throws TripException, ReservationException {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train ter = new TrainImpl("TER", 100);
+        Train tgv = new TrainImpl("TGV", 100);
+        Instant start = TimeManagement.createInstant("2022-05-12 06:00", ZoneId.systemDefault());
+        List<Trip> terTrips = new ArrayList<>();
+        List<Trip> tgvTrips = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Instant departure = start.plus(Duration.ofHours(2 * i));
+            terTrips.add(trs.createTrip(i % 2 == 0 ? nantes : rennes, i % 2 == 0 ? rennes : nantes, ter,
+                    departure, departure.plus(Duration.ofHours(1))));
+            tgvTrips.add(trs.createTrip(i % 2 == 0 ? nantes : rennes, i % 2 == 0 ? rennes : nantes, tgv,
+                    departure.plus(Duration.ofMinutes(30)), departure.plus(Duration.ofMinutes(90))));
+        }
+        Ticket ticket = terTrips.get(0).bookTicket("Luma");
+        trs.cancelTrip(terTrips.get(2));
+
+        assertEquals(List.of(tgvTrips.get(0), tgvTrips.get(2), terTrips.get(4), tgvTrips.get(4)),
+                trs.findPossibleExchanges(ticket));
+        assertEquals(List.of(tgvTrips.get(0), tgvTrips.get(2)), trs.findPossibleExchanges(ticket, 2));
+    }
+
+    @Test
+    void multiStopTripsShareSeatsBetweenTheirStops() throws TripException, ReservationException {
+        City nantes = new CityImpl("Nantes");
+        City angers = new CityImpl("Angers");
+        City paris = new CityImpl("Paris");
+        Train train = new TrainImpl("TGV", 2);
+        Instant start = TimeManagement.createInstant("2022-05-12 08:00", ZoneId.systemDefault());
+        MultiStopTrip trip = trs.createMultiStopTrip(train, List.of(nantes, angers, paris),
+                List.of(start, start.plus(Duration.ofMinutes(42))),
+                List.of(start.plus(Duration.ofMinutes(40)), start.plus(Duration.ofMinutes(130))));
+
+        List<Ticket> luma = trip.bookTicket("Luma", nantes, paris);
+        trip.bookTicket("Nami", nantes, angers);
+        List<Ticket> zoro = trip.bookTicket("Zoro", angers, paris);
+
+        assertEquals(2, luma.size());
+        assertEquals(luma.get(0).getSeat(), luma.get(1).getSeat());
+        assertEquals(0, trip.findAvailableSeats(nantes, paris));
+        assertThrows(ReservationException.class, () -> trip.bookTicket("Sanji", nantes, angers));
+        assertThrows(ReservationException.class, () -> trip.bookTicket("Sanji", paris, nantes));
+
+        trip.getLegs().get(1).cancelTicket(zoro.get(0));
+        assertEquals(1, trip.findAvailableSeats(angers, paris));
+        assertEquals(0, trip.findAvailableSeats(nantes, paris));
+        assertEquals(1, trip.bookTicket("Sanji", angers, paris).size());
+    }
+
+    @Test
+    void bookingGroupsOnSeveralTripsIsAllOrNothing() throws TripException, ReservationException {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 3);
+        Trip outbound = trs.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", ZoneId.systemDefault()), TimeManagement.createInstant("2022-05-12 09:00", ZoneId.systemDefault()));
+        Trip inbound = trs.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 18:00", ZoneId.systemDefault()), TimeManagement.createInstant("2022-05-12 19:00", ZoneId.systemDefault()));
+        inbound.bookTicket("Sam");
+
+        Map<Trip, List<String>> bookings = new LinkedHashMap<>();
+        bookings.put(outbound, List.of("Luma", "Alex", "Nami"));
+        bookings.put(inbound, List.of("Luma", "Alex", "Nami"));
+        assertThrows(ReservationException.class, () -> trs.bookTickets(bookings));
+        assertEquals(1, trs.getAllBookedTickets().size());
+
+        bookings.put(inbound, List.of("Luma", "Alex"));
+        List<Ticket> tickets = trs.bookTickets(bookings);
+        assertEquals(5, tickets.size());
+        assertEquals(outbound, tickets.get(0).getTrip());
+        assertEquals(inbound, tickets.get(4).getTrip());
+        assertEquals(6, trs.getAllBookedTickets().size());
+    }
+
+    @Test
+    void concurrentExchangesMoveEachTicketOnceWithinCapacity() throws Exception {
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Instant departure = TimeManagement.createInstant("2022-05-12 08:00", ZoneId.systemDefault());
+        Trip disrupted = trs.createTrip(nantes, rennes, new TrainImpl("TER", 500), departure, departure.plus(Duration.ofHours(1)));
+        Trip replacement = trs.createTrip(nantes, rennes, new TrainImpl("TGV", 300),
+                departure.plus(Duration.ofHours(2)), departure.plus(Duration.ofHours(3)));
+        Trip earlier = trs.createTrip(nantes, rennes, new TrainImpl("Bus", 500),
+                departure.minus(Duration.ofHours(2)), departure.minus(Duration.ofHours(1)));
+        List<Ticket> tickets = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            tickets.add(disrupted.bookTicket("Passenger " + i));
+        }
+        assertThrows(ReservationException.class, () -> tickets.get(0).exchangeTicket(earlier));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Ticket>> exchanges = new ArrayList<>();
+        for (int i = 0; i < 800; i++) {
+            Ticket ticket = tickets.get(i % 400);
+            exchanges.add(executor.submit(() -> ticket.exchangeTicket(replacement)));
+        }
+        int exchanged = 0;
+        for (Future<Ticket> exchange : exchanges) {
+            try {
+                exchange.get();
+                exchanged++;
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ReservationException);
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(300, exchanged);
+        assertEquals(300, replacement.getBookedTickets().size());
+        assertEquals(100, disrupted.getBookedTickets().size());
+        assertEquals(300, disrupted.getCancelledTickets().size());
+        assertEquals(400, trs.getAllBookedTickets().size());
+    }
+
+    @Test
+    void streamedQueriesAreOrderedAndLazy() throws TripException, ReservationException {
+        ZoneId zone = ZoneId.systemDefault();
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Instant start = TimeManagement.createInstant("2022-05-12 06:00", zone);
+        List<Trip> trips = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            // Later trains depart earlier, so creation order differs from departure order
+            Instant departure = start.plus(Duration.ofMinutes(30 - i));
+            trips.add(trs.createTrip(nantes, rennes, new TrainImpl("TER " + i, 10), departure, departure.plus(Duration.ofHours(1))));
+        }
+        trs.cancelTrip(trips.get(29));
+        trips.get(0).bookTicket("Luma");
+        trips.get(1).bookTicket("Alex");
+
+        List<Trip> firstTrips = trs.findAvailableTrips(nantes, LocalDate.of(2022, 5, 12), 3);
+        assertEquals(List.of(trips.get(28), trips.get(27), trips.get(26)), firstTrips);
+        assertEquals(trs.streamAvailableTrips(nantes, rennes, LocalDate.of(2022, 5, 12)).skip(3).findFirst(), Optional.of(trips.get(25)));
+        assertEquals(0, trs.streamAvailableTrips(nantes, LocalDate.of(2022, 5, 13)).count());
+        assertEquals(trs.getAllTrips(), trs.streamAllTrips().collect(Collectors.toList()));
+        assertEquals(List.of("Luma", "Alex"), trs.streamBookedTickets().map(Ticket::getPassengerName).collect(Collectors.toList()));
+        assertEquals(List.of(trips.get(3)), trs.streamOrderedTripsOfTrain(trips.get(3).getTrain()).collect(Collectors.toList()));
+    }
+
+    @Test
+    void serviceDaysFollowDaylightSavingTransitions() throws TripException {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        TicketReservationSystemImpl paris = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 100);
+        // Summer time starts on 2022-03-27, which lasts 23 hours, and ends on 2022-10-30, which lasts 25 hours
+        Trip shortDay = paris.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-03-27 23:30", zone), TimeManagement.createInstant("2022-03-28 00:20", zone));
+        Trip nextDay = paris.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-03-28 00:40", zone), TimeManagement.createInstant("2022-03-28 01:30", zone));
+        Trip longDay = paris.createTrip(nantes, rennes, new TrainImpl("TGV", 100),
+                TimeManagement.createInstant("2022-10-30 23:30", zone), TimeManagement.createInstant("2022-10-31 00:30", zone));
+
+        assertEquals(List.of(shortDay), paris.findAvailableTrips(nantes, LocalDate.of(2022, 3, 27)));
+        assertEquals(List.of(nextDay), paris.findAvailableTrips(rennes, LocalDate.of(2022, 3, 28)));
+        assertEquals(List.of(longDay), paris.findAvailableTrips(nantes, rennes, LocalDate.of(2022, 10, 30)));
+        assertEquals(List.of(), paris.findAvailableTrips(nantes, LocalDate.of(2022, 10, 31)));
+        assertEquals(List.of(shortDay, longDay), paris.streamAvailableTrips(nantes, LocalDate.of(2022, 3, 1), LocalDate.of(2022, 10, 30))
+                .collect(Collectors.toList()));
+        assertEquals(List.of(shortDay), paris.streamAvailableTrips(nantes, LocalDate.of(2022, 3, 27), LocalDate.of(2022, 10, 29))
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void archivedTripsLeaveTheSystemWithTheirTickets() throws TripException, ReservationException {
+        ZoneId zone = ZoneId.systemDefault();
+        for (boolean compactTickets : new boolean[] {false, true}) {
+            TicketReservationSystemImpl system = new TicketReservationSystemImpl(zone, compactTickets);
+            City nantes = new CityImpl("Nantes");
+            City rennes = new CityImpl("Rennes");
+            Train train = new TrainImpl("TER", 10);
+            Trip first = system.createTrip(nantes, rennes, train,
+                    TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+            Trip second = system.createTrip(rennes, nantes, train,
+                    TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+            Trip third = system.createTrip(nantes, rennes, train,
+                    TimeManagement.createInstant("2022-05-12 12:00", zone), TimeManagement.createInstant("2022-05-12 13:00", zone));
+            Trip cancelled = system.createTrip(nantes, rennes, new TrainImpl("TGV", 10),
+                    TimeManagement.createInstant("2022-05-12 08:30", zone), TimeManagement.createInstant("2022-05-12 09:30", zone));
+            Ticket luma = first.bookTicket("Luma");
+            first.cancelTicket(first.bookTicket("Alex"));
+            third.bookTicket("Sam");
+            system.cancelTrip(cancelled);
+            system.delayTripArrival(second, Duration.ofMinutes(5));
+
+            // The last trip of each train is kept, however late the instant
+            assertEquals(3, system.archiveTrips(TimeManagement.createInstant("2022-05-13 00:00", zone)));
+            assertEquals(0, system.archiveTrips(TimeManagement.createInstant("2022-05-13 00:00", zone)));
+            assertEquals(List.of(third), system.getAllTrips());
+            assertEquals(List.of(), system.getAllCancelledTrips());
+            assertEquals(List.of("Sam"), system.getAllBookedTickets().stream().map(Ticket::getPassengerName).collect(Collectors.toList()));
+            assertEquals(List.of(), system.getAllCancelledTickets());
+            assertEquals(List.of(third), system.findAvailableTrips(nantes, LocalDate.of(2022, 5, 12)));
+            system.createTrip(rennes, nantes, train,
+                    TimeManagement.createInstant("2022-05-12 14:00", zone), TimeManagement.createInstant("2022-05-12 15:00", zone));
+
+            TripArchive archive = system.getArchive();
+            assertEquals(3, archive.size());
+            List<ArchivedTrip> departures = archive.findTrips(nantes, LocalDate.of(2022, 5, 12));
+            assertEquals(2, departures.size());
+            ArchivedTrip archivedFirst = departures.stream().filter(trip -> !trip.isCancelled()).findFirst().orElseThrow();
+            assertEquals(first.getPlannedDepartureTime(), archivedFirst.getPlannedDepartureTime());
+            assertEquals(List.of("Luma"), archivedFirst.getBookedPassengers());
+            assertEquals(List.of(luma.getSeat()), archivedFirst.getBookedSeats());
+            assertEquals(List.of("Alex"), archivedFirst.getCancelledPassengers());
+            ArchivedTrip archivedSecond = archive.findTrips(rennes, nantes, LocalDate.of(2022, 5, 12)).get(0);
+            assertEquals(Duration.ofMinutes(5), archivedSecond.getArrivalDelay());
+            assertEquals(List.of(), archive.findTrips(nantes, LocalDate.of(2022, 5, 13)));
+        }
+    }
+
+    @Test
+    void archivedTripsCannotBeBooked() throws TripException, ReservationException {
+        ZoneId zone = ZoneId.systemDefault();
+        TicketReservationSystemImpl system = new TicketReservationSystemImpl(zone);
+        City nantes = new CityImpl("Nantes");
+        City rennes = new CityImpl("Rennes");
+        Train train = new TrainImpl("TER", 10);
+        Trip first = system.createTrip(nantes, rennes, train,
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 09:00", zone));
+        system.createTrip(rennes, nantes, train,
+                TimeManagement.createInstant("2022-05-12 10:00", zone), TimeManagement.createInstant("2022-05-12 11:00", zone));
+        Trip earlier = new TripImpl(nantes, rennes, new TrainImpl("TGV", 10),
+                TimeManagement.createInstant("2022-05-12 07:00", zone), TimeManagement.createInstant("2022-05-12 07:30", zone));
+        Ticket sam = earlier.bookTicket("Sam");
+        first.bookTicket("Luma");
+
+        assertEquals(1, system.archiveTrips(TimeManagement.createInstant("2022-05-12 09:30", zone)));
+
+        assertThrows(ReservationException.class, () -> first.bookTicket("Alex"));
+        assertThrows(ReservationException.class, () -> first.bookTickets(List.of("Alex", "Kim")));
+        assertThrows(ReservationException.class, () -> first.holdSeat("Alex", Duration.ofMinutes(5)));
+        assertThrows(ReservationException.class, () -> system.bookTickets(Map.of(first, List.of("Alex"))));
+        assertThrows(ReservationException.class, () -> sam.exchangeTicket(first));
+        assertFalse(sam.isCancelled());
+        assertEquals(List.of(), system.getAllBookedTickets());
+        assertEquals(List.of("Luma"), first.getBookedTickets().stream().map(Ticket::getPassengerName).collect(Collectors.toList()));
+    }
+
+    @Test
+    void seatHoldsExpireWithTheClockOfTheSystem() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        AtomicReference<Instant> now = new AtomicReference<>(TimeManagement.createInstant("2022-05-12 07:00", zone));
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return zone;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+        TicketReservationSystemImpl system = new TicketReservationSystemImpl(zone, false, clock);
+        Trip trip = system.createTrip(new CityImpl("Nantes"), new CityImpl("Paris"), new TrainImpl("TGV", 1),
+                TimeManagement.createInstant("2022-05-12 08:00", zone), TimeManagement.createInstant("2022-05-12 10:00", zone));
+        SeatHold hold = trip.holdSeat("Luma", Duration.ofMinutes(5));
+        assertThrows(ReservationException.class, () -> trip.bookTicket("Sam"));
+
+        now.set(now.get().plus(Duration.ofMinutes(6)));
+        for (int i = 0; i < 200 && hold.isActive(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(hold.isActive());
+        Ticket sam = trip.bookTicket("Sam");
+
+        system.close();
+        trip.cancelTicket(sam);
+        assertThrows(ReservationException.class, () -> trip.holdSeat("Alex", Duration.ofMinutes(5)));
+        assertEquals("Alex", trip.bookTicket("Alex").getPassengerName());
+    }
 }
@@ -0,0 +1,53 @@
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.TripConstraint;
+import fr.univnantes.trainreservation.impl.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TimetableImportTest {
+
+    @Test
+    void importReportsAllViolationsAndOnlyImportsValidTrains() throws IOException {
+        TicketReservationSystemImpl trs = new TicketReservationSystemImpl(ZoneId.of("Europe/Paris"));
+        Train ter = new TrainImpl("TER", 10);
+        Train tgv = new TrainImpl("TGV", 10);
+        trs.addTrain(ter);
+        trs.addTrain(tgv);
+        String timetable = String.join("\n",
+                "train,origin,destination,departure,arrival",
+                "TER,Rennes,Nantes,2022-05-12 10:00,2022-05-12 11:00",
+                "TER,Nantes,Rennes,2022-05-12 08:00,2022-05-12 09:00",
+                "# Evening",
+                "TGV,Nantes,Paris,2022-05-12 08:00,2022-05-12 10:00",
+                "TGV,Nantes,Lyon,2022-05-12 11:00,2022-05-12 15:00",
+                "TGV,Paris,Paris,2022-05-12 16:00,2022-05-12 17:00",
+                "ICE,Paris,Berlin,2022-05-12 08:00,2022-05-12 16:00",
+                "TER,Nantes",
+                "");
+
+        TimetableImport.Report report = TimetableImport.importCsv(trs, new StringReader(timetable));
+
+        // Lines of the TER are imported in departure order, whatever their order in the file
+        assertEquals(List.of("Nantes", "Rennes"), report.getImportedTrips().stream()
+                .map(trip -> trip.getOrigin().getName()).collect(Collectors.toList()));
+        assertEquals(trs.getAllTrips(), trs.findOrderedTripsOfTrain(ter));
+        assertEquals(List.of(), trs.findOrderedTripsOfTrain(tgv));
+        assertFalse(report.isComplete());
+        assertEquals(List.of(6, 7, 8, 9), report.getViolations().stream()
+                .map(TimetableImport.Violation::getLine).collect(Collectors.toList()));
+        assertEquals(TripConstraint.DEPARTS_FROM_PREVIOUS_DESTINATION, report.getViolations().get(0).getConstraint());
+        assertEquals(TripConstraint.DIFFERENT_DESTINATION, report.getViolations().get(1).getConstraint());
+        assertEquals(TimetableImport.Violation.Kind.UNKNOWN_TRAIN, report.getViolations().get(2).getKind());
+        assertEquals(TimetableImport.Violation.Kind.MALFORMED_LINE, report.getViolations().get(3).getKind());
+
+        Trip first = trs.findOrderedTripsOfTrain(ter).get(0);
+        assertSame(first.getOrigin(), trs.getAllTrips().get(1).getDestination());
+    }
+}
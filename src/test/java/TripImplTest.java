@@ -0,0 +1,221 @@
+import fr.univnantes.trainreservation.City;
+import fr.univnantes.trainreservation.ReservationException;
+import fr.univnantes.trainreservation.SeatClass;
+import fr.univnantes.trainreservation.SeatHold;
+import fr.univnantes.trainreservation.SeatMap;
+import fr.univnantes.trainreservation.Ticket;
+import fr.univnantes.trainreservation.Train;
+import fr.univnantes.trainreservation.Trip;
+import fr.univnantes.trainreservation.impl.*;
+import fr.univnantes.trainreservation.util.TimeManagement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TripImplTest {
+
+    private Trip trip;
+
+    @BeforeEach
+    void beforeEach() {
+        City nantes = new CityImpl("Nantes");
+        City nancy = new CityImpl("Nancy");
+        Train train = new TrainImpl("Nantes-Nancy", 100);
+        trip = new TripImpl(nantes, nancy, train,
+                TimeManagement.createInstant("2021-03-11 11:00", ZoneId.systemDefault()),
+                TimeManagement.createInstant("2021-03-11 15:00", ZoneId.systemDefault()));
+    }
+
+    @Test
+    void concurrentBookingsNeverExceedTheCapacityOfTheTrain() throws InterruptedException {
+        AtomicInteger booked = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            String passengerName = "Passenger " + i;
+            executor.execute(() -> {
+                try {
+                    trip.bookTicket(passengerName);
+                    booked.incrementAndGet();
+                } catch (ReservationException e) {
+                    // The train is full
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(100, booked.get());
+        assertEquals(100, trip.getBookedTickets().size());
+    }
+
+    @Test
+    void cancelTicketFreesTheSeat() throws ReservationException {
+        for (int i = 0; i < 99; i++) {
+            trip.bookTicket("Passenger " + i);
+        }
+        Ticket ticket = trip.bookTicket("Luma");
+        assertThrows(ReservationException.class, () -> trip.bookTicket("Late"));
+
+        trip.cancelTicket(ticket);
+        trip.cancelTicket(ticket);
+
+        assertTrue(ticket.isCancelled());
+        assertEquals(1, trip.getCancelledTickets().size());
+        assertNotNull(trip.bookTicket("Late"));
+        assertThrows(ReservationException.class, () -> trip.bookTicket("Later"));
+    }
+
+    @Test
+    void cancelledTripCannotBeBooked() throws ReservationException {
+        Ticket ticket = trip.bookTicket("Luma");
+
+        trip.cancel();
+
+        assertTrue(ticket.isCancelled());
+        assertTrue(trip.getBookedTickets().isEmpty());
+        assertThrows(ReservationException.class, () -> trip.bookTicket("Late"));
+    }
+
+    @Test
+    void ticketsAreAssignedDistinctSeatsOfTheRequestedClass() throws ReservationException {
+        Train train = new TrainImpl("TGV", new SeatMap(List.of(
+                new SeatMap.Car(SeatClass.FIRST, 10), new SeatMap.Car(SeatClass.SECOND, 100))));
+        Trip tgv = new TripImpl(new CityImpl("Nantes"), new CityImpl("Paris"), train,
+                TimeManagement.createInstant("2021-03-11 11:00", ZoneId.systemDefault()),
+                TimeManagement.createInstant("2021-03-11 13:00", ZoneId.systemDefault()));
+
+        Set<Integer> seats = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            Ticket ticket = tgv.bookTicket("First " + i, SeatClass.FIRST);
+            assertEquals(SeatClass.FIRST, ticket.getSeat().getSeatClass());
+            assertEquals(1, ticket.getSeat().getCar());
+            seats.add(ticket.getSeat().getIndex());
+        }
+        assertThrows(ReservationException.class, () -> tgv.bookTicket("Late", SeatClass.FIRST));
+        Ticket second = tgv.bookTicket("Second");
+        assertEquals(2, second.getSeat().getCar());
+        assertEquals(1, second.getSeat().getNumber());
+        seats.add(second.getSeat().getIndex());
+        assertEquals(11, seats.size());
+
+        Ticket freed = tgv.getBookedTickets().get(4);
+        tgv.cancelTicket(freed);
+        assertEquals(freed.getSeat(), tgv.bookTicket("Replacement", SeatClass.FIRST).getSeat());
+    }
+
+    @Test
+    void groupsAreAssignedAdjacentSeatsInTheSameCar() throws ReservationException {
+        List<Ticket> singles = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            singles.add(trip.bookTicket("Single " + i));
+        }
+        // Free every other seat, so that only the seats after the 60th are adjacent
+        for (int i = 0; i < 60; i += 2) {
+            trip.cancelTicket(singles.get(i));
+        }
+
+        List<Ticket> group = trip.bookAdjacentTickets(List.of("A", "B", "C", "D", "E", "F", "G", "H"), SeatClass.SECOND);
+
+        assertEquals(8, group.size());
+        assertEquals(60, group.get(0).getSeat().getIndex());
+        for (int i = 0; i < group.size(); i++) {
+            assertEquals(group.get(0).getSeat().getNumber() + i, group.get(i).getSeat().getNumber());
+        }
+        assertThrows(ReservationException.class, () -> trip.bookAdjacentTickets(List.of(
+                "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18",
+                "19", "20", "21", "22", "23", "24", "25", "26", "27", "28", "29", "30", "31", "32", "33"), SeatClass.SECOND));
+        assertEquals(38, trip.getBookedTickets().size());
+        assertEquals(0, trip.bookTicket("Reused").getSeat().getIndex());
+    }
+
+    @Test
+    void groupBookingsAreAllOrNothing() throws ReservationException {
+        List<String> group = new ArrayList<>();
+        for (int i = 0; i < 70; i++) {
+            group.add("Passenger " + i);
+        }
+        List<Ticket> tickets = trip.bookTickets(group);
+        Set<Integer> seats = new HashSet<>();
+        tickets.forEach(ticket -> seats.add(ticket.getSeat().getIndex()));
+
+        assertEquals(70, tickets.size());
+        assertEquals("Passenger 69", tickets.get(69).getPassengerName());
+        assertEquals(70, seats.size());
+        assertThrows(ReservationException.class, () -> trip.bookTickets(group));
+        assertEquals(70, trip.getBookedTickets().size());
+        assertEquals(30, trip.bookTickets(group.subList(0, 30)).size());
+    }
+
+    @Test
+    void trainsOfHugeCapacityAreBookedFromTheirFirstSeats() throws ReservationException {
+        Trip shuttle = new TripImpl(new CityImpl("Here"), new CityImpl("There"), new TrainImpl("Shuttle", Integer.MAX_VALUE),
+                TimeManagement.createInstant("2021-03-11 11:00", ZoneId.systemDefault()),
+                TimeManagement.createInstant("2021-03-11 12:00", ZoneId.systemDefault()));
+        Ticket first = shuttle.bookTicket("Luma");
+        Ticket second = shuttle.bookTicket("Sam");
+        shuttle.cancelTicket(first);
+
+        assertEquals(1, second.getSeat().getIndex());
+        assertEquals(0, shuttle.bookTicket("Alex").getSeat().getIndex());
+        assertThrows(ArithmeticException.class, () -> new SeatMap(List.of(
+                new SeatMap.Car(SeatClass.FIRST, Integer.MAX_VALUE), new SeatMap.Car(SeatClass.SECOND, 1))));
+    }
+
+    @Test
+    void standaloneTripsShareOneHoldTimer() throws ReservationException {
+        long before = countHoldTimerThreads();
+        for (int i = 0; i < 20; i++) {
+            new TripImpl(new CityImpl("Nantes"), new CityImpl("Rennes"), new TrainImpl("TER", 2),
+                    TimeManagement.createInstant("2021-03-11 11:00", ZoneId.systemDefault()),
+                    TimeManagement.createInstant("2021-03-11 12:00", ZoneId.systemDefault()))
+                    .holdSeat("Luma", Duration.ofMinutes(5));
+        }
+        assertTrue(countHoldTimerThreads() <= before + 1);
+    }
+
+    private static long countHoldTimerThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().equals("hold-timer")).count();
+    }
+
+    @Test
+    void heldSeatsAreConfirmedOrFreedWhenTheHoldsExpire() throws ReservationException, InterruptedException {
+        Trip small = new TripImpl(new CityImpl("Nantes"), new CityImpl("Rennes"), new TrainImpl("TER", 2),
+                TimeManagement.createInstant("2021-03-11 11:00", ZoneId.systemDefault()),
+                TimeManagement.createInstant("2021-03-11 12:00", ZoneId.systemDefault()));
+        SeatHold luma = small.holdSeat("Luma", Duration.ofMinutes(5));
+        SeatHold alex = small.holdSeat("Alex", Duration.ofMillis(100));
+
+        assertThrows(ReservationException.class, () -> small.bookTicket("Sam"));
+        Ticket ticket = luma.confirm();
+        assertEquals(luma.getSeat(), ticket.getSeat());
+        assertFalse(luma.isActive());
+        assertThrows(ReservationException.class, luma::confirm);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (alex.isActive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(alex.isActive());
+        assertThrows(ReservationException.class, alex::confirm);
+        assertEquals(alex.getSeat(), small.bookTicket("Sam").getSeat());
+        assertEquals(2, small.getBookedTickets().size());
+
+        small.cancelTicket(ticket);
+        SeatHold released = small.holdSeat("Nami", Duration.ofMinutes(5));
+        released.release();
+        assertFalse(released.isActive());
+        assertEquals(1, small.getBookedTickets().size());
+        small.bookTicket("Zoro");
+    }
+}